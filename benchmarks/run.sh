@@ -0,0 +1,13 @@
+#!/usr/bin/env bash
+# Builds the recorder and the benchmarks, then runs them writing the json results to benchmarks/results/<name>.json.
+# The name defaults to the short hash of the checked out commit, any further arguments are passed on to JMH.
+# To compare a change with its baseline, run this on the base commit and on the change and compare the two files.
+set -euo pipefail
+cd "$(dirname "$0")/.."
+name="${1:-$(git rev-parse --short HEAD)}"
+[ $# -gt 0 ] && shift
+mvn -B -q install -DskipTests
+mvn -B -q -f benchmarks/pom.xml package
+mkdir -p benchmarks/results
+java -jar benchmarks/target/benchmarks.jar -rf json -rff "benchmarks/results/$name.json" "$@"
+echo "Results written to benchmarks/results/$name.json"
@@ -0,0 +1,73 @@
+package me.davidthaler.tiktokliverecorder.benchmarks;
+
+import me.davidthaler.tiktokliverecorder.config.AppConfig;
+import me.davidthaler.tiktokliverecorder.config.WatcherConfig;
+import tools.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Fixtures shared by the benchmarks.
+ */
+final class Fixtures {
+
+    /** Object mapper instance. */
+    static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private Fixtures() {
+    }
+
+    /**
+     * Reads a fixture from the "fixtures" resources.
+     * @param name The file name of the fixture.
+     * @return The content of the fixture.
+     */
+    static byte[] read(String name) {
+        try (InputStream in = Fixtures.class.getResourceAsStream("/fixtures/" + name)) {
+            if (in == null) throw new IllegalArgumentException("No fixture named " + name);
+            return in.readAllBytes();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Builds an app config with every setting at its default.
+     * @return The app config.
+     */
+    static AppConfig appConfig() {
+        return OBJECT_MAPPER.readValue("{\"watchers\":[]}", AppConfig.class);
+    }
+
+    /**
+     * Builds a watcher config polling every few milliseconds.
+     * @param channel The channel.
+     * @param outputPath The output path.
+     * @return The watcher config.
+     */
+    static WatcherConfig watcherConfig(String channel, String outputPath) {
+        return OBJECT_MAPPER.readValue("{\"channel\":" + OBJECT_MAPPER.writeValueAsString(channel)
+                + ",\"pollIntervalQty\":5,\"pollIntervalUnit\":\"Millis\",\"outputPath\":"
+                + OBJECT_MAPPER.writeValueAsString(outputPath) + "}", WatcherConfig.class);
+    }
+
+    /**
+     * Deletes a directory tree created by a benchmark.
+     * @param root The root of the tree.
+     */
+    static void delete(Path root) {
+        if (root == null || !Files.exists(root)) return;
+        try (Stream<Path> paths = Files.walk(root)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) Files.delete(path);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+}
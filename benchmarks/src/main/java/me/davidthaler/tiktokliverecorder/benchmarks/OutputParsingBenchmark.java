@@ -0,0 +1,127 @@
+package me.davidthaler.tiktokliverecorder.benchmarks;
+
+import me.davidthaler.tiktokliverecorder.process.HelperThreads;
+import me.davidthaler.tiktokliverecorder.process.LineLogger;
+import me.davidthaler.tiktokliverecorder.process.LineSink;
+import me.davidthaler.tiktokliverecorder.process.ProcessOutputPump;
+import me.davidthaler.tiktokliverecorder.process.ProgressParser;
+import me.davidthaler.tiktokliverecorder.process.RecordingStats;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Handling of the ffmpeg output of a recording: the stderr filter dropping progress and blank lines before logging,
+ * and the parser of the -progress output. Each is measured on the lines alone and through the output pump, which
+ * also splits the stream into lines.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OutputParsingBenchmark {
+
+    /** Recorded ffmpeg stderr. */
+    private byte[] stderr;
+    /** Recorded ffmpeg -progress output. */
+    private byte[] progress;
+    /** Start and end offsets of the stderr lines. */
+    private int[] stderrLines;
+    /** Start and end offsets of the progress lines. */
+    private int[] progressLines;
+    /** Threads of the output pumps, virtual as in the app by default. */
+    private final HelperThreads threads = new HelperThreads(true);
+
+    /**
+     * Loads the fixtures and splits them into lines.
+     */
+    @Setup
+    public void setUp() {
+        stderr = Fixtures.read("ffmpeg-stderr.log");
+        progress = Fixtures.read("ffmpeg-progress.log");
+        stderrLines = lines(stderr);
+        progressLines = lines(progress);
+    }
+
+    /**
+     * Filters the stderr lines.
+     * @param blackhole Consumer of the logged lines.
+     */
+    @Benchmark
+    public void stderrFilter(Blackhole blackhole) {
+        feed(stderr, stderrLines, new LineLogger(blackhole::consume));
+    }
+
+    /**
+     * Pumps the stderr through the filter.
+     * @param blackhole Consumer of the logged lines.
+     * @throws InterruptedException Thrown if interrupted while waiting for the pump.
+     */
+    @Benchmark
+    public void stderrPumped(Blackhole blackhole) throws InterruptedException {
+        ProcessOutputPump.start(threads, new ByteArrayInputStream(stderr), "bench-stderr",
+                new LineLogger(blackhole::consume)).join();
+    }
+
+    /**
+     * Parses the progress lines.
+     * @return The stats of the recording.
+     */
+    @Benchmark
+    public RecordingStats progressParser() {
+        RecordingStats stats = new RecordingStats("bench", Path.of("bench.mkv"));
+        feed(progress, progressLines, new ProgressParser(stats));
+        return stats;
+    }
+
+    /**
+     * Pumps the progress output through the parser.
+     * @return The stats of the recording.
+     * @throws InterruptedException Thrown if interrupted while waiting for the pump.
+     */
+    @Benchmark
+    public RecordingStats progressPumped() throws InterruptedException {
+        RecordingStats stats = new RecordingStats("bench", Path.of("bench.mkv"));
+        ProcessOutputPump.start(threads, new ByteArrayInputStream(progress), "bench-progress",
+                new ProgressParser(stats)).join();
+        return stats;
+    }
+
+    /**
+     * Hands every line of a buffer to a sink.
+     * @param buffer The buffer.
+     * @param lines Start and end offsets of the lines.
+     * @param sink The sink.
+     */
+    private static void feed(byte[] buffer, int[] lines, LineSink sink) {
+        for (int i = 0; i < lines.length; i += 2) {
+            sink.line(buffer, lines[i], lines[i + 1] - lines[i]);
+        }
+    }
+
+    /**
+     * Splits a buffer into lines.
+     * @param buffer The buffer.
+     * @return Start and end offsets of every line, without its terminator.
+     */
+    private static int[] lines(byte[] buffer) {
+        List<Integer> offsets = new ArrayList<>();
+        int start = 0;
+        for (int i = 0; i < buffer.length; i++) {
+            if (buffer[i] == '\n') {
+                offsets.add(start);
+                offsets.add(i);
+                start = i + 1;
+            }
+        }
+        return offsets.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+}
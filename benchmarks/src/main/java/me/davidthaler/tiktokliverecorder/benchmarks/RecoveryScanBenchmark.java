@@ -0,0 +1,157 @@
+package me.davidthaler.tiktokliverecorder.benchmarks;
+
+import me.davidthaler.tiktokliverecorder.config.AppConfig;
+import me.davidthaler.tiktokliverecorder.config.WatcherConfig;
+import me.davidthaler.tiktokliverecorder.journal.RecordingJournal;
+import me.davidthaler.tiktokliverecorder.postprocess.ConvertToMP4;
+import me.davidthaler.tiktokliverecorder.postprocess.PostProcessingJob;
+import me.davidthaler.tiktokliverecorder.postprocess.PostProcessingService;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Finding the recordings left unfinished by an earlier run in an output directory of 10k to 100k files, once by
+ * scanning the directory as done without a journal and once by replaying a journal of as many recordings. About 2% of
+ * the files are recordings still to convert, the rest are finished mp4 files.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RecoveryScanBenchmark {
+
+    /** Number of files in the output directory, and of recordings in the journal. */
+    @Param({"10000", "100000"})
+    public int files;
+
+    /** Root of the files of the benchmark. */
+    private Path root;
+    /** The output directory. */
+    private File directory;
+    /** Names of the files in the output directory. */
+    private String[] names;
+    /** Journal as written by the earlier run, copied before every replay as replaying compacts it. */
+    private Path journal;
+    private AppConfig appConfig;
+    private WatcherConfig watcherConfig;
+
+    /**
+     * Creates the output directory and the journal.
+     * @throws IOException Thrown if the files could not be created.
+     */
+    @Setup
+    public void setUp() throws IOException {
+        root = Files.createTempDirectory("recovery-bench");
+        Path output = Files.createDirectory(root.resolve("out"));
+        directory = output.toFile();
+        names = new String[files];
+        for (int i = 0; i < files; i++) {
+            String base = String.format("channel_%06d", i);
+            if (i % 1000 == 2) {
+                names[i] = base + ".parts";
+                Files.createDirectory(output.resolve(names[i]));
+            } else {
+                names[i] = base + (i % 100 == 0 ? ".mkv" : i % 100 == 1 ? ".ts" : ".mp4");
+                Files.createFile(output.resolve(names[i]));
+            }
+        }
+        journal = root.resolve("journal.log");
+        writeJournal(journal, output);
+        appConfig = Fixtures.appConfig();
+        watcherConfig = Fixtures.watcherConfig("bench", output.toString());
+    }
+
+    /**
+     * Removes the files of the benchmark.
+     */
+    @TearDown
+    public void tearDown() {
+        Fixtures.delete(root);
+    }
+
+    /**
+     * Scans the output directory for unfinished recordings.
+     * @return The jobs finishing them.
+     */
+    @Benchmark
+    public List<PostProcessingJob> directoryScan() {
+        return PostProcessingService.findUnfinished(directory, appConfig, watcherConfig);
+    }
+
+    /**
+     * Checks the file names for pending recordings, without listing the directory.
+     * @param blackhole Consumer of the results.
+     */
+    @Benchmark
+    public void pendingDetection(Blackhole blackhole) {
+        for (String name : names) blackhole.consume(ConvertToMP4.isRecording(name));
+    }
+
+    /**
+     * Replays the journal and gets the pending recordings of the output directory.
+     * @param copy The fresh copy of the journal.
+     * @return The pending recordings.
+     * @throws IOException Thrown if the journal could not be read.
+     */
+    @Benchmark
+    public List<RecordingJournal.Pending> journalReplay(JournalCopy copy) throws IOException {
+        return new RecordingJournal(copy.file).pending(directory);
+    }
+
+    /**
+     * Writes a journal of the recordings of the output directory as an earlier run would have, every recording
+     * started, ended and remuxed except the 2% still pending.
+     * @param file The journal file.
+     * @param output The output directory.
+     * @throws IOException Thrown if the journal could not be written.
+     */
+    private void writeJournal(Path file, Path output) throws IOException {
+        long now = System.currentTimeMillis();
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for (int i = 0; i < files; i++) {
+                String base = output.resolve(String.format("channel_%06d", i)).toAbsolutePath().toString();
+                writer.write(now + "\tSTARTED\t" + base + "\tchannel\tfalse\n");
+                writer.write(now + "\tENDED\t" + base + "\n");
+                if (i % 100 > 1) {
+                    writer.write(now + "\tREMUX_STARTED\t" + base + "\n");
+                    writer.write(now + "\tREMUX_DONE\t" + base + "\n");
+                }
+            }
+        }
+    }
+
+    /**
+     * Fresh copy of the journal for every replay.
+     */
+    @State(Scope.Thread)
+    public static class JournalCopy {
+
+        /** The copy. */
+        private Path file;
+
+        /**
+         * Copies the journal.
+         * @param benchmark The benchmark state holding the journal.
+         * @throws IOException Thrown if the journal could not be copied.
+         */
+        @Setup(Level.Invocation)
+        public void copy(RecoveryScanBenchmark benchmark) throws IOException {
+            file = benchmark.journal.resolveSibling("replay.log");
+            Files.copy(benchmark.journal, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+
+    }
+
+}
@@ -0,0 +1,85 @@
+package me.davidthaler.tiktokliverecorder.benchmarks;
+
+import me.davidthaler.tiktokliverecorder.process.HelperThreads;
+import me.davidthaler.tiktokliverecorder.watcher.AdaptivePollInterval;
+import me.davidthaler.tiktokliverecorder.watcher.PollOutcome;
+import me.davidthaler.tiktokliverecorder.watcher.WatcherScheduler;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Overhead of the watcher scheduler with thousands of watchers. Every invocation schedules all watchers with an
+ * instant poll and a 5 ms interval, waits until each has polled a few times and cancels them, so the time above the
+ * polling intervals is the cost of the timer, the hand-off to the workers and the adaptive intervals.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SchedulerBenchmark {
+
+    /** Number of watchers. */
+    @Param({"1000", "5000"})
+    public int watchers;
+
+    /** Should the polls run on virtual threads? */
+    @Param({"true", "false"})
+    public boolean virtualThreads;
+
+    /** The scheduler under test. */
+    private WatcherScheduler scheduler;
+    /** Adaptive interval of each watcher. */
+    private List<AdaptivePollInterval> intervals;
+    /** Polls each watcher makes per invocation. */
+    private static final int POLLS_PER_WATCHER = 3;
+
+    /**
+     * Creates the scheduler with the threads the app would use.
+     */
+    @Setup
+    public void setUp() {
+        scheduler = new WatcherScheduler(new HelperThreads(virtualThreads));
+        intervals = new ArrayList<>(watchers);
+        for (int i = 0; i < watchers; i++) {
+            intervals.add(new AdaptivePollInterval(Fixtures.watcherConfig("channel_" + i, "out")));
+        }
+    }
+
+    /**
+     * Stops the scheduler.
+     */
+    @TearDown
+    public void tearDown() {
+        scheduler.shutdown();
+    }
+
+    /**
+     * Schedules every watcher until each has polled a few times.
+     * @return The number of watchers retired.
+     * @throws InterruptedException Thrown if interrupted while waiting for the polls.
+     */
+    @Benchmark
+    public int pollAll() throws InterruptedException {
+        CountDownLatch polled = new CountDownLatch(watchers * POLLS_PER_WATCHER);
+        List<WatcherScheduler.Handle> handles = new ArrayList<>(watchers);
+        for (AdaptivePollInterval interval : intervals) {
+            handles.add(scheduler.schedule(() -> {
+                polled.countDown();
+                return PollOutcome.NOT_LIVE;
+            }, interval));
+        }
+        polled.await();
+        List<CompletableFuture<Void>> retired = new ArrayList<>(watchers);
+        for (WatcherScheduler.Handle handle : handles) retired.add(handle.cancel());
+        CompletableFuture.allOf(retired.toArray(CompletableFuture[]::new)).join();
+        return retired.size();
+    }
+
+}
@@ -0,0 +1,92 @@
+package me.davidthaler.tiktokliverecorder.benchmarks;
+
+import me.davidthaler.tiktokliverecorder.status.RoomStatus;
+import me.davidthaler.tiktokliverecorder.status.StatusResponseDecoder;
+import me.davidthaler.tiktokliverecorder.status.UserRoom;
+import me.davidthaler.tiktokliverecorder.stream.PullUrlDecoder;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding of the responses of one live status check: the signer, the signed user lookup of a live user and a
+ * batched check_alive call of 50 rooms, plus picking the stream url out of the stream data of the user lookup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StatusDecodingBenchmark {
+
+    /** The decoder under test. */
+    private StatusResponseDecoder decoder;
+    /** Decoder of the stream urls. */
+    private PullUrlDecoder pullUrlDecoder;
+    /** Signer response. */
+    private byte[] signer;
+    /** User lookup response of a live user. */
+    private byte[] userLive;
+    /** check_alive response. */
+    private byte[] checkAlive;
+    /** Room ids of the check_alive batch. */
+    private List<String> batch;
+    /** Stream data of the live user. */
+    private String streamData;
+
+    /**
+     * Loads the fixtures.
+     */
+    @Setup
+    public void setUp() {
+        decoder = new StatusResponseDecoder(Fixtures.OBJECT_MAPPER);
+        pullUrlDecoder = new PullUrlDecoder(Fixtures.OBJECT_MAPPER);
+        signer = Fixtures.read("signer.json");
+        userLive = Fixtures.read("user-live.json");
+        checkAlive = Fixtures.read("check-alive.json");
+        batch = new ArrayList<>(decoder.decodeCheckAlive(new ByteArrayInputStream(checkAlive), List.of()).keySet());
+        streamData = decoder.decodeUserRoom(new ByteArrayInputStream(userLive)).streamData();
+    }
+
+    /**
+     * Decodes the signer response.
+     * @return The signed url.
+     */
+    @Benchmark
+    public String signer() {
+        return decoder.decodeSignedUrl(new ByteArrayInputStream(signer));
+    }
+
+    /**
+     * Decodes the user lookup of a live user.
+     * @return The room of the user.
+     */
+    @Benchmark
+    public UserRoom userLookup() {
+        return decoder.decodeUserRoom(new ByteArrayInputStream(userLive));
+    }
+
+    /**
+     * Decodes a check_alive batch.
+     * @return The status of every room.
+     */
+    @Benchmark
+    public Map<String, RoomStatus> checkAlive() {
+        return decoder.decodeCheckAlive(new ByteArrayInputStream(checkAlive), batch);
+    }
+
+    /**
+     * Picks the stream url out of the stream data of the user lookup.
+     * @return The stream url.
+     */
+    @Benchmark
+    public String streamUrl() {
+        return pullUrlDecoder.decodeStreamData(streamData);
+    }
+
+}
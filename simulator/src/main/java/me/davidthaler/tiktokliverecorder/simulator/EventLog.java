@@ -0,0 +1,97 @@
+package me.davidthaler.tiktokliverecorder.simulator;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Starts and stops of the recordings seen by the simulator, from the stub ffmpeg writing them to a file and from the
+ * stream endpoint serving the in-process downloader.
+ */
+public class EventLog {
+
+    /** Events of each channel. */
+    private final Map<String, List<Event>> events = new HashMap<>();
+
+    /**
+     * Records an event.
+     * @param channel The channel.
+     * @param start True for the start of a recording, false for its stop.
+     * @param at Time of the event, in epoch milliseconds.
+     */
+    public synchronized void record(String channel, boolean start, long at) {
+        events.computeIfAbsent(channel, k -> new ArrayList<>()).add(new Event(start, at));
+    }
+
+    /**
+     * Records the events written by the stub ffmpeg, lines of "[epoch millis] start|stop [channel]".
+     * @param file The events file.
+     * @throws IOException Thrown if the file could not be read.
+     */
+    public void load(Path file) throws IOException {
+        if (!Files.exists(file)) return;
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            String[] parts = line.trim().split(" ");
+            if (parts.length != 3) continue;
+            try {
+                record(parts[2], parts[1].equals("start"), Long.parseLong(parts[0]));
+            } catch (NumberFormatException ex) {
+                // Torn line of a stub killed mid-write.
+            }
+        }
+    }
+
+    /**
+     * Gets the intervals a channel was recorded in.
+     * @param channel The channel.
+     * @param runEnd End of the run, closing the recordings never stopped.
+     * @return The recorded intervals as start and end pairs, in start order.
+     */
+    public synchronized List<long[]> recorded(String channel, long runEnd) {
+        List<Event> channelEvents = new ArrayList<>(events.getOrDefault(channel, List.of()));
+        channelEvents.sort(Comparator.comparingLong(Event::at));
+        List<long[]> intervals = new ArrayList<>();
+        int open = 0;
+        long since = 0;
+        for (Event event : channelEvents) {
+            if (event.start()) {
+                if (open++ == 0) since = event.at();
+            } else if (open > 0 && --open == 0) {
+                intervals.add(new long[] {since, event.at()});
+            }
+        }
+        if (open > 0) intervals.add(new long[] {since, runEnd});
+        return intervals;
+    }
+
+    /**
+     * Counts the times a channel was recorded twice at once.
+     * @param channel The channel.
+     * @return The number of starts while already recording.
+     */
+    public synchronized int overlaps(String channel) {
+        List<Event> channelEvents = new ArrayList<>(events.getOrDefault(channel, List.of()));
+        channelEvents.sort(Comparator.comparingLong(Event::at));
+        int open = 0;
+        int overlaps = 0;
+        for (Event event : channelEvents) {
+            if (event.start()) {
+                if (open++ > 0) overlaps++;
+            } else if (open > 0) {
+                open--;
+            }
+        }
+        return overlaps;
+    }
+
+    /**
+     * A start or stop of a recording.
+     * @param start True for a start, false for a stop.
+     * @param at Time of the event, in epoch milliseconds.
+     */
+    private record Event(boolean start, long at) {
+    }
+
+}
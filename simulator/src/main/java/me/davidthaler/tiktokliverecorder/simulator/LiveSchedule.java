@@ -0,0 +1,118 @@
+package me.davidthaler.tiktokliverecorder.simulator;
+
+import java.time.Duration;
+import java.util.*;
+
+/**
+ * When each simulated channel is live. A share of the channels goes live once or twice during the run, each live in
+ * its own room, and the rest stay offline for the whole run.
+ */
+public class LiveSchedule {
+
+    /** Channels in the order they were given. */
+    private final List<String> channels;
+    /** Lives of each channel, in start order. */
+    private final Map<String, List<Live>> lives = new HashMap<>();
+    /** Lives by room id. */
+    private final Map<String, Live> rooms = new HashMap<>();
+    /** Room id of the first live, the others count up from it. */
+    private static final long FIRST_ROOM_ID = 7_400_000_000_000_000_000L;
+    /** Minimum offline time between two lives of a channel. */
+    private static final Duration OFFLINE_GAP = Duration.ofMinutes(1);
+
+    /**
+     * Default constructor, draws a random schedule.
+     * @param channels The channels.
+     * @param begin Start of the run, in epoch milliseconds.
+     * @param duration Length of the run.
+     * @param liveFraction Share of the channels going live during the run.
+     * @param minLive Shortest live.
+     * @param maxLive Longest live.
+     * @param random Source of randomness, seeded for a repeatable schedule.
+     */
+    public LiveSchedule(List<String> channels, long begin, Duration duration, double liveFraction, Duration minLive,
+                        Duration maxLive, Random random) {
+        this.channels = List.copyOf(channels);
+        long roomId = FIRST_ROOM_ID;
+        for (String channel : channels) {
+            List<Live> channelLives = new ArrayList<>();
+            if (random.nextDouble() < liveFraction) {
+                int count = random.nextDouble() < 0.25 ? 2 : 1;
+                long next = begin;
+                for (int i = 0; i < count; i++) {
+                    long latestStart = begin + duration.toMillis() - minLive.toMillis();
+                    if (next >= latestStart) break;
+                    long start = next + (long) (random.nextDouble() * (latestStart - next) / (count - i));
+                    long length = minLive.toMillis()
+                            + (long) (random.nextDouble() * (maxLive.toMillis() - minLive.toMillis()));
+                    Live live = new Live(channel, Long.toString(roomId++), start, start + length);
+                    channelLives.add(live);
+                    rooms.put(live.roomId(), live);
+                    next = live.end() + OFFLINE_GAP.toMillis();
+                }
+            }
+            lives.put(channel, channelLives);
+        }
+    }
+
+    /**
+     * Gets the channels.
+     * @return The channels.
+     */
+    public List<String> channels() {
+        return channels;
+    }
+
+    /**
+     * Gets the lives of a channel.
+     * @param channel The channel.
+     * @return The lives in start order, null if the channel is unknown.
+     */
+    public List<Live> lives(String channel) {
+        return lives.get(channel);
+    }
+
+    /**
+     * Gets the room a channel is in at a time: its current live, or its last one once ended.
+     * @param channel The channel.
+     * @param now The time, in epoch milliseconds.
+     * @return The live of the room, null if the channel has had no live yet.
+     */
+    public Live room(String channel, long now) {
+        Live room = null;
+        for (Live live : lives.getOrDefault(channel, List.of())) {
+            if (live.start() <= now) room = live;
+        }
+        return room;
+    }
+
+    /**
+     * Gets the live of a room.
+     * @param roomId The room id.
+     * @return The live, null if the room is unknown.
+     */
+    public Live live(String roomId) {
+        return rooms.get(roomId);
+    }
+
+    /**
+     * One live of a channel.
+     * @param channel The channel.
+     * @param roomId The room of the live.
+     * @param start Start of the live, in epoch milliseconds.
+     * @param end End of the live, in epoch milliseconds.
+     */
+    public record Live(String channel, String roomId, long start, long end) {
+
+        /**
+         * Checks if the live is on at a time.
+         * @param now The time, in epoch milliseconds.
+         * @return True if on.
+         */
+        public boolean isOn(long now) {
+            return start <= now && now < end;
+        }
+
+    }
+
+}
@@ -0,0 +1,405 @@
+package me.davidthaler.tiktokliverecorder.simulator;
+
+import org.apache.commons.cli.*;
+import tools.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Runs the recorder against the stub endpoints and the stub ffmpeg and yt-dlp with thousands of watchers, then
+ * reports how it did: the time from a live starting to its recording starting, the parts of each live not recorded,
+ * the peak and mean thread, process, heap and file descriptor usage, and the time the shutdown took.
+ * <p>
+ * The recorder runs as its own process, started from the classpath of the simulator, so it is measured alone and is
+ * shut down through its real shutdown hook.
+ */
+public class SimulationDriver {
+
+    /** Object mapper instance. */
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    /** HTTP Client instance, for scraping the metrics of the recorder. */
+    private static final HttpClient HTTP_CLIENT = HttpClient.newBuilder()
+            .connectTimeout(Duration.ofSeconds(2)).build();
+    /** Time the recorder is given to start before the first live. */
+    private static final Duration STARTUP_GRACE = Duration.ofSeconds(15);
+    /** Interval the metrics of the recorder are sampled at. */
+    private static final Duration SAMPLE_INTERVAL = Duration.ofSeconds(5);
+    /** Time the recorder is given to shut down before being killed. */
+    private static final Duration SHUTDOWN_TIMEOUT = Duration.ofSeconds(30);
+    /** Shortest unrecorded part of a live counted as a gap. */
+    private static final Duration GAP_TOLERANCE = Duration.ofSeconds(1);
+    /** Gauges of the recorder sampled, without the metrics prefix. */
+    private static final List<String> SAMPLED_GAUGES = List.of("threads", "child_processes", "active_recordings",
+            "heap_used_bytes", "open_file_descriptors");
+    /** Prefix of the recorder metrics. */
+    private static final String METRICS_PREFIX = "tiktok_recorder_";
+    /** Stub executables copied out of the jar. */
+    private static final List<String> STUBS = List.of("ffmpeg", "yt-dlp");
+
+    /**
+     * Main starter method.
+     * @param args The command line args.
+     * @throws Exception Thrown if the simulation could not be set up or run.
+     */
+    public static void main(String[] args) throws Exception {
+        Options options = new Options();
+        options.addOption(null, "channels", true, "Number of watched channels, default 1000");
+        options.addOption(null, "duration", true, "Length of the run in seconds, default 600");
+        options.addOption(null, "live-fraction", true, "Share of the channels going live, default 0.2");
+        options.addOption(null, "min-live", true, "Shortest live in seconds, default 120");
+        options.addOption(null, "max-live", true, "Longest live in seconds, default 600");
+        options.addOption(null, "latency-ms", true, "Mean latency of the stub endpoints, default 150");
+        options.addOption(null, "error-rate", true, "Share of the api calls failing, default 0.01");
+        options.addOption(null, "drop-rate", true, "Share of the streams ending before their live, default 0.1");
+        options.addOption(null, "bitrate-kbps", true, "Bitrate of the stub streams, default 256");
+        options.addOption(null, "poll-seconds", true, "Poll interval of the watchers, default 30");
+        options.addOption(null, "work", true, "Working directory, cleared of earlier recordings, default sim-work");
+        options.addOption(null, "seed", true, "Seed of the live schedule, default 1");
+        options.addOption(null, "java-opts", true, "JVM options of the recorder, space separated");
+        options.addOption(null, "native-downloader", false, "Record with the in-process downloader");
+        CommandLine cmd;
+        try {
+            cmd = new DefaultParser().parse(options, args);
+        } catch (ParseException ex) {
+            System.err.println("Invalid arguments: " + ex.getMessage());
+            System.exit(2);
+            return;
+        }
+        int channelCount = Integer.parseInt(cmd.getOptionValue("channels", "1000"));
+        Duration duration = Duration.ofSeconds(Long.parseLong(cmd.getOptionValue("duration", "600")));
+        Path work = Path.of(cmd.getOptionValue("work", "sim-work")).toAbsolutePath();
+        int bitrateKbps = Integer.parseInt(cmd.getOptionValue("bitrate-kbps", "256"));
+        boolean nativeDownloader = cmd.hasOption("native-downloader");
+
+        List<String> channels = new ArrayList<>();
+        for (int i = 0; i < channelCount; i++) channels.add(String.format("sim%05d", i));
+        long begin = System.currentTimeMillis() + STARTUP_GRACE.toMillis();
+        long runEnd = begin + duration.toMillis();
+        LiveSchedule schedule = new LiveSchedule(channels, begin, duration,
+                Double.parseDouble(cmd.getOptionValue("live-fraction", "0.2")),
+                Duration.ofSeconds(Long.parseLong(cmd.getOptionValue("min-live", "120"))),
+                Duration.ofSeconds(Long.parseLong(cmd.getOptionValue("max-live", "600"))),
+                new Random(Long.parseLong(cmd.getOptionValue("seed", "1"))));
+        EventLog events = new EventLog();
+        boolean separateHosts = System.getProperty("os.name", "").toLowerCase(Locale.ROOT).contains("linux");
+        StubTikTokServer server = new StubTikTokServer(schedule, events,
+                Duration.ofMillis(Long.parseLong(cmd.getOptionValue("latency-ms", "150"))),
+                Double.parseDouble(cmd.getOptionValue("error-rate", "0.01")),
+                Double.parseDouble(cmd.getOptionValue("drop-rate", "0.1")), bitrateKbps, separateHosts);
+
+        Files.createDirectories(work);
+        Path eventsFile = work.resolve("events.log");
+        Files.deleteIfExists(eventsFile);
+        Files.deleteIfExists(work.resolve("journal.json"));
+        Files.deleteIfExists(work.resolve("room-ids.json"));
+        // Recordings left by an earlier run would be recovered and skew the process and gap figures.
+        deleteTree(work.resolve("out"));
+        Path stubs = copyStubs(work.resolve("stubs"));
+        int metricsPort = freePort();
+        Path configFile = writeConfig(work, stubs, server, channels, metricsPort, nativeDownloader,
+                Long.parseLong(cmd.getOptionValue("poll-seconds", "30")));
+
+        List<String> command = new ArrayList<>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        String javaOpts = cmd.getOptionValue("java-opts", "");
+        for (String opt : javaOpts.trim().split("\\s+")) if (!opt.isEmpty()) command.add(opt);
+        command.addAll(List.of("-cp", System.getProperty("java.class.path"),
+                "me.davidthaler.tiktokliverecorder.App", "-c", configFile.toString()));
+        ProcessBuilder builder = new ProcessBuilder(command).directory(work.toFile()).redirectErrorStream(true)
+                .redirectOutput(work.resolve("recorder.log").toFile());
+        builder.environment().put("SIM_EVENTS", eventsFile.toString());
+        builder.environment().put("SIM_BITRATE_KBPS", Integer.toString(bitrateKbps));
+        builder.environment().put("SIM_HOST", server.webcastAddress().getAddress().getHostAddress());
+        builder.environment().put("SIM_PORT", Integer.toString(server.webcastAddress().getPort()));
+        System.out.printf("Simulating %d channels for %ds, recorder log at %s%n", channelCount,
+                duration.toSeconds(), work.resolve("recorder.log"));
+        Process recorder = builder.start();
+
+        Map<String, Stats> samples = new LinkedHashMap<>();
+        while (System.currentTimeMillis() < runEnd && recorder.isAlive()) {
+            sample(recorder, metricsPort, samples);
+            long wait = Math.min(SAMPLE_INTERVAL.toMillis(), runEnd - System.currentTimeMillis());
+            if (wait > 0) recorder.waitFor(wait, TimeUnit.MILLISECONDS);
+        }
+        Map<String, Object> report = new LinkedHashMap<>();
+        long stopped = System.currentTimeMillis();
+        if (recorder.isAlive()) {
+            recorder.destroy();
+            boolean exited = recorder.waitFor(SHUTDOWN_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+            report.put("shutdown_seconds", (System.currentTimeMillis() - stopped) / 1000.0);
+            report.put("shutdown_forced", !exited);
+            if (!exited) recorder.destroyForcibly().waitFor();
+        } else {
+            System.err.println("Recorder exited early with code " + recorder.exitValue() + ", see its log.");
+            report.put("recorder_exit_code", recorder.exitValue());
+        }
+        server.stop();
+        events.load(eventsFile);
+
+        report.putAll(recordingReport(schedule, events, Math.min(stopped, runEnd)));
+        Map<String, Object> resources = new LinkedHashMap<>();
+        samples.forEach((name, stats) -> resources.put(name, stats.toMap()));
+        report.put("resources", resources);
+        report.put("requests", server.requests());
+        report.put("injected_errors", server.errors());
+        OBJECT_MAPPER.writeValue(work.resolve("report.json"), report);
+        print(report);
+        System.out.println("Report written to " + work.resolve("report.json"));
+    }
+
+    /**
+     * Matches the recordings seen against the live schedule.
+     * @param schedule The live schedule.
+     * @param events The recordings seen.
+     * @param runEnd End of the run, lives are cut off at it.
+     * @return The detection latency, missed lives, gaps and overlaps.
+     */
+    private static Map<String, Object> recordingReport(LiveSchedule schedule, EventLog events, long runEnd) {
+        List<Long> latencies = new ArrayList<>();
+        int lives = 0;
+        int missed = 0;
+        int gaps = 0;
+        int livesWithGaps = 0;
+        long gapMillis = 0;
+        int overlaps = 0;
+        for (String channel : schedule.channels()) {
+            List<long[]> recorded = events.recorded(channel, runEnd);
+            overlaps += events.overlaps(channel);
+            for (LiveSchedule.Live live : schedule.lives(channel)) {
+                if (live.start() >= runEnd) continue;
+                lives++;
+                long liveEnd = Math.min(live.end(), runEnd);
+                Long first = null;
+                long cursor = 0;
+                int liveGaps = 0;
+                for (long[] interval : recorded) {
+                    long start = Math.max(interval[0], live.start());
+                    long end = Math.min(interval[1], liveEnd);
+                    if (end <= start) continue;
+                    if (first == null) {
+                        first = start;
+                        cursor = start;
+                    } else if (start - cursor >= GAP_TOLERANCE.toMillis()) {
+                        liveGaps++;
+                        gapMillis += start - cursor;
+                    }
+                    cursor = Math.max(cursor, end);
+                }
+                if (first == null) {
+                    missed++;
+                    continue;
+                }
+                latencies.add(first - live.start());
+                if (liveEnd - cursor >= GAP_TOLERANCE.toMillis()) {
+                    liveGaps++;
+                    gapMillis += liveEnd - cursor;
+                }
+                gaps += liveGaps;
+                if (liveGaps > 0) livesWithGaps++;
+            }
+        }
+        Collections.sort(latencies);
+        Map<String, Object> detection = new LinkedHashMap<>();
+        detection.put("p50_seconds", percentile(latencies, 0.50));
+        detection.put("p95_seconds", percentile(latencies, 0.95));
+        detection.put("p99_seconds", percentile(latencies, 0.99));
+        detection.put("max_seconds", latencies.isEmpty() ? 0 : latencies.getLast() / 1000.0);
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("lives", lives);
+        report.put("missed_lives", missed);
+        report.put("detection_latency", detection);
+        report.put("gaps", gaps);
+        report.put("lives_with_gaps", livesWithGaps);
+        report.put("gap_seconds", gapMillis / 1000.0);
+        report.put("overlapping_recordings", overlaps);
+        return report;
+    }
+
+    /**
+     * Samples the gauges of the recorder and its resident memory.
+     * @param recorder The recorder process.
+     * @param metricsPort Port of the recorder metrics endpoint.
+     * @param samples The stats to add the samples to, by name.
+     */
+    private static void sample(Process recorder, int metricsPort, Map<String, Stats> samples) {
+        try {
+            HttpRequest request = HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + metricsPort + "/metrics"))
+                    .timeout(Duration.ofSeconds(2)).build();
+            HttpResponse<String> response = HTTP_CLIENT.send(request, HttpResponse.BodyHandlers.ofString());
+            for (String line : response.body().split("\n")) {
+                if (!line.startsWith(METRICS_PREFIX)) continue;
+                String[] parts = line.substring(METRICS_PREFIX.length()).split(" ");
+                if (parts.length == 2 && SAMPLED_GAUGES.contains(parts[0])) {
+                    samples.computeIfAbsent(parts[0], k -> new Stats()).add(Double.parseDouble(parts[1]));
+                }
+            }
+        } catch (IOException ex) {
+            // Not serving yet or busy shutting down, the sample is skipped.
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        Path status = Path.of("/proc", Long.toString(recorder.pid()), "status");
+        try {
+            for (String line : Files.readAllLines(status)) {
+                if (line.startsWith("VmRSS:")) {
+                    long kb = Long.parseLong(line.replaceAll("\\D", ""));
+                    samples.computeIfAbsent("resident_bytes", k -> new Stats()).add(kb * 1024.0);
+                }
+            }
+        } catch (IOException | NumberFormatException ex) {
+            // No procfs, resident memory is only sampled on Linux.
+        }
+    }
+
+    /**
+     * Copies the stub executables out of the jar.
+     * @param dir The directory to copy them to.
+     * @return The directory.
+     * @throws IOException Thrown if a stub could not be copied.
+     */
+    private static Path copyStubs(Path dir) throws IOException {
+        Files.createDirectories(dir);
+        for (String stub : STUBS) {
+            Path target = dir.resolve(stub);
+            try (InputStream in = SimulationDriver.class.getResourceAsStream("/stubs/" + stub)) {
+                if (in == null) throw new IOException("Stub " + stub + " is missing from the classpath");
+                Files.copy(in, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+            if (!target.toFile().setExecutable(true)) {
+                throw new IOException("Could not make " + target + " executable");
+            }
+        }
+        return dir;
+    }
+
+    /**
+     * Deletes a directory tree if it exists.
+     * @param root The root of the tree.
+     * @throws IOException Thrown if the tree could not be deleted.
+     */
+    private static void deleteTree(Path root) throws IOException {
+        if (!Files.exists(root)) return;
+        try (Stream<Path> files = Files.walk(root)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) Files.delete(file);
+        }
+    }
+
+    /**
+     * Writes the recorder config, one watcher per channel.
+     * @param work The working directory.
+     * @param stubs The directory of the stub executables.
+     * @param server The stub endpoints.
+     * @param channels The channels watched.
+     * @param metricsPort Port of the recorder metrics endpoint.
+     * @param nativeDownloader Should the in-process downloader record?
+     * @param pollSeconds Poll interval of the watchers.
+     * @return Path of the config file.
+     * @throws IOException Thrown if the config or an output directory could not be written.
+     */
+    private static Path writeConfig(Path work, Path stubs, StubTikTokServer server, List<String> channels,
+                                    int metricsPort, boolean nativeDownloader, long pollSeconds) throws IOException {
+        List<Map<String, Object>> watchers = new ArrayList<>();
+        for (String channel : channels) {
+            Path output = work.resolve("out").resolve(channel);
+            Files.createDirectories(output);
+            Map<String, Object> watcher = new LinkedHashMap<>();
+            watcher.put("channel", channel);
+            watcher.put("pollIntervalQty", pollSeconds);
+            watcher.put("pollIntervalUnit", "Seconds");
+            watcher.put("outputPath", output.toString());
+            watcher.put("logFfmpegOutput", false);
+            watcher.put("logToFile", false);
+            watchers.add(watcher);
+        }
+        Map<String, Object> config = new LinkedHashMap<>();
+        config.put("ffmpegPath", stubs.resolve("ffmpeg").toString());
+        config.put("ytdlpPath", stubs.resolve("yt-dlp").toString());
+        config.put("nativeDownloader", nativeDownloader);
+        config.put("signerUrl", server.signerUrl());
+        config.put("webcastUrl", server.webcastUrl());
+        config.put("metricsPort", metricsPort);
+        config.put("journalPath", work.resolve("journal.json").toString());
+        config.put("roomIdCachePath", work.resolve("room-ids.json").toString());
+        config.put("watchers", watchers);
+        Path configFile = work.resolve("config.json");
+        OBJECT_MAPPER.writeValue(configFile, config);
+        return configFile;
+    }
+
+    /**
+     * Prints the report.
+     * @param report The report.
+     */
+    private static void print(Map<String, Object> report) {
+        report.forEach((name, value) -> System.out.printf("%-24s %s%n", name, value));
+    }
+
+    /**
+     * Gets a percentile of sorted latencies.
+     * @param sorted The latencies in milliseconds, sorted.
+     * @param p The percentile, between 0 and 1.
+     * @return The percentile in seconds, 0 if there are none.
+     */
+    private static double percentile(List<Long> sorted, double p) {
+        if (sorted.isEmpty()) return 0;
+        int index = Math.max(0, (int) Math.ceil(p * sorted.size()) - 1);
+        return sorted.get(index) / 1000.0;
+    }
+
+    /**
+     * Finds a free local port for the metrics endpoint of the recorder.
+     * @return The port.
+     * @throws IOException Thrown if no port could be bound.
+     */
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    /**
+     * Peak and mean of a sampled gauge.
+     */
+    private static class Stats {
+
+        /** Highest sample. */
+        private double max = Double.NEGATIVE_INFINITY;
+        /** Sum of the samples. */
+        private double sum;
+        /** Number of samples. */
+        private int count;
+
+        /**
+         * Adds a sample.
+         * @param value The sample.
+         */
+        void add(double value) {
+            max = Math.max(max, value);
+            sum += value;
+            count++;
+        }
+
+        /**
+         * Gets the peak and mean.
+         * @return The stats.
+         */
+        Map<String, Object> toMap() {
+            return Map.of("peak", max, "mean", count == 0 ? 0 : sum / count, "samples", count);
+        }
+
+    }
+
+}
@@ -0,0 +1,381 @@
+package me.davidthaler.tiktokliverecorder.simulator;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import tools.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Local stand-in for the endpoints the recorder calls: the signer, the signed user lookup, check_alive and the room
+ * info of the webcast api, plus the stream served to the in-process downloader and the stream url looked up by the
+ * stub yt-dlp. Answers follow the live schedule, every api call is delayed by a random latency around the configured
+ * one and fails with a 503 at the configured error rate. At the drop rate a stream url handed out ends before its
+ * live does, so the recorder has to reconnect.
+ * <p>
+ * Each api is served on its own loopback address when the OS routes all of 127.0.0.0/8, as on Linux, so the recorder
+ * rate limits them per host as it does the real ones.
+ */
+public class StubTikTokServer {
+
+    /** The live schedule answered from. */
+    private final LiveSchedule schedule;
+    /** Starts and stops of the streams served. */
+    private final EventLog events;
+    /** Mean latency of the api calls. */
+    private final Duration latency;
+    /** Share of the api calls failing. */
+    private final double errorRate;
+    /** Share of the stream urls ending before their live. */
+    private final double dropRate;
+    /** Bitrate of the streams served. */
+    private final int bitrateKbps;
+    /** Servers of the signer, the user lookup and the webcast api, the same server when not on separate hosts. */
+    private final HttpServer signer;
+    private final HttpServer user;
+    private final HttpServer webcast;
+    /** Requests by endpoint. */
+    private final Map<String, LongAdder> requests = new ConcurrentHashMap<>();
+    /** Injected errors by endpoint. */
+    private final Map<String, LongAdder> errors = new ConcurrentHashMap<>();
+    /** Object mapper instance. */
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    /** Shortest stream before a drop. */
+    private static final Duration MIN_DROP_AFTER = Duration.ofSeconds(30);
+    /** Longest stream before a drop. */
+    private static final Duration MAX_DROP_AFTER = Duration.ofMinutes(3);
+    /** Interval the stream is written at. */
+    private static final Duration STREAM_TICK = Duration.ofMillis(100);
+
+    /**
+     * Default constructor, starts serving.
+     * @param schedule The live schedule answered from.
+     * @param events Starts and stops of the streams served.
+     * @param latency Mean latency of the api calls.
+     * @param errorRate Share of the api calls failing.
+     * @param dropRate Share of the stream urls ending before their live.
+     * @param bitrateKbps Bitrate of the streams served.
+     * @param separateHosts Should each api be served on its own loopback address?
+     * @throws IOException Thrown if a server could not be bound.
+     */
+    public StubTikTokServer(LiveSchedule schedule, EventLog events, Duration latency, double errorRate,
+                            double dropRate, int bitrateKbps, boolean separateHosts) throws IOException {
+        this.schedule = schedule;
+        this.events = events;
+        this.latency = latency;
+        this.errorRate = errorRate;
+        this.dropRate = dropRate;
+        this.bitrateKbps = bitrateKbps;
+        this.webcast = start("127.0.0.1");
+        this.signer = separateHosts ? start("127.0.0.2") : webcast;
+        this.user = separateHosts ? start("127.0.0.3") : webcast;
+    }
+
+    /**
+     * Gets the signer url the channel name is appended to.
+     * @return The signer url.
+     */
+    public String signerUrl() {
+        return baseUrl(signer) + "/sign?unique_id=";
+    }
+
+    /**
+     * Gets the base url of the webcast api.
+     * @return The webcast url.
+     */
+    public String webcastUrl() {
+        return baseUrl(webcast);
+    }
+
+    /**
+     * Gets the address of the webcast api, which also serves the stub yt-dlp.
+     * @return The bound address.
+     */
+    public InetSocketAddress webcastAddress() {
+        return webcast.getAddress();
+    }
+
+    /**
+     * Gets the number of requests of each endpoint.
+     * @return Requests by endpoint.
+     */
+    public Map<String, Long> requests() {
+        return snapshot(requests);
+    }
+
+    /**
+     * Gets the number of errors injected into each endpoint.
+     * @return Errors by endpoint.
+     */
+    public Map<String, Long> errors() {
+        return snapshot(errors);
+    }
+
+    /**
+     * Stops serving.
+     */
+    public void stop() {
+        for (HttpServer server : new LinkedHashSet<>(List.of(signer, user, webcast))) server.stop(0);
+    }
+
+    /**
+     * Binds and starts a server on an ephemeral port.
+     * @param address The loopback address.
+     * @return The started server.
+     * @throws IOException Thrown if the server could not be bound.
+     */
+    private HttpServer start(String address) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getByName(address), 0), 1024);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.createContext("/", this::handle);
+        server.start();
+        return server;
+    }
+
+    /**
+     * Routes a request to its endpoint.
+     * @param exchange The exchange.
+     * @throws IOException Thrown if the response could not be written.
+     */
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            String path = exchange.getRequestURI().getPath();
+            Map<String, String> query = query(exchange.getRequestURI().getRawQuery());
+            long now = System.currentTimeMillis();
+            if (path.startsWith("/stream/")) {
+                count(requests, "stream");
+                stream(exchange, path.substring("/stream/".length()).replace(".flv", ""), query);
+                return;
+            }
+            String endpoint = switch (path) {
+                case "/sign" -> "sign";
+                case "/api-live/user/room/" -> "user";
+                case "/webcast/room/check_alive/" -> "check_alive";
+                case "/webcast/room/info/" -> "room_info";
+                default -> path.startsWith("/ytdlp/") ? "ytdlp" : null;
+            };
+            if (endpoint == null) {
+                respond(exchange, 404, "text/plain", "not found");
+                return;
+            }
+            count(requests, endpoint);
+            delay();
+            if (ThreadLocalRandom.current().nextDouble() < errorRate) {
+                count(errors, endpoint);
+                respond(exchange, 503, "text/plain", "service unavailable");
+                return;
+            }
+            switch (endpoint) {
+                case "sign" -> json(exchange, Map.of("signed_url", baseUrl(user)
+                        + "/api-live/user/room/?aid=1988&sourceType=54&uniqueId="
+                        + URLEncoder.encode(query.getOrDefault("unique_id", ""), StandardCharsets.UTF_8)));
+                case "user" -> json(exchange, userRoom(query.getOrDefault("uniqueId", ""), now));
+                case "check_alive" -> json(exchange, checkAlive(query.getOrDefault("room_ids", ""), now));
+                case "room_info" -> json(exchange, roomInfo(query.getOrDefault("room_id", ""), now));
+                default -> {
+                    LiveSchedule.Live room = schedule.room(path.substring("/ytdlp/".length()), now);
+                    if (room != null && room.isOn(now)) {
+                        respond(exchange, 200, "text/plain", streamUrl(room, now) + "\n");
+                    } else {
+                        respond(exchange, 404, "text/plain", "not live");
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Builds the signed user lookup response.
+     * @param channel The channel looked up.
+     * @param now The current time.
+     * @return The response.
+     */
+    private Map<String, Object> userRoom(String channel, long now) {
+        if (schedule.lives(channel) == null) {
+            return Map.of("message", "user_not_found", "statusCode", 10221, "data", Map.of());
+        }
+        LiveSchedule.Live room = schedule.room(channel, now);
+        boolean on = room != null && room.isOn(now);
+        Map<String, Object> data = new LinkedHashMap<>();
+        data.put("user", Map.of("uniqueId", channel, "roomId", room == null ? "" : room.roomId(),
+                "status", on ? 2 : 4));
+        if (on) {
+            String streamData = OBJECT_MAPPER.writeValueAsString(Map.of("data",
+                    Map.of("origin", Map.of("main", Map.of("flv", streamUrl(room, now))))));
+            data.put("liveRoom", Map.of("status", 2,
+                    "streamData", Map.of("pull_data", Map.of("stream_data", streamData))));
+        }
+        return Map.of("data", data, "message", "", "statusCode", 0);
+    }
+
+    /**
+     * Builds the check_alive response.
+     * @param roomIds The room ids asked for, comma separated.
+     * @param now The current time.
+     * @return The response.
+     */
+    private Map<String, Object> checkAlive(String roomIds, long now) {
+        List<Map<String, Object>> data = new ArrayList<>();
+        for (String roomId : roomIds.split(",")) {
+            if (roomId.isEmpty()) continue;
+            LiveSchedule.Live live = schedule.live(roomId);
+            data.add(Map.of("alive", live != null && live.isOn(now), "room_id", Long.parseLong(roomId),
+                    "room_id_str", roomId));
+        }
+        return Map.of("data", data, "status_code", 0);
+    }
+
+    /**
+     * Builds the room info response.
+     * @param roomId The room id.
+     * @param now The current time.
+     * @return The response.
+     */
+    private Map<String, Object> roomInfo(String roomId, long now) {
+        LiveSchedule.Live live = schedule.live(roomId);
+        if (live == null || !live.isOn(now)) return Map.of("data", Map.of("status", 4), "status_code", 0);
+        return Map.of("data", Map.of("status", 2,
+                "stream_url", Map.of("flv_pull_url", Map.of("FULL_HD1", streamUrl(live, now)))), "status_code", 0);
+    }
+
+    /**
+     * Builds the stream url of a live. The url carries the time the stream ends, so the stub ffmpeg knows when to
+     * stop without calling back.
+     * @param live The live.
+     * @param now The current time.
+     * @return The stream url.
+     */
+    private String streamUrl(LiveSchedule.Live live, long now) {
+        long end = live.end();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (random.nextDouble() < dropRate) {
+            long dropAfter = random.nextLong(MIN_DROP_AFTER.toMillis(), MAX_DROP_AFTER.toMillis());
+            end = Math.min(end, now + dropAfter);
+        }
+        return baseUrl(webcast) + "/stream/" + URLEncoder.encode(live.channel(), StandardCharsets.UTF_8)
+                + ".flv?end=" + end + "&expire=" + (live.end() / 1000 + 3600);
+    }
+
+    /**
+     * Serves a stream at the bitrate until its end, for the in-process downloader.
+     * @param exchange The exchange.
+     * @param channel The channel.
+     * @param query The query of the stream url.
+     * @throws IOException Thrown if the headers could not be written.
+     */
+    private void stream(HttpExchange exchange, String channel, Map<String, String> query) throws IOException {
+        long end = Long.parseLong(query.getOrDefault("end", "0"));
+        if (System.currentTimeMillis() >= end) {
+            respond(exchange, 404, "text/plain", "stream ended");
+            return;
+        }
+        exchange.getResponseHeaders().set("Content-Type", "video/x-flv");
+        exchange.sendResponseHeaders(200, 0);
+        byte[] chunk = new byte[(int) (bitrateKbps * 125L * STREAM_TICK.toMillis() / 1000)];
+        events.record(channel, true, System.currentTimeMillis());
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(new byte[] {'F', 'L', 'V', 1, 5, 0, 0, 0, 9, 0, 0, 0, 0});
+            while (System.currentTimeMillis() < end) {
+                out.write(chunk);
+                out.flush();
+                Thread.sleep(STREAM_TICK);
+            }
+        } catch (IOException ex) {
+            // The downloader disconnected.
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            events.record(channel, false, System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Waits a random latency around the configured one.
+     */
+    private void delay() {
+        long mean = latency.toMillis();
+        if (mean <= 0) return;
+        try {
+            Thread.sleep(mean / 2 + ThreadLocalRandom.current().nextLong(mean + 1));
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Writes a json response.
+     * @param exchange The exchange.
+     * @param body The body, serialised to json.
+     * @throws IOException Thrown if the response could not be written.
+     */
+    private static void json(HttpExchange exchange, Object body) throws IOException {
+        respond(exchange, 200, "application/json", OBJECT_MAPPER.writeValueAsString(body));
+    }
+
+    /**
+     * Writes a response.
+     * @param exchange The exchange.
+     * @param status The status code.
+     * @param contentType The content type.
+     * @param body The body.
+     * @throws IOException Thrown if the response could not be written.
+     */
+    private static void respond(HttpExchange exchange, int status, String contentType, String body)
+            throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, bytes.length);
+        exchange.getResponseBody().write(bytes);
+    }
+
+    /**
+     * Parses a raw query string.
+     * @param rawQuery The raw query, may be null.
+     * @return The decoded parameters.
+     */
+    private static Map<String, String> query(String rawQuery) {
+        Map<String, String> params = new HashMap<>();
+        if (rawQuery == null) return params;
+        for (String pair : rawQuery.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0) {
+                params.put(URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8),
+                        URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return params;
+    }
+
+    /**
+     * Gets the base url of a server.
+     * @param server The server.
+     * @return The url, like "http://127.0.0.1:1234".
+     */
+    private static String baseUrl(HttpServer server) {
+        InetSocketAddress address = server.getAddress();
+        return "http://" + address.getAddress().getHostAddress() + ":" + address.getPort();
+    }
+
+    private static void count(Map<String, LongAdder> counters, String endpoint) {
+        counters.computeIfAbsent(endpoint, k -> new LongAdder()).increment();
+    }
+
+    private static Map<String, Long> snapshot(Map<String, LongAdder> counters) {
+        Map<String, Long> snapshot = new TreeMap<>();
+        counters.forEach((endpoint, count) -> snapshot.put(endpoint, count.sum()));
+        return snapshot;
+    }
+
+}
@@ -1,19 +1,39 @@
 package me.davidthaler.tiktokliverecorder;
 
+import me.davidthaler.tiktokliverecorder.cluster.ChannelOwnership;
+import me.davidthaler.tiktokliverecorder.cluster.ClusterNode;
 import me.davidthaler.tiktokliverecorder.config.AppConfig;
-import me.davidthaler.tiktokliverecorder.config.WatcherConfig;
-import me.davidthaler.tiktokliverecorder.watcher.WatcherRunner;
+import me.davidthaler.tiktokliverecorder.http.ThrottledHttpClient;
+import me.davidthaler.tiktokliverecorder.journal.RecordingJournal;
+import me.davidthaler.tiktokliverecorder.metrics.MetricsRegistry;
+import me.davidthaler.tiktokliverecorder.metrics.MetricsServer;
+import me.davidthaler.tiktokliverecorder.postprocess.PostProcessingService;
+import me.davidthaler.tiktokliverecorder.process.HelperThreads;
+import me.davidthaler.tiktokliverecorder.process.RecordingRegistry;
+import me.davidthaler.tiktokliverecorder.status.LiveStatusChecker;
+import me.davidthaler.tiktokliverecorder.status.RoomIdCache;
+import me.davidthaler.tiktokliverecorder.status.StatusResponseDecoder;
+import me.davidthaler.tiktokliverecorder.storage.StorageManager;
+import me.davidthaler.tiktokliverecorder.stream.PullUrlDecoder;
+import me.davidthaler.tiktokliverecorder.stream.RoomInfoStreamUrlResolver;
+import me.davidthaler.tiktokliverecorder.stream.StreamDownloader;
+import me.davidthaler.tiktokliverecorder.stream.StreamUrlService;
+import me.davidthaler.tiktokliverecorder.stream.YtDlpStreamUrlResolver;
+import me.davidthaler.tiktokliverecorder.transcode.TranscodeScheduler;
+import me.davidthaler.tiktokliverecorder.watcher.ConfigReloader;
+import me.davidthaler.tiktokliverecorder.watcher.WatcherScheduler;
+import me.davidthaler.tiktokliverecorder.watcher.ShutdownCoordinator;
+import me.davidthaler.tiktokliverecorder.watcher.WatcherServices;
 import org.apache.commons.cli.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import tools.jackson.databind.ObjectMapper;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
 import java.net.http.HttpClient;
 import java.time.Duration;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
 
 /**
  * Application loader class.
@@ -28,7 +48,9 @@ public class App {
     private static final Logger LOGGER = LoggerFactory.getLogger(App.class);
 
     static {
-        HTTP_CLIENT = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(10)).build();
+        // HTTP/2 multiplexes the status calls of every watcher over a few reused connections per host.
+        HTTP_CLIENT = HttpClient.newBuilder().version(HttpClient.Version.HTTP_2)
+                .connectTimeout(Duration.ofSeconds(10)).build();
     }
 
     /**
@@ -53,16 +75,92 @@ public class App {
             // Load config and spawn watcher jobs.
             LOGGER.info("Creating Watchers...");
             AppConfig appConfig = OBJECT_MAPPER.readValue(configFile, AppConfig.class);
-            ScheduledExecutorService executorService = Executors.newScheduledThreadPool(appConfig.watchers().size());
-            for (WatcherConfig watcher : appConfig.watchers()) {
-                LOGGER.info("Spawning watcher job for channel [{}]", watcher.channel());
-                Duration duration = Duration.of(watcher.pollIntervalQty(), watcher.pollIntervalUnit());
-                executorService.scheduleWithFixedDelay(
-                        new WatcherRunner(appConfig, watcher, HTTP_CLIENT, OBJECT_MAPPER),
-                        0, duration.toMillis(), TimeUnit.MILLISECONDS);
+            HelperThreads threads = new HelperThreads(appConfig.virtualThreads());
+            ThrottledHttpClient httpClient = new ThrottledHttpClient(HTTP_CLIENT, appConfig.requestsPerSecondPerHost(),
+                    appConfig.maxInFlightRequests(), appConfig.circuitBreakerFailures(),
+                    Duration.ofSeconds(appConfig.circuitBreakerOpenSeconds()), threads);
+            StatusResponseDecoder decoder = new StatusResponseDecoder(OBJECT_MAPPER);
+            RecordingRegistry recordings = new RecordingRegistry();
+            MetricsRegistry metrics = new MetricsRegistry(recordings);
+            LiveStatusChecker statusChecker = new LiveStatusChecker(httpClient, decoder, metrics,
+                    appConfig.statusBatchSize(), appConfig.webcastUrl());
+            String cachePath = appConfig.roomIdCachePath();
+            RoomIdCache roomIdCache = new RoomIdCache(appConfig.roomIdCacheSize(),
+                    Duration.ofSeconds(appConfig.roomIdCacheTtlSeconds()),
+                    cachePath == null || cachePath.isEmpty() ? null : Path.of(cachePath), OBJECT_MAPPER);
+            StorageManager storage = new StorageManager(appConfig, recordings);
+            RecordingJournal journal = new RecordingJournal(Path.of(appConfig.journalPath()));
+            LOGGER.info("Recording journal has {} pending recordings.", journal.pendingCount());
+            ChannelOwnership ownership = ChannelOwnership.SOLO;
+            ClusterNode clusterNode = null;
+            if (appConfig.cluster() != null) {
+                clusterNode = new ClusterNode(appConfig.cluster());
+                ownership = clusterNode;
             }
+            TranscodeScheduler transcodes = new TranscodeScheduler(appConfig.encodeThreadBudget(),
+                    appConfig.encodeThreadsPerJob(), appConfig.encodePreset());
+            PostProcessingService postProcessing = new PostProcessingService(appConfig.conversionWorkers(), journal,
+                    recordings, metrics, transcodes, storage::finished, threads);
+            PullUrlDecoder pullUrlDecoder = new PullUrlDecoder(OBJECT_MAPPER);
+            StreamUrlService streamUrls = new StreamUrlService(StreamUrlService.fromNames(
+                    appConfig.streamUrlResolvers(), new RoomInfoStreamUrlResolver(httpClient, pullUrlDecoder,
+                            appConfig.webcastUrl()),
+                    new YtDlpStreamUrlResolver(appConfig.ytdlpPath(), threads)), pullUrlDecoder, metrics);
+            WatcherScheduler scheduler = new WatcherScheduler(threads);
+            ShutdownCoordinator shutdown = new ShutdownCoordinator(scheduler, postProcessing, journal,
+                    Duration.ofSeconds(appConfig.shutdownDeadlineSeconds()));
+            WatcherServices services = new WatcherServices(httpClient, decoder, statusChecker, roomIdCache,
+                    streamUrls, new StreamDownloader(HTTP_CLIENT, threads), transcodes, storage, journal,
+                    postProcessing, recordings, metrics, ownership, scheduler, shutdown);
+            registerGauges(metrics, postProcessing, transcodes, journal, storage);
+            if (appConfig.metricsPort() > 0) {
+                try {
+                    new MetricsServer(appConfig.metricsPort(), metrics, recordings, OBJECT_MAPPER, threads);
+                } catch (IOException ex) {
+                    LOGGER.error("Error starting the metrics endpoint, continuing without it.", ex);
+                }
+            }
+            ConfigReloader reloader = new ConfigReloader(configFile.toPath(), OBJECT_MAPPER, services, scheduler);
+            if (clusterNode != null) {
+                ClusterNode node = clusterNode;
+                node.onMembershipChange(reloader::reapply);
+                metrics.gauge("cluster_nodes", "Nodes of the cluster with a valid heartbeat.",
+                        () -> node.members().size());
+                shutdown.addFinalStep(node::leave);
+            }
+            shutdown.addFinalStep(roomIdCache::flush);
+            shutdown.install();
+            reloader.apply(appConfig);
+            reloader.watch();
         } catch (ParseException ex) {
             LOGGER.error("Error parsing config file.", ex);
+        } catch (IOException ex) {
+            LOGGER.error("Error opening the recording journal or the cluster directory.", ex);
         }
     }
+
+    /**
+     * Exposes the state of the shared services as metrics.
+     * @param metrics The metrics registry.
+     * @param postProcessing The post-processing service.
+     * @param transcodes The admission control of encodes.
+     * @param journal The recording journal.
+     * @param storage The storage management.
+     */
+    private static void registerGauges(MetricsRegistry metrics, PostProcessingService postProcessing,
+                                       TranscodeScheduler transcodes, RecordingJournal journal,
+                                       StorageManager storage) {
+        metrics.gauge("conversion_queue_depth", "Post-processing jobs waiting for a worker.",
+                postProcessing::queueDepth);
+        metrics.counter("conversions_completed_total", "Post-processing jobs finished.",
+                postProcessing::completedCount);
+        metrics.counter("conversions_failed_total", "Post-processing jobs failed.", postProcessing::failedCount);
+        metrics.gauge("live_encodes", "Recordings encoding while downloading.", transcodes::liveCount);
+        metrics.gauge("deferred_encodes", "Recordings copying with their encode deferred.",
+                transcodes::deferredCount);
+        metrics.gauge("post_live_encodes", "Deferred encodes run by post-processing.", transcodes::postLiveCount);
+        metrics.gauge("journal_pending", "Recordings still needing work.", journal::pendingCount);
+        metrics.counter("storage_admissions_refused_total",
+                "Recordings not started or reconnected for lack of free space.", storage::refusedCount);
+    }
 }
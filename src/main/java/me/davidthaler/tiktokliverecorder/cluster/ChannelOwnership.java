@@ -0,0 +1,58 @@
+package me.davidthaler.tiktokliverecorder.cluster;
+
+/**
+ * Decides which channels this instance watches and guards their recordings, so no two instances record the same
+ * live.
+ */
+public interface ChannelOwnership {
+
+    /** Ownership of a single instance, watching and recording every channel. */
+    ChannelOwnership SOLO = new ChannelOwnership() {
+        @Override
+        public boolean owns(String channel) {
+            return true;
+        }
+
+        @Override
+        public boolean acquire(String channel) {
+            return true;
+        }
+
+        @Override
+        public boolean holds(String channel) {
+            return true;
+        }
+
+        @Override
+        public void release(String channel) {
+        }
+    };
+
+    /**
+     * Checks if the channel is assigned to this instance, which then polls it.
+     * @param channel The channel.
+     * @return True if this instance should watch the channel.
+     */
+    boolean owns(String channel);
+
+    /**
+     * Takes the exclusive right to record the channel, held until released.
+     * @param channel The channel.
+     * @return True if taken, false if another instance is recording it.
+     */
+    boolean acquire(String channel);
+
+    /**
+     * Checks if the right to record the channel is still held, a recording must stop once it is lost.
+     * @param channel The channel.
+     * @return True if still held.
+     */
+    boolean holds(String channel);
+
+    /**
+     * Gives up the right to record the channel.
+     * @param channel The channel.
+     */
+    void release(String channel);
+
+}
@@ -0,0 +1,386 @@
+package me.davidthaler.tiktokliverecorder.cluster;
+
+import me.davidthaler.tiktokliverecorder.config.ClusterConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Node of a cluster of recorders sharing one directory. Every node renews a heartbeat file in "nodes", the nodes with
+ * a valid heartbeat form a consistent hash ring, and each node watches the channels the ring assigns to it. When a
+ * node joins or its heartbeat expires the ring changes and the membership listener is told, so the watchers can be
+ * moved.
+ * <p>
+ * The ring alone does not stop two nodes from recording the same live while channels move, so a recording also holds
+ * a lease file of its channel in "leases". A lease is created atomically by hard linking a fully written file into
+ * place. An expired lease is taken over by first hard linking a claim file named after that exact lease, so of two
+ * nodes racing for it only one wins, and the winner replaces the lease only while it still reads as the expired one.
+ * A lease is never moved or deleted by a node other than its holder while it is valid. Held leases are renewed on
+ * every tick, and a lease whose renewal is overdue is treated as lost, so a node stalled for longer than the lease
+ * stops recording before another node takes over.
+ */
+public class ClusterNode implements ChannelOwnership {
+
+    /** Id of this node. */
+    private final String nodeId;
+    /** Directory of the node heartbeats. */
+    private final Path nodesDirectory;
+    /** Directory of the channel leases. */
+    private final Path leasesDirectory;
+    /** Time a heartbeat or lease stays valid without being renewed. */
+    private final Duration lease;
+    /** Leases held by this node, mapped to the expiry last written. */
+    private final Map<String, Long> held = new ConcurrentHashMap<>();
+    /** Ids of the nodes with a valid heartbeat. */
+    private volatile Set<String> members = Set.of();
+    /** Ring of the current members. */
+    private volatile HashRing ring = new HashRing(List.of());
+    /** Called when the members change, null if nobody listens. */
+    private volatile Runnable membershipListener;
+    /** Timer renewing the heartbeat and leases. */
+    private final ScheduledExecutorService ticker;
+    /** Runs the membership listener, so moving the watchers never holds up the renewals. */
+    private final ExecutorService notifier;
+    /** Logger instance. */
+    private static final Logger LOGGER = LoggerFactory.getLogger(ClusterNode.class);
+
+    /**
+     * Default constructor, joins the cluster and starts renewing the heartbeat.
+     * @param clusterConfig The cluster config.
+     * @throws IOException Thrown if the shared directory could not be set up.
+     */
+    public ClusterNode(ClusterConfig clusterConfig) throws IOException {
+        this.nodeId = clusterConfig.nodeId();
+        Path shared = Path.of(clusterConfig.sharedPath());
+        this.nodesDirectory = Files.createDirectories(shared.resolve("nodes"));
+        this.leasesDirectory = Files.createDirectories(shared.resolve("leases"));
+        this.lease = Duration.ofSeconds(clusterConfig.leaseSeconds());
+        heartbeat();
+        refreshMembers();
+        LOGGER.info("Joined the cluster as node {} with {} nodes.", nodeId, members.size());
+        this.ticker = Executors.newSingleThreadScheduledExecutor(
+                Thread.ofPlatform().name("cluster").daemon(true).factory());
+        this.notifier = Executors.newSingleThreadExecutor(
+                Thread.ofPlatform().name("cluster-membership").daemon(true).factory());
+        long period = lease.toMillis() / 3;
+        ticker.scheduleWithFixedDelay(this::tick, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Sets the listener called whenever the members of the cluster change. It runs on a thread of its own, one change
+     * at a time, so a slow listener delays neither the heartbeat nor the lease renewals.
+     * @param listener The listener.
+     */
+    public void onMembershipChange(Runnable listener) {
+        this.membershipListener = listener;
+    }
+
+    /**
+     * Gets the ids of the nodes with a valid heartbeat.
+     * @return The member ids.
+     */
+    public Set<String> members() {
+        return members;
+    }
+
+    @Override
+    public boolean owns(String channel) {
+        return nodeId.equals(ring.owner(channel));
+    }
+
+    @Override
+    public synchronized boolean acquire(String channel) {
+        Path file = leaseFile(channel);
+        try {
+            Lease current = readLease(file);
+            if (current != null) {
+                boolean expired = current.expiry() <= System.currentTimeMillis();
+                if (expired) return takeOver(file, channel, current);
+                if (!current.owner().equals(nodeId)) return false;
+                // Left by this node, before a restart.
+                held.put(channel, writeLease(file));
+                return true;
+            }
+            return create(file, channel);
+        } catch (IOException ex) {
+            LOGGER.error("Failed to acquire the lease of {}.", channel, ex);
+            return false;
+        }
+    }
+
+    @Override
+    public boolean holds(String channel) {
+        Long expiry = held.get(channel);
+        // A quarter of the lease is kept as margin, so a recording stops before another node may take over.
+        return expiry != null && System.currentTimeMillis() < expiry - lease.toMillis() / 4;
+    }
+
+    @Override
+    public synchronized void release(String channel) {
+        Long expiry = held.remove(channel);
+        // Past the margin another node may already be taking the lease over, so it is left to expire.
+        if (expiry == null || System.currentTimeMillis() >= expiry - lease.toMillis() / 4) return;
+        Path file = leaseFile(channel);
+        try {
+            Lease current = readLease(file);
+            if (current != null && current.owner().equals(nodeId)) Files.deleteIfExists(file);
+        } catch (IOException ex) {
+            LOGGER.error("Failed to release the lease of {}, it expires by itself.", channel, ex);
+        }
+    }
+
+    /**
+     * Leaves the cluster by removing the heartbeat, so the other nodes take over the channels without waiting for it
+     * to expire.
+     */
+    public void leave() {
+        ticker.shutdownNow();
+        notifier.shutdownNow();
+        try {
+            Files.deleteIfExists(nodesDirectory.resolve(nodeId + ".node"));
+        } catch (IOException ex) {
+            LOGGER.error("Failed to remove the heartbeat of node {}.", nodeId, ex);
+        }
+    }
+
+    /**
+     * Renews the heartbeat and held leases, then refreshes the members.
+     */
+    private void tick() {
+        try {
+            heartbeat();
+            renewLeases();
+            if (refreshMembers()) {
+                LOGGER.info("Cluster members changed to {}.", members);
+                Runnable listener = membershipListener;
+                if (listener != null) notifier.execute(() -> notify(listener));
+            }
+        } catch (IOException | RuntimeException ex) {
+            LOGGER.error("Cluster tick failed.", ex);
+        }
+    }
+
+    /**
+     * Runs the membership listener, logging its failures.
+     * @param listener The listener.
+     */
+    private void notify(Runnable listener) {
+        try {
+            listener.run();
+        } catch (RuntimeException ex) {
+            LOGGER.error("Membership listener failed.", ex);
+        }
+    }
+
+    /**
+     * Writes the heartbeat of this node.
+     * @throws IOException Thrown if the heartbeat could not be written.
+     */
+    private void heartbeat() throws IOException {
+        writeLease(nodesDirectory.resolve(nodeId + ".node"));
+    }
+
+    /**
+     * Reads the heartbeats and rebuilds the ring if the members changed. This node is always a member.
+     * @return True if the members changed.
+     * @throws IOException Thrown if the heartbeats could not be listed.
+     */
+    private boolean refreshMembers() throws IOException {
+        Set<String> alive = new TreeSet<>();
+        alive.add(nodeId);
+        long now = System.currentTimeMillis();
+        try (Stream<Path> files = Files.list(nodesDirectory)) {
+            for (Path file : files.filter(f -> f.getFileName().toString().endsWith(".node")).toList()) {
+                Lease heartbeat = readLease(file);
+                if (heartbeat != null && heartbeat.expiry() > now) alive.add(heartbeat.owner());
+            }
+        }
+        if (alive.equals(members)) return false;
+        members = Collections.unmodifiableSet(alive);
+        ring = new HashRing(alive);
+        return true;
+    }
+
+    /**
+     * Renews the held leases, dropping those that expired or were taken over.
+     */
+    private synchronized void renewLeases() {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, Long> entry : new ArrayList<>(held.entrySet())) {
+            String channel = entry.getKey();
+            Path file = leaseFile(channel);
+            try {
+                Lease current = readLease(file);
+                if (entry.getValue() <= now || current == null || !current.owner().equals(nodeId)) {
+                    LOGGER.warn("Lost the lease of {}.", channel);
+                    held.remove(channel);
+                } else {
+                    held.put(channel, writeLease(file));
+                }
+            } catch (IOException ex) {
+                LOGGER.error("Failed to renew the lease of {}.", channel, ex);
+            }
+        }
+    }
+
+    /**
+     * Creates the lease of a channel, failing if another node created it first.
+     * @param file The lease file.
+     * @param channel The channel.
+     * @return True if created and verified to be held by this node.
+     * @throws IOException Thrown if the lease could not be written.
+     */
+    private boolean create(Path file, String channel) throws IOException {
+        long expiry = System.currentTimeMillis() + lease.toMillis();
+        Path temp = file.resolveSibling(file.getFileName() + "." + nodeId + ".tmp");
+        Files.writeString(temp, nodeId + "\t" + expiry);
+        try {
+            createExclusive(file, temp);
+        } catch (FileAlreadyExistsException ex) {
+            return false;
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        Lease created = readLease(file);
+        if (created == null || !created.owner().equals(nodeId)) return false;
+        held.put(channel, expiry);
+        return true;
+    }
+
+    /**
+     * Takes over an expired lease. The nodes racing for it each try to hard link a claim file named after the expired
+     * lease, which only one of them creates. The winner then replaces the lease if it still reads as the expired one,
+     * as nothing else replaces an expired lease, and checks the replaced file is its own. A claim left by a node that
+     * stalled or failed mid takeover is removed once it is older than a lease period, and the claimer gives up if it
+     * took longer than the renewal margin, so it never overwrites a lease taken over since.
+     * @param file The lease file.
+     * @param channel The channel.
+     * @param expired The expired lease as read.
+     * @return True if the lease was taken over and is held by this node.
+     * @throws IOException Thrown if the lease could not be claimed or written.
+     */
+    private boolean takeOver(Path file, String channel, Lease expired) throws IOException {
+        long claimed = System.currentTimeMillis();
+        String generation = URLEncoder.encode(expired.owner(), StandardCharsets.UTF_8) + "." + expired.expiry();
+        Path claim = file.resolveSibling(file.getFileName() + "." + generation + ".claim");
+        Path temp = file.resolveSibling(file.getFileName() + "." + nodeId + ".tmp");
+        Files.writeString(temp, nodeId + "\t" + claimed);
+        try {
+            createExclusive(claim, temp);
+        } catch (FileAlreadyExistsException ex) {
+            clearStaleClaim(claim);
+            return false;
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        try {
+            if (!expired.equals(readLease(file))) return false;
+            if (System.currentTimeMillis() - claimed >= lease.toMillis() / 4) return false;
+            long expiry = writeLease(file);
+            if (!new Lease(nodeId, expiry).equals(readLease(file))) return false;
+            held.put(channel, expiry);
+            LOGGER.info("Took over the expired lease of node {} on {}.", expired.owner(), file.getFileName());
+            return true;
+        } finally {
+            Files.deleteIfExists(claim);
+        }
+    }
+
+    /**
+     * Removes a takeover claim older than a lease period, left by a node that failed or stalled while taking over.
+     * @param claim The claim file.
+     * @throws IOException Thrown if the claim could not be removed.
+     */
+    private void clearStaleClaim(Path claim) throws IOException {
+        try {
+            if (Files.getLastModifiedTime(claim).toMillis() + lease.toMillis() > System.currentTimeMillis()) return;
+        } catch (NoSuchFileException ex) {
+            return;
+        }
+        LOGGER.warn("Removing the stale takeover claim {}.", claim.getFileName());
+        Files.deleteIfExists(claim);
+    }
+
+    /**
+     * Writes a lease of this node expiring one lease period from now, replacing the file atomically.
+     * @param file The lease file.
+     * @return The expiry written.
+     * @throws IOException Thrown if the lease could not be written.
+     */
+    private long writeLease(Path file) throws IOException {
+        long expiry = System.currentTimeMillis() + lease.toMillis();
+        Path temp = file.resolveSibling(file.getFileName() + "." + nodeId + ".tmp");
+        Files.writeString(temp, nodeId + "\t" + expiry);
+        Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        return expiry;
+    }
+
+    /**
+     * Reads a lease or heartbeat. A file not yet written or malformed is taken to be held by an unknown node until a
+     * lease period after it was last modified.
+     * @param file The file.
+     * @return The lease, or null if the file does not exist.
+     * @throws IOException Thrown if the file could not be read.
+     */
+    private Lease readLease(Path file) throws IOException {
+        try {
+            String[] parts = Files.readString(file).trim().split("\t");
+            if (parts.length == 2) {
+                try {
+                    return new Lease(parts[0], Long.parseLong(parts[1]));
+                } catch (NumberFormatException ex) {
+                    // Malformed, judged by its age below.
+                }
+            }
+            return new Lease("", Files.getLastModifiedTime(file).toMillis() + lease.toMillis());
+        } catch (NoSuchFileException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Gets the lease file of a channel.
+     * @param channel The channel.
+     * @return The lease file.
+     */
+    private Path leaseFile(String channel) {
+        return leasesDirectory.resolve(URLEncoder.encode(channel, StandardCharsets.UTF_8) + ".lease");
+    }
+
+    /**
+     * Creates a file with the content of another, failing if it already exists. The file is hard linked so it never
+     * appears partly written, or copied exclusively where the file system has no hard links.
+     * @param file The file to create.
+     * @param source The fully written source.
+     * @throws FileAlreadyExistsException Thrown if the file already exists.
+     * @throws IOException Thrown if the file could not be created.
+     */
+    private static void createExclusive(Path file, Path source) throws IOException {
+        try {
+            Files.createLink(file, source);
+        } catch (UnsupportedOperationException ex) {
+            Files.copy(source, file);
+        }
+    }
+
+    /**
+     * A lease or heartbeat.
+     * @param owner Id of the node holding it, empty if unknown.
+     * @param expiry Time in epoch milliseconds it expires at.
+     */
+    private record Lease(String owner, long expiry) {
+    }
+
+}
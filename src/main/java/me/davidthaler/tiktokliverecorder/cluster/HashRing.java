@@ -0,0 +1,60 @@
+package me.davidthaler.tiktokliverecorder.cluster;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Consistent hash ring assigning channels to nodes. Every node is placed on the ring at many points, and a channel
+ * belongs to the node of the first point at or after its hash, so a node joining or leaving only moves the channels
+ * next to its points.
+ */
+public class HashRing {
+
+    /** Nodes by their points on the ring. */
+    private final NavigableMap<Long, String> points = new TreeMap<>();
+    /** Points placed on the ring per node, evening out the share of each node. */
+    private static final int POINTS_PER_NODE = 128;
+
+    /**
+     * Default constructor.
+     * @param nodes The ids of the nodes on the ring.
+     */
+    public HashRing(Collection<String> nodes) {
+        for (String node : nodes) {
+            for (int i = 0; i < POINTS_PER_NODE; i++) {
+                points.put(hash(node + "#" + i), node);
+            }
+        }
+    }
+
+    /**
+     * Gets the node a channel belongs to.
+     * @param channel The channel.
+     * @return The id of the node, or null if the ring is empty.
+     */
+    public String owner(String channel) {
+        if (points.isEmpty()) return null;
+        var entry = points.ceilingEntry(hash(channel));
+        return entry != null ? entry.getValue() : points.firstEntry().getValue();
+    }
+
+    /**
+     * Hashes a key onto the ring, the same on every node.
+     * @param key The key.
+     * @return The first 8 bytes of the MD5 digest of the key.
+     */
+    private static long hash(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(key.getBytes(StandardCharsets.UTF_8));
+            return ByteBuffer.wrap(digest).getLong();
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("MD5 is not available.", ex);
+        }
+    }
+
+}
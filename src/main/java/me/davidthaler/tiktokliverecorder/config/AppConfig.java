@@ -4,18 +4,109 @@ import java.util.List;
 
 /**
  * Record to represent the top-level config file.
- * @param ffmpegPath Path of the ffmpeg executable.
- * @param ytdlpPath Path of the yt-dlp executable.
+ * @param ffmpegPath Path of the ffmpeg executable. Defaults to "ffmpeg" on the path.
+ * @param ytdlpPath Path of the yt-dlp executable. Defaults to "yt-dlp" on the path.
  * @param encodeWhileDownloading Should ffmpeg encode while downloading? Will default to straight
  *                              copying the stream if null or false.
+ * @param nativeDownloader Should copy mode lives be downloaded in-process instead of by ffmpeg? Only used when not
+ *                         encoding and not recording in segments. Defaults to false.
+ * @param encodeThreadBudget Encoder threads shared by all recordings encoding while downloading, once used up
+ *                           recordings copy the stream and are encoded after the live. Encodes after the live
+ *                           take at most half of it, leaving the rest to lives. Defaults to the available processors.
+ * @param encodeThreadsPerJob Encoder threads given to each encoding recording and deferred encode. Defaults to 2.
+ * @param encodePreset The x264 preset of encoding recordings and deferred encodes. Defaults to "veryfast".
+ * @param virtualThreads Should polls, recordings and their helper threads run on virtual threads? Defaults to true,
+ *                       if false daemon platform threads are used, pooled and growing with the work.
+ * @param statusBatchSize Maximum number of rooms checked in one batched live status call. Defaults to 50.
+ * @param roomIdCacheSize Maximum number of channels kept in the room id cache. Defaults to 10000.
+ * @param roomIdCacheTtlSeconds Seconds a resolved room id is reused before resolving it again. Defaults to 600.
+ * @param roomIdCachePath File to persist the room id cache to between restarts. Not persisted if null or empty.
+ * @param roomIdRefreshPolls Polls of a channel that is not live after which its cached room id is resolved again
+ *                           before its time to live runs out, catching a user gone live in a new room. Defaults to 10.
+ * @param requestsPerSecondPerHost Requests per second sent to any one host. Unlimited if null or 0, as a fixed
+ *                                 default would throttle large configs below their poll rate and fail the polls
+ *                                 waiting past the request timeout. When set it should exceed the channels divided by
+ *                                 the poll interval in seconds, most polls then only reach the check_alive host.
+ * @param maxInFlightRequests Maximum number of http requests in flight at once. Defaults to 32.
+ * @param circuitBreakerFailures Consecutive failures after which calls to a host are paused. Defaults to 5.
+ * @param circuitBreakerOpenSeconds Seconds calls to a failing host are paused for. Defaults to 60.
+ * @param conversionWorkers Number of recordings converted to mp4 at the same time. Defaults to half the available
+ *                          processors.
+ * @param minFreeSpaceMb Megabytes that must stay free on the disk of a recording, counting what the active
+ *                       recordings will write in the next minutes. No recording is started below it. Not checked if
+ *                       null or 0, so disks that were fine before keep recording until a watermark is configured.
+ * @param maxStorageMb Megabytes of finished recordings kept across all channels, the oldest are deleted beyond it.
+ *                     Unlimited if null or 0.
+ * @param archivePath Directory finished mp4 files are moved to, into a sub directory at the full path of their output
+ *                    directory. The output paths then only serve as scratch space. Not moved if null or empty.
+ * @param journalPath File of the journal of the recordings still needing work. Defaults to "out/journal.log".
+ * @param recoveryScan Should every output directory be scanned on start for recordings missing from the journal?
+ *                     They are always scanned when there is no journal yet, such as on the first run after an
+ *                     upgrade. Defaults to false, so a restart only reads the journal.
+ * @param shutdownDeadlineSeconds Seconds the recordings and conversions get to finish on shutdown before they are
+ *                                killed. Defaults to 8, within the 10 seconds docker waits before killing the app.
+ * @param metricsPort Port serving the "/metrics" and "/status" endpoints. Not served if null or 0.
+ * @param cluster Splits the channels with the other recorders sharing this config. Runs alone if null.
+ * @param signerUrl Url of the signer the channel name is appended to. Defaults to the tikrec.com signer, only
+ *                  changed to run against stand-in endpoints such as the simulator.
+ * @param webcastUrl Base url of the webcast api serving check_alive and the room info. Defaults to
+ *                   "https://webcast.tiktok.com", only changed to run against stand-in endpoints.
+ * @param streamUrlResolvers Resolvers tried in order to find the stream url of a live, "native" reads it from the
+ *                           room info api and "yt-dlp" runs yt-dlp. Defaults to native then yt-dlp.
  * @param watchers The list of watchers to run.
  */
 public record AppConfig(
         String ffmpegPath,
         String ytdlpPath,
         Boolean encodeWhileDownloading,
+        Boolean nativeDownloader,
+        Integer encodeThreadBudget,
+        Integer encodeThreadsPerJob,
+        String encodePreset,
+        Boolean virtualThreads,
+        Integer statusBatchSize,
+        Integer roomIdCacheSize,
+        Long roomIdCacheTtlSeconds,
+        String roomIdCachePath,
+        Integer roomIdRefreshPolls,
+        Double requestsPerSecondPerHost,
+        Integer maxInFlightRequests,
+        Integer circuitBreakerFailures,
+        Long circuitBreakerOpenSeconds,
+        Integer conversionWorkers,
+        Long minFreeSpaceMb,
+        Long maxStorageMb,
+        String archivePath,
+        String journalPath,
+        Boolean recoveryScan,
+        Long shutdownDeadlineSeconds,
+        Integer metricsPort,
+        ClusterConfig cluster,
+        String signerUrl,
+        String webcastUrl,
+        List<String> streamUrlResolvers,
         List<WatcherConfig> watchers) {
 
+    /**
+     * Overrides default ffmpegPath getter to default it to "ffmpeg" on the path.
+     * @return Path of the ffmpeg executable.
+     */
+    public String ffmpegPath() {
+        String path = "ffmpeg";
+        if (ffmpegPath != null && !ffmpegPath.isEmpty()) path = ffmpegPath;
+        return path;
+    }
+
+    /**
+     * Overrides default ytdlpPath getter to default it to "yt-dlp" on the path.
+     * @return Path of the yt-dlp executable.
+     */
+    public String ytdlpPath() {
+        String path = "yt-dlp";
+        if (ytdlpPath != null && !ytdlpPath.isEmpty()) path = ytdlpPath;
+        return path;
+    }
+
     /**
      * Overrides default encodeWhileDownloading getter to default it to false.
      * @return Should we encode during the download?
@@ -26,4 +117,234 @@ public record AppConfig(
         return encode;
     }
 
+    /**
+     * Overrides default nativeDownloader getter to default it to false.
+     * @return Should copy mode lives be downloaded in-process?
+     */
+    public Boolean nativeDownloader() {
+        boolean downloader = false;
+        if (nativeDownloader != null) downloader = nativeDownloader;
+        return downloader;
+    }
+
+    /**
+     * Overrides default encodeThreadBudget getter to default it to the available processors.
+     * @return Encoder threads shared by all encoding recordings.
+     */
+    public Integer encodeThreadBudget() {
+        int budget = Runtime.getRuntime().availableProcessors();
+        if (encodeThreadBudget != null) budget = encodeThreadBudget;
+        return budget;
+    }
+
+    /**
+     * Overrides default encodeThreadsPerJob getter to default it to 2.
+     * @return Encoder threads given to each encode.
+     */
+    public Integer encodeThreadsPerJob() {
+        int threads = 2;
+        if (encodeThreadsPerJob != null) threads = encodeThreadsPerJob;
+        return threads;
+    }
+
+    /**
+     * Overrides default encodePreset getter to default it to "veryfast".
+     * @return The x264 preset of the encodes.
+     */
+    public String encodePreset() {
+        String preset = "veryfast";
+        if (encodePreset != null && !encodePreset.isEmpty()) preset = encodePreset;
+        return preset;
+    }
+
+    /**
+     * Overrides default virtualThreads getter to default it to true.
+     * @return Should polls and recordings run on virtual threads?
+     */
+    public Boolean virtualThreads() {
+        boolean virtual = true;
+        if (virtualThreads != null) virtual = virtualThreads;
+        return virtual;
+    }
+
+    /**
+     * Overrides default statusBatchSize getter to default it to 50.
+     * @return Maximum number of rooms checked in one batched live status call.
+     */
+    public Integer statusBatchSize() {
+        int size = 50;
+        if (statusBatchSize != null) size = statusBatchSize;
+        return size;
+    }
+
+    /**
+     * Overrides default roomIdCacheSize getter to default it to 10000.
+     * @return Maximum number of channels kept in the room id cache.
+     */
+    public Integer roomIdCacheSize() {
+        int size = 10000;
+        if (roomIdCacheSize != null) size = roomIdCacheSize;
+        return size;
+    }
+
+    /**
+     * Overrides default roomIdCacheTtlSeconds getter to default it to 600.
+     * @return Seconds a resolved room id is reused for.
+     */
+    public Long roomIdCacheTtlSeconds() {
+        long ttl = 600;
+        if (roomIdCacheTtlSeconds != null) ttl = roomIdCacheTtlSeconds;
+        return ttl;
+    }
+
+    /**
+     * Overrides default roomIdRefreshPolls getter to default it to 10.
+     * @return Polls of a channel that is not live after which its room id is resolved again.
+     */
+    public Integer roomIdRefreshPolls() {
+        int polls = 10;
+        if (roomIdRefreshPolls != null && roomIdRefreshPolls > 0) polls = roomIdRefreshPolls;
+        return polls;
+    }
+
+    /**
+     * Overrides default requestsPerSecondPerHost getter to default it to unlimited.
+     * @return Requests per second sent to any one host, 0 for unlimited.
+     */
+    public Double requestsPerSecondPerHost() {
+        double rate = 0;
+        if (requestsPerSecondPerHost != null) rate = requestsPerSecondPerHost;
+        return rate;
+    }
+
+    /**
+     * Overrides default maxInFlightRequests getter to default it to 32.
+     * @return Maximum number of http requests in flight at once.
+     */
+    public Integer maxInFlightRequests() {
+        int max = 32;
+        if (maxInFlightRequests != null) max = maxInFlightRequests;
+        return max;
+    }
+
+    /**
+     * Overrides default circuitBreakerFailures getter to default it to 5.
+     * @return Consecutive failures after which calls to a host are paused.
+     */
+    public Integer circuitBreakerFailures() {
+        int failures = 5;
+        if (circuitBreakerFailures != null) failures = circuitBreakerFailures;
+        return failures;
+    }
+
+    /**
+     * Overrides default circuitBreakerOpenSeconds getter to default it to 60.
+     * @return Seconds calls to a failing host are paused for.
+     */
+    public Long circuitBreakerOpenSeconds() {
+        long seconds = 60;
+        if (circuitBreakerOpenSeconds != null) seconds = circuitBreakerOpenSeconds;
+        return seconds;
+    }
+
+    /**
+     * Overrides default conversionWorkers getter to default it to half the available processors.
+     * @return Number of recordings converted to mp4 at the same time.
+     */
+    public Integer conversionWorkers() {
+        int workers = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        if (conversionWorkers != null) workers = conversionWorkers;
+        return workers;
+    }
+
+    /**
+     * Overrides default minFreeSpaceMb getter to default it to not checked.
+     * @return Megabytes that must stay free on the disk of a recording, 0 for not checked.
+     */
+    public Long minFreeSpaceMb() {
+        long mb = 0;
+        if (minFreeSpaceMb != null) mb = minFreeSpaceMb;
+        return mb;
+    }
+
+    /**
+     * Overrides default maxStorageMb getter to default it to unlimited.
+     * @return Megabytes of finished recordings kept across all channels, 0 for unlimited.
+     */
+    public Long maxStorageMb() {
+        long mb = 0;
+        if (maxStorageMb != null) mb = maxStorageMb;
+        return mb;
+    }
+
+    /**
+     * Overrides default journalPath getter to default it to "out/journal.log".
+     * @return File of the recording journal.
+     */
+    public String journalPath() {
+        String path = "out/journal.log";
+        if (journalPath != null && !journalPath.isEmpty()) path = journalPath;
+        return path;
+    }
+
+    /**
+     * Overrides default recoveryScan getter to default it to false.
+     * @return Should every output directory be scanned on start for recordings missing from the journal?
+     */
+    public Boolean recoveryScan() {
+        boolean scan = false;
+        if (recoveryScan != null) scan = recoveryScan;
+        return scan;
+    }
+
+    /**
+     * Overrides default shutdownDeadlineSeconds getter to default it to 8.
+     * @return Seconds the shutdown may take.
+     */
+    public Long shutdownDeadlineSeconds() {
+        long seconds = 8;
+        if (shutdownDeadlineSeconds != null && shutdownDeadlineSeconds > 0) seconds = shutdownDeadlineSeconds;
+        return seconds;
+    }
+
+    /**
+     * Overrides default metricsPort getter to default it to 0, not serving the endpoints.
+     * @return Port of the metrics and status endpoints, 0 if not served.
+     */
+    public Integer metricsPort() {
+        int port = 0;
+        if (metricsPort != null) port = metricsPort;
+        return port;
+    }
+
+    /**
+     * Overrides default signerUrl getter to default it to the tikrec.com signer.
+     * @return Url of the signer the channel name is appended to.
+     */
+    public String signerUrl() {
+        String url = "https://tikrec.com/tiktok/room/api/sign?unique_id=";
+        if (signerUrl != null && !signerUrl.isEmpty()) url = signerUrl;
+        return url;
+    }
+
+    /**
+     * Overrides default webcastUrl getter to default it to "https://webcast.tiktok.com".
+     * @return Base url of the webcast api.
+     */
+    public String webcastUrl() {
+        String url = "https://webcast.tiktok.com";
+        if (webcastUrl != null && !webcastUrl.isEmpty()) url = webcastUrl;
+        return url;
+    }
+
+    /**
+     * Overrides default streamUrlResolvers getter to default it to native then yt-dlp.
+     * @return Names of the stream url resolvers, in the order they are tried.
+     */
+    public List<String> streamUrlResolvers() {
+        List<String> resolvers = List.of("native", "yt-dlp");
+        if (streamUrlResolvers != null && !streamUrlResolvers.isEmpty()) resolvers = streamUrlResolvers;
+        return resolvers;
+    }
+
 }
@@ -0,0 +1,43 @@
+package me.davidthaler.tiktokliverecorder.config;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/**
+ * Record representation of the cluster configuration. Nodes sharing one config and one shared directory split the
+ * watched channels between them. The clocks of the nodes must be kept in sync, and the output and journal paths of
+ * each node should be local to it.
+ * @param nodeId Id of this node, unique within the cluster. Defaults to the host name.
+ * @param sharedPath Directory shared by all nodes holding the node heartbeats and the channel leases.
+ * @param leaseSeconds Seconds a heartbeat or lease stays valid without being renewed, and so the time after which
+ *                     the channels of a failed node move to the other nodes. Defaults to 30.
+ */
+public record ClusterConfig(
+        String nodeId,
+        String sharedPath,
+        Long leaseSeconds) {
+
+    /**
+     * Overrides default nodeId getter to default it to the host name.
+     * @return Id of this node.
+     */
+    public String nodeId() {
+        if (nodeId != null && !nodeId.isEmpty()) return nodeId;
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException ex) {
+            throw new IllegalStateException("No cluster node id is configured and the host name is unknown.", ex);
+        }
+    }
+
+    /**
+     * Overrides default leaseSeconds getter to default it to 30.
+     * @return Seconds a heartbeat or lease stays valid.
+     */
+    public Long leaseSeconds() {
+        long seconds = 30;
+        if (leaseSeconds != null && leaseSeconds > 0) seconds = leaseSeconds;
+        return seconds;
+    }
+
+}
@@ -1,27 +1,63 @@
 package me.davidthaler.tiktokliverecorder.config;
 
+import java.io.File;
 import java.time.temporal.ChronoUnit;
+import java.util.regex.Pattern;
 
 /**
  * Record representation of the watcher configuration.
  * @param channel The channel to watch.
  * @param pollIntervalQty The quantity of the interval to poll for live status.
  * @param pollIntervalUnit The unit of the interval to poll for live status.
+ * @param minPollIntervalQty The quantity of the shortest interval the poll adapts to when a live is likely. Defaults
+ *                           to pollIntervalQty.
+ * @param maxPollIntervalQty The quantity of the longest interval the poll adapts to when a live is unlikely. Defaults
+ *                           to pollIntervalQty.
  * @param outputPath The output path for the videos.
  * @param outputFilenamePrefix The prefix to the file name before the timestamp.
  * @param keepMKVFiles Should the MKV files be kept after converting to mp4 or not. Defaults to false.
  * @param logFfmpegOutput Should the ffmpeg raw output be logged along with the video? Defaults to false.
  * @param logToFile Should the watcher log status and error reports to a log file? Defaults to true.
+ * @param segmentDurationSeconds Records in segments of this many seconds, each remuxed while the live continues and
+ *                               joined once it ends. Records a single file if null or 0.
+ * @param stallTimeoutSeconds Seconds without any bytes recorded after which the recording is restarted. Defaults
+ *                            to 30.
+ * @param maxStorageMb Megabytes of finished recordings kept for the channel, the oldest are deleted beyond it.
+ *                     Unlimited if null or 0.
  */
 public record WatcherConfig(
         String channel,
         long pollIntervalQty,
         ChronoUnit pollIntervalUnit,
+        Long minPollIntervalQty,
+        Long maxPollIntervalQty,
         String outputPath,
         String outputFilenamePrefix,
         Boolean keepMKVFiles,
         Boolean logFfmpegOutput,
-        Boolean logToFile) {
+        Boolean logToFile,
+        Long segmentDurationSeconds,
+        Long stallTimeoutSeconds,
+        Long maxStorageMb) {
+
+    /** Timestamp following the file name prefix of a recording, and anything after it. */
+    private static final Pattern TIMESTAMP = Pattern.compile("\\d{4}-\\d{2}-\\d{2}_\\d{2}-\\d{2}-\\d{2}.*");
+
+    /**
+     * Overrides default minPollIntervalQty getter.
+     * @return The quantity of the shortest adaptive poll interval.
+     */
+    public Long minPollIntervalQty() {
+        return defaultLong(pollIntervalQty, minPollIntervalQty);
+    }
+
+    /**
+     * Overrides default maxPollIntervalQty getter.
+     * @return The quantity of the longest adaptive poll interval.
+     */
+    public Long maxPollIntervalQty() {
+        return defaultLong(pollIntervalQty, maxPollIntervalQty);
+    }
 
     /**
      * Overrides default keepMKVFiles getter.
@@ -47,6 +83,45 @@ public record WatcherConfig(
         return defaultBool(true, logToFile);
     }
 
+    /**
+     * Overrides default stallTimeoutSeconds getter.
+     * @return Seconds without any bytes recorded after which the recording is restarted.
+     */
+    public Long stallTimeoutSeconds() {
+        return defaultLong(30, stallTimeoutSeconds);
+    }
+
+    /**
+     * Gets the directory the watcher records into.
+     * @return The output path, or "out/[channel]" if none is configured.
+     */
+    public File outputDirectory() {
+        String outPath = outputPath;
+        if (outPath == null || outPath.isEmpty()) {
+            outPath = "out/" + channel;
+        }
+        return new File(outPath);
+    }
+
+    /**
+     * Checks if a file name is one of the recordings of this watcher, named after its file name prefix and a
+     * timestamp. Tells the recordings of watchers sharing an output directory apart.
+     * @param name The file name.
+     * @return True if the name is the prefix of this watcher followed by a timestamp.
+     */
+    public boolean isRecordingName(String name) {
+        String prefix = outputFilenamePrefix == null || outputFilenamePrefix.isEmpty() ? channel : outputFilenamePrefix;
+        return name.startsWith(prefix + "_") && TIMESTAMP.matcher(name.substring(prefix.length() + 1)).matches();
+    }
+
+    /**
+     * Checks if the watcher records in segments.
+     * @return True if a segment duration is configured.
+     */
+    public boolean segmented() {
+        return segmentDurationSeconds != null && segmentDurationSeconds > 0;
+    }
+
     /**
      * Defaults a boolean value.
      * @param defaultVal The default value when origin not provided.
@@ -59,4 +134,16 @@ public record WatcherConfig(
         return bool;
     }
 
+    /**
+     * Defaults a long value.
+     * @param defaultVal The default value when origin not provided.
+     * @param input The input value.
+     * @return Returned the input value or default if not there.
+     */
+    private Long defaultLong(long defaultVal, Long input) {
+        long val = defaultVal;
+        if (input != null) val = input;
+        return val;
+    }
+
 }
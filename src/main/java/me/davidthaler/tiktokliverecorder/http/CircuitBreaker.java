@@ -0,0 +1,71 @@
+package me.davidthaler.tiktokliverecorder.http;
+
+import java.time.Duration;
+
+/**
+ * Circuit breaker opening after a number of consecutive failures. While open all calls are refused, once the open
+ * duration has passed a single trial call is let through and its result decides whether the breaker closes again.
+ */
+public class CircuitBreaker {
+
+    /** Consecutive failures that open the breaker. */
+    private final int failureThreshold;
+    /** Time the breaker stays open before a trial call is allowed. */
+    private final Duration openDuration;
+    /** Number of consecutive failures. */
+    private int failures;
+    /** Epoch millis until which the breaker is open, 0 if closed. */
+    private long openUntil;
+    /** Is a trial call currently in flight? */
+    private boolean trialInFlight;
+
+    /**
+     * Default constructor.
+     * @param failureThreshold Consecutive failures that open the breaker.
+     * @param openDuration Time the breaker stays open before a trial call is allowed.
+     */
+    public CircuitBreaker(int failureThreshold, Duration openDuration) {
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openDuration = openDuration;
+    }
+
+    /**
+     * Checks if a call may be made now.
+     * @return True if the call may be made, false if the breaker is open.
+     */
+    public synchronized boolean allowRequest() {
+        if (openUntil == 0) return true;
+        if (System.currentTimeMillis() < openUntil || trialInFlight) return false;
+        trialInFlight = true;
+        return true;
+    }
+
+    /**
+     * Records a successful call, closing the breaker.
+     */
+    public synchronized void recordSuccess() {
+        failures = 0;
+        openUntil = 0;
+        trialInFlight = false;
+    }
+
+    /**
+     * Records a failed call, opening the breaker once the threshold has been reached.
+     */
+    public synchronized void recordFailure() {
+        failures++;
+        trialInFlight = false;
+        if (failures >= failureThreshold) {
+            openUntil = System.currentTimeMillis() + openDuration.toMillis();
+        }
+    }
+
+    /**
+     * Checks if the breaker is currently refusing calls.
+     * @return True if open.
+     */
+    public synchronized boolean isOpen() {
+        return openUntil != 0 && System.currentTimeMillis() < openUntil;
+    }
+
+}
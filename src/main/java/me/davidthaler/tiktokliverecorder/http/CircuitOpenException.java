@@ -0,0 +1,23 @@
+package me.davidthaler.tiktokliverecorder.http;
+
+import java.io.IOException;
+import java.io.Serial;
+
+/**
+ * Thrown when a call is refused because the circuit breaker of its host is open.
+ */
+public class CircuitOpenException extends IOException {
+
+    /** Serialisation version. */
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Default constructor.
+     * @param host The host whose breaker is open.
+     */
+    public CircuitOpenException(String host) {
+        super("Circuit breaker open for host " + host);
+    }
+
+}
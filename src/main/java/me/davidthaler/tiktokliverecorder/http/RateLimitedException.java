@@ -0,0 +1,23 @@
+package me.davidthaler.tiktokliverecorder.http;
+
+import java.io.IOException;
+import java.io.Serial;
+
+/**
+ * Thrown when a call is refused because the rate limiter of its host could not give it a token in time.
+ */
+public class RateLimitedException extends IOException {
+
+    /** Serialisation version. */
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Default constructor.
+     * @param waitMillis Time the call would have had to wait for a token.
+     */
+    public RateLimitedException(long waitMillis) {
+        super("Rate limited, the next token is " + waitMillis + "ms away");
+    }
+
+}
@@ -0,0 +1,246 @@
+package me.davidthaler.tiktokliverecorder.http;
+
+import me.davidthaler.tiktokliverecorder.process.HelperThreads;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serial;
+import java.io.UncheckedIOException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Non-blocking wrapper around the shared http client. Every request waits for a token from the rate limiter of its
+ * host, if a rate is set, and for one of a bounded number of in-flight slots, and is refused straight away while the
+ * circuit breaker of its host is open.
+ */
+public class ThrottledHttpClient {
+
+    /** The shared http client. */
+    private final HttpClient httpClient;
+    /** Requests per second allowed per host, not limited if 0 or less. */
+    private final double requestsPerSecond;
+    /** Maximum number of requests in flight across all hosts. */
+    private final int maxInFlight;
+    /** Consecutive failures that open the breaker of a host. */
+    private final int breakerFailures;
+    /** Time the breaker of a host stays open. */
+    private final Duration breakerOpenDuration;
+    /** Rate limiter of each host. */
+    private final Map<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+    /** Circuit breaker of each host. */
+    private final Map<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+    /** Requests waiting for an in-flight slot. */
+    private final Queue<CompletableFuture<Void>> waiting = new ArrayDeque<>();
+    /** Number of requests in flight. */
+    private int inFlight;
+    /** Executor decoding response streams, reading a stream may block so each decode gets a thread of its own. */
+    private final Executor decoders;
+    /** Longest wait for a rate limiter token of a request without its own timeout. */
+    private static final Duration MAX_RATE_LIMIT_WAIT = Duration.ofSeconds(30);
+
+    /**
+     * Default constructor.
+     * @param httpClient The shared http client.
+     * @param requestsPerSecond Requests per second allowed per host, not limited if 0 or less.
+     * @param maxInFlight Maximum number of requests in flight across all hosts.
+     * @param breakerFailures Consecutive failures that open the breaker of a host.
+     * @param breakerOpenDuration Time the breaker of a host stays open.
+     * @param threads Creates the threads decoding the response streams.
+     */
+    public ThrottledHttpClient(HttpClient httpClient, double requestsPerSecond, int maxInFlight,
+                               int breakerFailures, Duration breakerOpenDuration, HelperThreads threads) {
+        this.httpClient = httpClient;
+        this.requestsPerSecond = requestsPerSecond;
+        this.maxInFlight = Math.max(1, maxInFlight);
+        this.breakerFailures = breakerFailures;
+        this.breakerOpenDuration = breakerOpenDuration;
+        this.decoders = threads.executor("decode-");
+    }
+
+    /**
+     * Sends a request asynchronously once the rate limiter and the in-flight bound allow it. Server errors and
+     * failed requests count towards the circuit breaker of the host.
+     * @param request The request to send.
+     * @param bodyHandler The response body handler.
+     * @param <T> The response body type.
+     * @return Future completed with the response, or failed with a {@link CircuitOpenException} if the breaker of the
+     * host is open or with a {@link RateLimitedException} if no token is available within the request timeout.
+     */
+    public <T> CompletableFuture<HttpResponse<T>> send(HttpRequest request, HttpResponse.BodyHandler<T> bodyHandler) {
+        return throttle(request, () -> httpClient.sendAsync(request, bodyHandler),
+                response -> isServerFailure(response.statusCode()));
+    }
+
+    /**
+     * Sends a request and decodes the response body straight from its stream, without buffering it first. The
+     * stream is always closed once decoded. The in-flight slot is held until the body has been decoded, and a body
+     * that fails to decode counts towards the circuit breaker like a failed request.
+     * @param request The request to send.
+     * @param decoder Function decoding the response body.
+     * @param <T> The decoded type.
+     * @return Future completed with the decoded body, or failed if the response has an error status code.
+     */
+    public <T> CompletableFuture<T> sendAndDecode(HttpRequest request, Function<InputStream, T> decoder) {
+        return throttle(request, () -> httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofInputStream())
+                .thenApplyAsync(response -> {
+                    try (InputStream body = response.body()) {
+                        requireSuccess(response);
+                        return decoder.apply(body);
+                    } catch (IOException ex) {
+                        throw new UncheckedIOException(ex);
+                    }
+                }, decoders), decoded -> false);
+    }
+
+    /**
+     * Runs a call once the rate limiter and the in-flight bound allow it, unless the circuit breaker of the host is
+     * open. The slot is released and the outcome recorded once the call has completed as a whole.
+     * @param request The request made by the call.
+     * @param call The call.
+     * @param failed Checks if a result the call completed with is a failure of the host.
+     * @param <R> The result type.
+     * @return Future completed with the result of the call.
+     */
+    private <R> CompletableFuture<R> throttle(HttpRequest request, Supplier<CompletableFuture<R>> call,
+                                              Predicate<R> failed) {
+        String host = request.uri().getHost();
+        CircuitBreaker breaker = breakers.computeIfAbsent(host,
+                h -> new CircuitBreaker(breakerFailures, breakerOpenDuration));
+        if (breaker.isOpen()) {
+            return CompletableFuture.failedFuture(new CircuitOpenException(host));
+        }
+        CompletableFuture<Void> token = CompletableFuture.completedFuture(null);
+        if (requestsPerSecond > 0) {
+            TokenBucket bucket = buckets.computeIfAbsent(host,
+                    h -> new TokenBucket(requestsPerSecond, Math.max(1, requestsPerSecond)));
+            token = bucket.acquire(request.timeout().orElse(MAX_RATE_LIMIT_WAIT));
+        }
+        return token.thenCompose(v -> acquireSlot())
+                .thenCompose(v -> {
+                    if (!breaker.allowRequest()) {
+                        releaseSlot();
+                        return CompletableFuture.failedFuture(new CircuitOpenException(host));
+                    }
+                    CompletableFuture<R> result;
+                    try {
+                        result = call.get();
+                    } catch (RuntimeException ex) {
+                        result = CompletableFuture.failedFuture(ex);
+                    }
+                    return result.whenComplete((value, ex) -> {
+                        releaseSlot();
+                        if (ex != null ? isHostFailure(ex) : failed.test(value)) {
+                            breaker.recordFailure();
+                        } else {
+                            breaker.recordSuccess();
+                        }
+                    });
+                });
+    }
+
+    /**
+     * Checks that a response was successful.
+     * @param response The response.
+     * @param <T> The response body type.
+     * @return The response.
+     * @throws HttpStatusException Thrown if the response has an error status code.
+     */
+    public static <T> HttpResponse<T> requireSuccess(HttpResponse<T> response) {
+        if (response.statusCode() >= 400) {
+            throw new HttpStatusException(response.uri().getHost(), response.statusCode());
+        }
+        return response;
+    }
+
+    /**
+     * Checks if a call failed because of its host. A response with a client error status other than 429 shows the
+     * host is up, so it does not count as a failure, a response that could not be decoded does.
+     * @param ex The exception the call failed with.
+     * @return True if the failure counts towards the circuit breaker.
+     */
+    private static boolean isHostFailure(Throwable ex) {
+        Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+        if (cause instanceof HttpStatusException status) return isServerFailure(status.statusCode());
+        return true;
+    }
+
+    /**
+     * Checks if a status code means the host is failing or overloaded.
+     * @param statusCode The status code.
+     * @return True for server errors and 429.
+     */
+    private static boolean isServerFailure(int statusCode) {
+        return statusCode >= 500 || statusCode == 429;
+    }
+
+    /**
+     * Takes an in-flight slot.
+     * @return Future completed once the slot is available.
+     */
+    private synchronized CompletableFuture<Void> acquireSlot() {
+        if (inFlight < maxInFlight) {
+            inFlight++;
+            return CompletableFuture.completedFuture(null);
+        }
+        CompletableFuture<Void> slot = new CompletableFuture<>();
+        waiting.add(slot);
+        return slot;
+    }
+
+    /**
+     * Releases an in-flight slot, handing it straight to the next waiting request if there is one.
+     */
+    private void releaseSlot() {
+        CompletableFuture<Void> next;
+        synchronized (this) {
+            next = waiting.poll();
+            if (next == null) inFlight--;
+        }
+        if (next != null) next.complete(null);
+    }
+
+    /**
+     * Thrown when a response has an error status code.
+     */
+    public static class HttpStatusException extends RuntimeException {
+
+        /** Serialisation version. */
+        @Serial
+        private static final long serialVersionUID = 1L;
+        /** The status code of the response. */
+        private final int statusCode;
+
+        /**
+         * Default constructor.
+         * @param host The host that responded.
+         * @param statusCode The status code of the response.
+         */
+        public HttpStatusException(String host, int statusCode) {
+            super("Host " + host + " responded with status " + statusCode);
+            this.statusCode = statusCode;
+        }
+
+        /**
+         * Gets the status code of the response.
+         * @return The status code.
+         */
+        public int statusCode() {
+            return statusCode;
+        }
+
+    }
+
+}
@@ -0,0 +1,62 @@
+package me.davidthaler.tiktokliverecorder.http;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket rate limiter. Callers that find the bucket empty reserve a future token and are completed once it has
+ * been refilled, nobody blocks while waiting. A reserved token cannot be handed back, so reservations only reach as
+ * far ahead as the caller is willing to wait, beyond that the caller is refused straight away and the backlog stays
+ * bounded.
+ */
+public class TokenBucket {
+
+    /** Maximum number of tokens, the allowed burst. */
+    private final double capacity;
+    /** Tokens refilled per second. */
+    private final double ratePerSecond;
+    /** Tokens currently available, negative when tokens have been reserved ahead. */
+    private double tokens;
+    /** Nano time of the last refill. */
+    private long lastRefill;
+
+    /**
+     * Default constructor.
+     * @param ratePerSecond Tokens refilled per second.
+     * @param capacity Maximum number of tokens.
+     */
+    public TokenBucket(double ratePerSecond, double capacity) {
+        this.ratePerSecond = ratePerSecond;
+        this.capacity = capacity;
+        this.tokens = capacity;
+        this.lastRefill = System.nanoTime();
+    }
+
+    /**
+     * Takes a token from the bucket.
+     * @param maxWait Longest time the caller may wait for the token.
+     * @return Future completed once the token is available, or failed with a {@link RateLimitedException} without
+     * taking a token if it would not be available within the maximum wait.
+     */
+    public CompletableFuture<Void> acquire(Duration maxWait) {
+        long waitMillis;
+        synchronized (this) {
+            long now = System.nanoTime();
+            tokens = Math.min(capacity, tokens + (now - lastRefill) / 1e9 * ratePerSecond);
+            lastRefill = now;
+            if (tokens >= 1) {
+                tokens -= 1;
+                return CompletableFuture.completedFuture(null);
+            }
+            waitMillis = (long) Math.ceil((1 - tokens) / ratePerSecond * 1000);
+            if (waitMillis > maxWait.toMillis()) {
+                return CompletableFuture.failedFuture(new RateLimitedException(waitMillis));
+            }
+            tokens -= 1;
+        }
+        return CompletableFuture.runAsync(() -> { },
+                CompletableFuture.delayedExecutor(waitMillis, TimeUnit.MILLISECONDS));
+    }
+
+}
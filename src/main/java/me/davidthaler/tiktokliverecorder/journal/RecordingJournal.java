@@ -0,0 +1,290 @@
+package me.davidthaler.tiktokliverecorder.journal;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Append-only write-ahead log of the recordings still needing work. Every recording is identified by its base path,
+ * the output directory and session name without extension, and moves through started, ended, remux started and remux
+ * done. On start the journal is replayed into the set of pending recordings and rewritten to hold only those, so
+ * both the replay and the journal stay proportional to the pending work rather than to everything ever recorded.
+ */
+public class RecordingJournal {
+
+    /** The journal file. */
+    private final Path file;
+    /** Pending recordings by base path, in the order they were started. */
+    private final Map<String, Pending> pending = new LinkedHashMap<>();
+    /** Was the journal created by this run? */
+    private final boolean created;
+    /** Channel appended to, null once closed. */
+    private FileChannel channel;
+    /** Entries appended since the last compaction. */
+    private int appended;
+    /** Appended entries after which the journal is compacted, if most of them are finished. */
+    private static final int COMPACT_THRESHOLD = 1000;
+    /** Logger instance. */
+    private static final Logger LOGGER = LoggerFactory.getLogger(RecordingJournal.class);
+
+    /**
+     * Default constructor, replays and compacts the journal.
+     * @param file The journal file, created if missing.
+     * @throws IOException Thrown if the journal could not be read or rewritten.
+     */
+    public RecordingJournal(Path file) throws IOException {
+        this.file = file;
+        this.created = !Files.exists(file);
+        if (!created) replay();
+        compact();
+    }
+
+    /**
+     * Checks if the journal was created by this run, in which case recordings of earlier runs are unknown to it.
+     * @return True if there was no journal.
+     */
+    public boolean isNew() {
+        return created;
+    }
+
+    /**
+     * Records that a recording has started.
+     * @param base The base path of the recording.
+     * @param channel The channel recorded.
+     * @param transcode Was the live encode deferred, so the recording has to be encoded after the live?
+     */
+    public void recordingStarted(File base, String channel, boolean transcode) {
+        append(Type.STARTED, base.getAbsolutePath(), channel, Boolean.toString(transcode));
+    }
+
+    /**
+     * Records that ffmpeg closed a segment of a recording.
+     * @param base The base path of the recording.
+     * @param segment The closed segment.
+     */
+    public void segmentClosed(File base, Path segment) {
+        append(Type.SEGMENT_CLOSED, base.getAbsolutePath(), segment.getFileName().toString());
+    }
+
+    /**
+     * Records that a recording has ended and its post-processing was queued.
+     * @param base The base path of the recording.
+     */
+    public void recordingEnded(File base) {
+        append(Type.ENDED, base.getAbsolutePath());
+    }
+
+    /**
+     * Records that the post-processing of a recording has started.
+     * @param mp4 The mp4 the post-processing writes, the base path with ".mp4".
+     */
+    public void remuxStarted(Path mp4) {
+        append(Type.REMUX_STARTED, basePath(mp4));
+    }
+
+    /**
+     * Records that the post-processing of a recording has finished, the recording is no longer pending.
+     * @param mp4 The mp4 the post-processing wrote, the base path with ".mp4".
+     */
+    public void remuxDone(Path mp4) {
+        append(Type.REMUX_DONE, basePath(mp4));
+    }
+
+    /**
+     * Records that a pending recording has nothing to process, because nothing was recorded or its files are gone.
+     * The recording is no longer pending.
+     * @param base The base path of the recording.
+     */
+    public void dropped(File base) {
+        append(Type.DROPPED, base.getAbsolutePath());
+    }
+
+    /**
+     * Gets the pending recordings of an output directory.
+     * @param directory The output directory.
+     * @return The pending recordings whose base path is in the directory.
+     */
+    public synchronized List<Pending> pending(File directory) {
+        Path dir = directory.toPath().toAbsolutePath().normalize();
+        List<Pending> result = new ArrayList<>();
+        for (Pending p : pending.values()) {
+            if (dir.equals(p.base().toPath().toAbsolutePath().normalize().getParent())) result.add(p);
+        }
+        return result;
+    }
+
+    /**
+     * Checks if a recording is pending.
+     * @param base The base path of the recording.
+     * @return True if the recording still needs work.
+     */
+    public synchronized boolean isPending(File base) {
+        return pending.containsKey(base.getAbsolutePath());
+    }
+
+    /**
+     * Gets the number of pending recordings.
+     * @return The pending count.
+     */
+    public synchronized int pendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * Appends an entry and applies it, compacting the journal when it is mostly finished entries.
+     * @param type The entry type.
+     * @param fields The fields of the entry, the base path first.
+     */
+    private synchronized void append(Type type, String... fields) {
+        StringBuilder line = new StringBuilder().append(System.currentTimeMillis()).append('\t').append(type);
+        for (String field : fields) line.append('\t').append(field);
+        line.append('\n');
+        apply(type, fields);
+        try {
+            write(channel, line.toString());
+            channel.force(false);
+            appended++;
+            if (appended > COMPACT_THRESHOLD && appended > 4 * pending.size()) compact();
+        } catch (IOException ex) {
+            LOGGER.error("Failed to write {} of {} to the recording journal.", type, fields[0], ex);
+        }
+    }
+
+    /**
+     * Applies an entry to the pending recordings.
+     * @param type The entry type.
+     * @param fields The fields of the entry, the base path first.
+     */
+    private void apply(Type type, String[] fields) {
+        String base = fields[0];
+        switch (type) {
+            case STARTED -> pending.put(base, new Pending(new File(base), fields.length > 1 ? fields[1] : null,
+                    fields.length > 2 && Boolean.parseBoolean(fields[2]), State.RECORDING));
+            case SEGMENT_CLOSED -> {
+                // The segments themselves are found on disk by the join, nothing to track.
+            }
+            case ENDED -> pending.computeIfPresent(base, (k, p) -> p.withState(State.ENDED));
+            case REMUX_STARTED -> pending.computeIfPresent(base, (k, p) -> p.withState(State.REMUXING));
+            case REMUX_DONE, DROPPED -> pending.remove(base);
+        }
+    }
+
+    /**
+     * Reads the journal into the pending recordings. Lines that cannot be parsed, such as one torn by a crash, are
+     * skipped.
+     * @throws IOException Thrown if the journal could not be read.
+     */
+    private void replay() throws IOException {
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            String[] parts = line.split("\t");
+            if (parts.length < 3) continue;
+            Type type;
+            try {
+                type = Type.valueOf(parts[1]);
+            } catch (IllegalArgumentException ex) {
+                continue;
+            }
+            String[] fields = new String[parts.length - 2];
+            System.arraycopy(parts, 2, fields, 0, fields.length);
+            apply(type, fields);
+        }
+    }
+
+    /**
+     * Rewrites the journal to hold only the pending recordings, replacing it atomically, and reopens it for
+     * appending.
+     * @throws IOException Thrown if the journal could not be rewritten.
+     */
+    private void compact() throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) Files.createDirectories(parent);
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            long now = System.currentTimeMillis();
+            StringBuilder lines = new StringBuilder();
+            for (Pending p : pending.values()) {
+                String base = p.base().getAbsolutePath();
+                lines.append(now).append('\t').append(Type.STARTED).append('\t').append(base).append('\t')
+                        .append(p.channel()).append('\t').append(p.transcode()).append('\n');
+                if (p.state() != State.RECORDING) {
+                    lines.append(now).append('\t').append(p.state() == State.ENDED ? Type.ENDED : Type.REMUX_STARTED)
+                            .append('\t').append(base).append('\n');
+                }
+            }
+            write(out, lines.toString());
+            out.force(true);
+        }
+        if (channel != null) channel.close();
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        appended = 0;
+    }
+
+    private static void write(FileChannel channel, String text) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) channel.write(buffer);
+    }
+
+    /**
+     * Gets the base path of a recording from the mp4 it is converted to.
+     * @param mp4 The mp4.
+     * @return The absolute path without ".mp4".
+     */
+    private static String basePath(Path mp4) {
+        String path = mp4.toAbsolutePath().toString();
+        return path.endsWith(".mp4") ? path.substring(0, path.length() - ".mp4".length()) : path;
+    }
+
+    /**
+     * Journal entry types.
+     */
+    private enum Type {
+        STARTED, SEGMENT_CLOSED, ENDED, REMUX_STARTED, REMUX_DONE, DROPPED
+    }
+
+    /**
+     * Progress of a pending recording.
+     */
+    public enum State {
+        /** Recording, or interrupted while recording by a crash. */
+        RECORDING,
+        /** Ended and waiting for post-processing. */
+        ENDED,
+        /** Post-processing started but not finished. */
+        REMUXING
+    }
+
+    /**
+     * A recording still needing work.
+     * @param base The base path of the recording.
+     * @param channel The channel recorded.
+     * @param transcode Does the recording have to be encoded rather than remuxed?
+     * @param state The progress of the recording.
+     */
+    public record Pending(File base, String channel, boolean transcode, State state) {
+
+        /**
+         * Copies the entry with another state.
+         * @param state The new state.
+         * @return The copy.
+         */
+        Pending withState(State state) {
+            return new Pending(base, channel, transcode, state);
+        }
+    }
+
+}
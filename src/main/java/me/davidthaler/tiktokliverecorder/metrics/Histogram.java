@@ -0,0 +1,68 @@
+package me.davidthaler.tiktokliverecorder.metrics;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histogram with fixed buckets in seconds, lock-free to observe from any thread.
+ */
+public class Histogram {
+
+    /** Upper bounds of the buckets in seconds. */
+    static final double[] BOUNDS = {0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60, 300};
+    /** Observations per bucket, the last one counting those above every bound. */
+    private final LongAdder[] buckets = new LongAdder[BOUNDS.length + 1];
+    /** Sum of all observations in seconds. */
+    private final DoubleAdder sum = new DoubleAdder();
+
+    /**
+     * Default constructor.
+     */
+    public Histogram() {
+        for (int i = 0; i < buckets.length; i++) buckets[i] = new LongAdder();
+    }
+
+    /**
+     * Records an observation.
+     * @param duration The observed duration.
+     */
+    public void observe(Duration duration) {
+        double seconds = duration.toNanos() / 1e9;
+        int i = 0;
+        while (i < BOUNDS.length && seconds > BOUNDS[i]) i++;
+        buckets[i].increment();
+        sum.add(seconds);
+    }
+
+    /**
+     * Records the time elapsed since a start time.
+     * @param startNanos The start, from {@link System#nanoTime()}.
+     */
+    public void observeSince(long startNanos) {
+        observe(Duration.ofNanos(System.nanoTime() - startNanos));
+    }
+
+    /**
+     * Gets the cumulative counts, one per bound followed by the total count.
+     * @return The cumulative bucket counts.
+     */
+    long[] cumulativeCounts() {
+        long[] counts = new long[buckets.length];
+        long total = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            total += buckets[i].sum();
+            counts[i] = total;
+        }
+        return counts;
+    }
+
+    /**
+     * Gets the sum of all observations.
+     * @return The sum in seconds.
+     */
+    double sum() {
+        return sum.sum();
+    }
+
+}
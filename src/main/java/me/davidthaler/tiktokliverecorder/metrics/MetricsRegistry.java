@@ -0,0 +1,248 @@
+package me.davidthaler.tiktokliverecorder.metrics;
+
+import com.sun.management.UnixOperatingSystemMXBean;
+import me.davidthaler.tiktokliverecorder.process.RecordingRegistry;
+import me.davidthaler.tiktokliverecorder.process.RecordingStats;
+
+import java.lang.management.ManagementFactory;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+import java.util.function.Supplier;
+
+/**
+ * App-wide instrumentation. Watchers and services record latencies, poll outcomes and errors here, services expose
+ * their state as gauges, and the whole registry is rendered in the Prometheus text format.
+ */
+public class MetricsRegistry {
+
+    /** Registry of the active recordings. */
+    private final RecordingRegistry recordings;
+    /** Latency of each hop of the live status check. */
+    private final Map<String, Histogram> hopLatency = new ConcurrentHashMap<>();
+    /** Time taken by each stream url resolver. */
+    private final Map<String, Histogram> resolveLatency = new ConcurrentHashMap<>();
+    /** Time taken by each post-processing job. */
+    private final Histogram conversionLatency = new Histogram();
+    /** Poll outcomes by outcome. */
+    private final Map<String, LongAdder> polls = new ConcurrentHashMap<>();
+    /** Poll errors by cause. */
+    private final Map<String, LongAdder> pollErrors = new ConcurrentHashMap<>();
+    /** Last poll of each channel. */
+    private final Map<String, LastPoll> lastPolls = new ConcurrentHashMap<>();
+    /** Gauges and counters registered by the services, in registration order. */
+    private final Map<String, Gauge> gauges = Collections.synchronizedMap(new LinkedHashMap<>());
+    /** Prefix of every metric name. */
+    private static final String PREFIX = "tiktok_recorder_";
+
+    /**
+     * Default constructor.
+     * @param recordings Registry of the active recordings.
+     */
+    public MetricsRegistry(RecordingRegistry recordings) {
+        this.recordings = recordings;
+        putGauge("threads", "Live JVM threads.", () -> ManagementFactory.getThreadMXBean().getThreadCount());
+        putGauge("child_processes", "Running child processes such as ffmpeg and yt-dlp.",
+                () -> ProcessHandle.current().children().count());
+        putGauge("active_recordings", "Recordings in progress.", () -> recordings.all().size());
+        putGauge("heap_used_bytes", "Used JVM heap.",
+                () -> ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed());
+        putGauge("open_file_descriptors", "Open file descriptors, -1 where not known.", () ->
+                ManagementFactory.getOperatingSystemMXBean() instanceof UnixOperatingSystemMXBean unix
+                        ? unix.getOpenFileDescriptorCount() : -1);
+    }
+
+    /**
+     * Registers a gauge read on every scrape.
+     * @param name The metric name without prefix.
+     * @param help The help text.
+     * @param value Supplies the current value.
+     */
+    public void gauge(String name, String help, DoubleSupplier value) {
+        putGauge(name, help, value);
+    }
+
+    /**
+     * Registers a gauge, see {@link #gauge(String, String, DoubleSupplier)}.
+     * @param name The metric name without prefix.
+     * @param help The help text.
+     * @param value Supplies the current value.
+     */
+    private void putGauge(String name, String help, DoubleSupplier value) {
+        gauges.put(name, new Gauge(help, "gauge", value));
+    }
+
+    /**
+     * Registers a counter kept by a service, read on every scrape.
+     * @param name The metric name without prefix, ending with "_total".
+     * @param help The help text.
+     * @param value Supplies the current count.
+     */
+    public void counter(String name, String help, DoubleSupplier value) {
+        gauges.put(name, new Gauge(help, "counter", value));
+    }
+
+    /**
+     * Times one hop of a live status check. The check_alive hop is timed by the batched status check and covers the
+     * call only, not the time a room waits for its batch.
+     * @param hop The hop name.
+     * @param call Starts the hop.
+     * @param <T> The result type.
+     * @return The future of the hop, observed when it completes either way.
+     */
+    public <T> CompletableFuture<T> timeHop(String hop, Supplier<CompletableFuture<T>> call) {
+        Histogram histogram = hopLatency.computeIfAbsent(hop, h -> new Histogram());
+        long start = System.nanoTime();
+        return call.get().whenComplete((result, ex) -> histogram.observeSince(start));
+    }
+
+    /**
+     * Gets the histogram timing a stream url resolver.
+     * @param resolver The resolver name.
+     * @return The histogram.
+     */
+    public Histogram resolveLatency(String resolver) {
+        return resolveLatency.computeIfAbsent(resolver, r -> new Histogram());
+    }
+
+    /**
+     * Gets the histogram timing the post-processing jobs.
+     * @return The histogram.
+     */
+    public Histogram conversionLatency() {
+        return conversionLatency;
+    }
+
+    /**
+     * Records the outcome of a poll.
+     * @param channel The channel polled.
+     * @param outcome The outcome, the name of a PollOutcome.
+     */
+    public void poll(String channel, String outcome) {
+        polls.computeIfAbsent(outcome, o -> new LongAdder()).increment();
+        lastPolls.put(channel, new LastPoll(outcome, Instant.now()));
+    }
+
+    /**
+     * Records a failed poll.
+     * @param cause The cause, such as the exception type.
+     */
+    public void pollError(String cause) {
+        pollErrors.computeIfAbsent(cause, c -> new LongAdder()).increment();
+    }
+
+    /**
+     * Forgets the last poll of a channel that is no longer watched.
+     * @param channel The channel.
+     */
+    public void forget(String channel) {
+        lastPolls.remove(channel);
+    }
+
+    /**
+     * Gets the last poll of every channel.
+     * @return A snapshot of the last polls by channel.
+     */
+    public Map<String, LastPoll> lastPolls() {
+        return new TreeMap<>(lastPolls);
+    }
+
+    /**
+     * Renders every metric in the Prometheus text format.
+     * @return The exposition text.
+     */
+    public String render() {
+        StringBuilder out = new StringBuilder();
+        histograms(out, "status_hop_seconds", "Latency of each hop of the live status check.", "hop",
+                hopLatency);
+        histograms(out, "stream_url_resolve_seconds", "Time taken to resolve a stream url.", "resolver",
+                resolveLatency);
+        histograms(out, "conversion_seconds", "Time taken by a post-processing job.", null,
+                Map.of("", conversionLatency));
+        counters(out, "polls_total", "Polls by outcome.", "outcome", polls);
+        counters(out, "poll_errors_total", "Failed polls by cause.", "cause", pollErrors);
+        List<RecordingStats> active = new ArrayList<>(recordings.all());
+        header(out, "recording_bytes_per_second", "Write rate of each recording.", "gauge");
+        for (RecordingStats stats : active) {
+            sample(out, "recording_bytes_per_second", "channel", stats.channel(), stats.bytesPerSecond());
+        }
+        header(out, "recording_bitrate_kbps", "Output bitrate of each recording.", "gauge");
+        for (RecordingStats stats : active) {
+            sample(out, "recording_bitrate_kbps", "channel", stats.channel(), stats.bitrateKbps());
+        }
+        header(out, "recording_bytes", "Bytes written by each recording.", "gauge");
+        for (RecordingStats stats : active) {
+            sample(out, "recording_bytes", "channel", stats.channel(), stats.bytesWritten());
+        }
+        synchronized (gauges) {
+            for (Map.Entry<String, Gauge> gauge : gauges.entrySet()) {
+                header(out, gauge.getKey(), gauge.getValue().help(), gauge.getValue().type());
+                sample(out, gauge.getKey(), null, null, gauge.getValue().value().getAsDouble());
+            }
+        }
+        return out.toString();
+    }
+
+    private static void histograms(StringBuilder out, String name, String help, String label,
+                                   Map<String, Histogram> histograms) {
+        header(out, name, help, "histogram");
+        for (Map.Entry<String, Histogram> entry : new TreeMap<>(histograms).entrySet()) {
+            String labels = label == null ? "" : label + "=\"" + escape(entry.getKey()) + "\",";
+            long[] counts = entry.getValue().cumulativeCounts();
+            for (int i = 0; i < counts.length; i++) {
+                String le = i < Histogram.BOUNDS.length ? Double.toString(Histogram.BOUNDS[i]) : "+Inf";
+                out.append(PREFIX).append(name).append("_bucket{").append(labels).append("le=\"").append(le)
+                        .append("\"} ").append(counts[i]).append('\n');
+            }
+            String own = label == null ? "" : "{" + label + "=\"" + escape(entry.getKey()) + "\"}";
+            out.append(PREFIX).append(name).append("_sum").append(own).append(' ').append(entry.getValue().sum())
+                    .append('\n');
+            out.append(PREFIX).append(name).append("_count").append(own).append(' ')
+                    .append(counts[counts.length - 1]).append('\n');
+        }
+    }
+
+    private static void counters(StringBuilder out, String name, String help, String label,
+                                 Map<String, LongAdder> counters) {
+        header(out, name, help, "counter");
+        for (Map.Entry<String, LongAdder> entry : new TreeMap<>(counters).entrySet()) {
+            sample(out, name, label, entry.getKey(), entry.getValue().sum());
+        }
+    }
+
+    private static void header(StringBuilder out, String name, String help, String type) {
+        out.append("# HELP ").append(PREFIX).append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(PREFIX).append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder out, String name, String label, String labelValue, double value) {
+        out.append(PREFIX).append(name);
+        if (label != null) out.append('{').append(label).append("=\"").append(escape(labelValue)).append("\"}");
+        out.append(' ').append(value).append('\n');
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    /**
+     * A gauge, or a counter kept elsewhere.
+     * @param help The help text.
+     * @param type The Prometheus metric type.
+     * @param value Supplies the current value.
+     */
+    private record Gauge(String help, String type, DoubleSupplier value) {
+    }
+
+    /**
+     * The last poll of a channel.
+     * @param outcome The outcome, the name of a PollOutcome.
+     * @param at Time of the poll.
+     */
+    public record LastPoll(String outcome, Instant at) {
+    }
+
+}
@@ -0,0 +1,115 @@
+package me.davidthaler.tiktokliverecorder.metrics;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import me.davidthaler.tiktokliverecorder.process.HelperThreads;
+import me.davidthaler.tiktokliverecorder.process.RecordingRegistry;
+import me.davidthaler.tiktokliverecorder.process.RecordingStats;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import tools.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Embedded http endpoint on the JDK http server. "/metrics" serves the registry in the Prometheus text format and
+ * "/status" serves a json view of every channel, its last poll and its recording if live.
+ */
+public class MetricsServer {
+
+    /** The http server. */
+    private final HttpServer server;
+    private final MetricsRegistry metrics;
+    private final RecordingRegistry recordings;
+    /** Object mapper instance. */
+    private final ObjectMapper objectMapper;
+    /** Logger instance. */
+    private static final Logger LOGGER = LoggerFactory.getLogger(MetricsServer.class);
+
+    /**
+     * Default constructor, starts serving.
+     * @param port The port to listen on.
+     * @param metrics The metrics registry.
+     * @param recordings Registry of the active recordings.
+     * @param objectMapper The object mapper instance.
+     * @param threads Creates the threads serving the requests.
+     * @throws IOException Thrown if the port could not be bound.
+     */
+    public MetricsServer(int port, MetricsRegistry metrics, RecordingRegistry recordings, ObjectMapper objectMapper,
+                         HelperThreads threads) throws IOException {
+        this.metrics = metrics;
+        this.recordings = recordings;
+        this.objectMapper = objectMapper;
+        this.server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.setExecutor(threads.executor("metrics-"));
+        server.createContext("/metrics", exchange -> respond(exchange, "text/plain; version=0.0.4",
+                metrics.render()));
+        server.createContext("/status", exchange -> respond(exchange, "application/json",
+                objectMapper.writeValueAsString(status())));
+        server.start();
+        LOGGER.info("Serving metrics on port {}", port);
+    }
+
+    /**
+     * Builds the status view.
+     * @return The channels with their last poll and active recording.
+     */
+    private Map<String, Object> status() {
+        List<Map<String, Object>> channels = new ArrayList<>();
+        for (Map.Entry<String, MetricsRegistry.LastPoll> poll : metrics.lastPolls().entrySet()) {
+            Map<String, Object> channel = new LinkedHashMap<>();
+            channel.put("channel", poll.getKey());
+            channel.put("lastPoll", poll.getValue().outcome());
+            channel.put("lastPollAt", poll.getValue().at().toString());
+            RecordingStats stats = recordings.get(poll.getKey());
+            channel.put("live", stats != null || "LIVE".equals(poll.getValue().outcome()));
+            if (stats != null) {
+                Map<String, Object> recording = new LinkedHashMap<>();
+                recording.put("output", stats.output().toString());
+                recording.put("startedAt", stats.startedAt().toString());
+                recording.put("bytesWritten", stats.bytesWritten());
+                recording.put("bytesPerSecond", stats.bytesPerSecond());
+                recording.put("bitrateKbps", stats.bitrateKbps());
+                recording.put("speed", stats.speed());
+                recording.put("droppedFrames", stats.droppedFrames());
+                channel.put("recording", recording);
+            }
+            channels.add(channel);
+        }
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("activeRecordings", recordings.all().size());
+        status.put("channels", channels);
+        return status;
+    }
+
+    /**
+     * Writes a response and closes the exchange.
+     * @param exchange The exchange.
+     * @param contentType The content type.
+     * @param body The body.
+     * @throws IOException Thrown if the response could not be written.
+     */
+    private static void respond(HttpExchange exchange, String contentType, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Stops serving.
+     */
+    public void stop() {
+        server.stop(0);
+    }
+
+}
@@ -0,0 +1,164 @@
+package me.davidthaler.tiktokliverecorder.postprocess;
+
+import me.davidthaler.tiktokliverecorder.config.AppConfig;
+import me.davidthaler.tiktokliverecorder.config.WatcherConfig;
+import me.davidthaler.tiktokliverecorder.transcode.EncodeSlot;
+import me.davidthaler.tiktokliverecorder.transcode.TranscodeScheduler;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+/**
+ * Job joining the segments of a segmented recording into one mp4. Segments not yet remuxed, for example the last
+ * segment or segments left by a crash, are remuxed first. The segments are then joined with the concat demuxer, which
+ * only copies the streams unless the live encode of the recording was deferred, and the session directory is
+ * removed. When the recorded segments are kept, the directory stays with a done marker instead, so it is not joined
+ * again.
+ */
+public class ConcatSegments implements PostProcessingJob {
+
+    private final File sessionDirectory;
+    private final AppConfig appConfig;
+    private final WatcherConfig watcherConfig;
+    /** Modification time of the recording when the job was created, fixed so the queue order never changes. */
+    private final long priority;
+    /** Scheduler the encoder threads are taken from when the joined recording is encoded, null if copied. */
+    private final TranscodeScheduler encoder;
+    /** Suffix of the directories holding the segments of a recording. */
+    public static final String SESSION_SUFFIX = ".parts";
+    /** Name of the concat demuxer input file. */
+    private static final String CONCAT_LIST = "concat.txt";
+    /** Name of the file marking a kept session directory as joined. */
+    private static final String DONE_MARKER = "concat.done";
+
+    /**
+     * Default Constructor.
+     * @param sessionDirectory Directory holding the segments.
+     * @param appConfig The application config instance.
+     * @param watcherConfig The watcher config instance.
+     */
+    public ConcatSegments(File sessionDirectory, AppConfig appConfig, WatcherConfig watcherConfig) {
+        this(sessionDirectory, appConfig, watcherConfig, null);
+    }
+
+    /**
+     * Constructor for recordings that may need encoding.
+     * @param sessionDirectory Directory holding the segments.
+     * @param appConfig The application config instance.
+     * @param watcherConfig The watcher config instance.
+     * @param encoder Scheduler to take encoder threads from if the joined recording is encoded instead of copied,
+     *                as its live encode was deferred, null to copy it.
+     */
+    public ConcatSegments(File sessionDirectory, AppConfig appConfig, WatcherConfig watcherConfig,
+                          TranscodeScheduler encoder) {
+        this.sessionDirectory = sessionDirectory;
+        this.appConfig = appConfig;
+        this.watcherConfig = watcherConfig;
+        this.encoder = encoder;
+        this.priority = sessionDirectory.lastModified();
+    }
+
+    @Override
+    public Path key() {
+        return sessionDirectory.toPath().toAbsolutePath();
+    }
+
+    @Override
+    public long priority() {
+        return priority;
+    }
+
+    @Override
+    public Path output() {
+        String dirName = sessionDirectory.getName();
+        return sessionDirectory.toPath().toAbsolutePath()
+                .resolveSibling(dirName.substring(0, dirName.length() - SESSION_SUFFIX.length()) + ".mp4");
+    }
+
+    /**
+     * Remuxes any remaining segments, joins them into "[session].mp4" next to the session directory and cleans up.
+     * @throws IOException Thrown if a segment could not be remuxed or the join failed.
+     * @throws InterruptedException Thrown if interrupted while waiting on ffmpeg.
+     */
+    @Override
+    public void run() throws IOException, InterruptedException {
+        if (!sessionDirectory.isDirectory() || isDone(sessionDirectory)) return;
+        for (File segment : segments(ConvertToMP4::isRecording)) {
+            new ConvertToMP4(segment, appConfig, watcherConfig).run();
+        }
+        List<File> segments = segments(name -> name.endsWith(".mp4"));
+        Path dir = sessionDirectory.toPath();
+        Path mp4File = output();
+        if (!segments.isEmpty()) {
+            Path concatList = dir.resolve(CONCAT_LIST);
+            List<String> lines = new ArrayList<>();
+            for (File segment : segments) {
+                lines.add("file '" + segment.getName() + "'");
+            }
+            Files.write(concatList, lines);
+            Path partFile = Path.of(mp4File + ".part");
+            EncodeSlot slot = encoder == null ? null : encoder.acquirePostLive();
+            try {
+                List<String> params = new ArrayList<>(List.of(appConfig.ffmpegPath(), "-nostdin", "-y",
+                        "-f", "concat", "-safe", "0", "-i", concatList.toString()));
+                params.addAll(ConvertToMP4.codecArgs(slot));
+                params.addAll(List.of("-f", "mp4", partFile.toString()));
+                Ffmpeg.run(params);
+            } catch (IOException ex) {
+                Files.deleteIfExists(partFile);
+                throw ex;
+            } finally {
+                if (slot != null) encoder.releasePostLive(slot);
+            }
+            Files.move(partFile, mp4File, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        // Kept recorded segments stay in the session directory, everything else is removed with it.
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : files.toList()) {
+                if (!ConvertToMP4.isConverted(file.getFileName().toString())) {
+                    Files.delete(file);
+                }
+            }
+        }
+        if (watcherConfig.keepMKVFiles()) {
+            Files.write(dir.resolve(DONE_MARKER), new byte[0]);
+        } else {
+            Files.deleteIfExists(dir);
+        }
+    }
+
+    /**
+     * Checks if a session directory has already been joined, its segments only being kept.
+     * @param sessionDirectory The session directory.
+     * @return True if joined.
+     */
+    public static boolean isDone(File sessionDirectory) {
+        return new File(sessionDirectory, DONE_MARKER).exists();
+    }
+
+    /**
+     * Lists the segment files matching a filter in order.
+     * @param filter The file name filter.
+     * @return The segment files, sorted by name.
+     */
+    private List<File> segments(Predicate<String> filter) {
+        File[] files = sessionDirectory.listFiles((d, name) -> name.startsWith("seg_") && filter.test(name));
+        if (files == null) return List.of();
+        Arrays.sort(files);
+        return Arrays.asList(files);
+    }
+
+    @Override
+    public String toString() {
+        return "ConcatSegments[" + sessionDirectory + (encoder != null ? ", transcode" : "") + "]";
+    }
+
+}
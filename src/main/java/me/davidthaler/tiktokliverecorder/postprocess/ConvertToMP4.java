@@ -0,0 +1,150 @@
+package me.davidthaler.tiktokliverecorder.postprocess;
+
+import me.davidthaler.tiktokliverecorder.config.AppConfig;
+import me.davidthaler.tiktokliverecorder.config.WatcherConfig;
+import me.davidthaler.tiktokliverecorder.transcode.EncodeSlot;
+import me.davidthaler.tiktokliverecorder.transcode.TranscodeScheduler;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Job converting a finished recording to mp4, from the mkv written by ffmpeg or the flv or ts written by the
+ * in-process downloader. The mp4 is written to a ".mp4.part" file first and only renamed to
+ * ".mp4" once ffmpeg exited successfully, so a ".mp4" file is always complete. Recordings whose live encode was
+ * deferred are encoded here instead of remuxed.
+ */
+public class ConvertToMP4 implements PostProcessingJob {
+
+    private final File file;
+    private final AppConfig appConfig;
+    private final WatcherConfig watcherConfig;
+    /** Modification time of the recording when the job was created, fixed so the queue order never changes. */
+    private final long priority;
+    /** Scheduler the encoder threads are taken from when the recording is encoded, null if it is remuxed. */
+    private final TranscodeScheduler encoder;
+    /** Extensions of the files recordings are written to. */
+    public static final List<String> RECORDING_EXTENSIONS = List.of(".mkv", ".flv", ".ts");
+
+    /**
+     * Default Constructor.
+     * @param file The recording to convert.
+     * @param appConfig The application config instance.
+     * @param watcherConfig The watcher config instance.
+     */
+    public ConvertToMP4(File file, AppConfig appConfig, WatcherConfig watcherConfig) {
+        this(file, appConfig, watcherConfig, null);
+    }
+
+    /**
+     * Constructor for recordings that may need encoding.
+     * @param file The recording to convert.
+     * @param appConfig The application config instance.
+     * @param watcherConfig The watcher config instance.
+     * @param encoder Scheduler to take encoder threads from if the recording is encoded instead of remuxed, as its
+     *                live encode was deferred, null to remux it.
+     */
+    public ConvertToMP4(File file, AppConfig appConfig, WatcherConfig watcherConfig, TranscodeScheduler encoder) {
+        this.file = file;
+        this.appConfig = appConfig;
+        this.watcherConfig = watcherConfig;
+        this.encoder = encoder;
+        this.priority = file.lastModified();
+    }
+
+    @Override
+    public Path key() {
+        return file.toPath().toAbsolutePath();
+    }
+
+    @Override
+    public long priority() {
+        return priority;
+    }
+
+    @Override
+    public Path output() {
+        String path = file.getAbsolutePath();
+        return Path.of(path.substring(0, path.lastIndexOf('.')) + ".mp4");
+    }
+
+    /**
+     * Checks if a file name is that of a recording still to be converted.
+     * @param name The file name.
+     * @return True if the name has a recording extension and is not kept as "-converted".
+     */
+    public static boolean isRecording(String name) {
+        for (String extension : RECORDING_EXTENSIONS) {
+            if (name.endsWith(extension)) return !name.endsWith("-converted" + extension);
+        }
+        return false;
+    }
+
+    /**
+     * Checks if a file name is that of a recording kept after its conversion.
+     * @param name The file name.
+     * @return True if the name ends with "-converted" and a recording extension.
+     */
+    public static boolean isConverted(String name) {
+        for (String extension : RECORDING_EXTENSIONS) {
+            if (name.endsWith("-converted" + extension)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Remuxes or encodes the recording to mp4, then deletes it or keeps it as "-converted.[extension]".
+     * @throws IOException Thrown if ffmpeg could not be run or exited with an error.
+     * @throws InterruptedException Thrown if interrupted while waiting on ffmpeg.
+     */
+    @Override
+    public void run() throws IOException, InterruptedException {
+        if (!file.exists()) return;
+        String path = file.getAbsolutePath();
+        String extension = path.substring(path.lastIndexOf('.'));
+        String base = path.substring(0, path.length() - extension.length());
+        Path mp4File = output();
+        Path partFile = Path.of(mp4File + ".part");
+        EncodeSlot slot = encoder == null ? null : encoder.acquirePostLive();
+        try {
+            // The ".part" extension hides the container from ffmpeg so the format is given explicitly.
+            List<String> params = new ArrayList<>(List.of(appConfig.ffmpegPath(), "-nostdin", "-y", "-i", path));
+            params.addAll(codecArgs(slot));
+            params.addAll(List.of("-f", "mp4", partFile.toString()));
+            Ffmpeg.run(params);
+        } catch (IOException ex) {
+            Files.deleteIfExists(partFile);
+            throw ex;
+        } finally {
+            if (slot != null) encoder.releasePostLive(slot);
+        }
+        // Replaces any mp4 left over from an earlier, interrupted conversion.
+        Files.move(partFile, mp4File, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        if (watcherConfig.keepMKVFiles()) {
+            file.renameTo(new File(base + "-converted" + extension));
+        } else {
+            file.delete();
+        }
+    }
+
+    /**
+     * Gets the codec arguments of a conversion.
+     * @param slot The encoder threads granted to the conversion, null if the streams are copied.
+     * @return The codec arguments.
+     */
+    static List<String> codecArgs(EncodeSlot slot) {
+        if (slot == null) return List.of("-c", "copy");
+        return EncodeSlot.encodeArgs(slot.preset(), slot.threads());
+    }
+
+    @Override
+    public String toString() {
+        return "ConvertToMP4[" + file + (encoder != null ? ", transcode" : "") + "]";
+    }
+
+}
@@ -0,0 +1,38 @@
+package me.davidthaler.tiktokliverecorder.postprocess;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Helper running ffmpeg for the post-processing jobs.
+ */
+final class Ffmpeg {
+
+    private Ffmpeg() {
+    }
+
+    /**
+     * Runs ffmpeg to completion and checks its exit code. If interrupted ffmpeg is killed, so it does not keep writing
+     * after the job was given up.
+     * @param command The full command, starting with the ffmpeg executable.
+     * @throws IOException Thrown if ffmpeg could not be started or exited with an error.
+     * @throws InterruptedException Thrown if interrupted while waiting on ffmpeg.
+     */
+    static void run(List<String> command) throws IOException, InterruptedException {
+        Process p = new ProcessBuilder(command)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .redirectError(ProcessBuilder.Redirect.DISCARD)
+                .start();
+        int exitCode;
+        try {
+            exitCode = p.waitFor();
+        } catch (InterruptedException ex) {
+            p.destroyForcibly();
+            throw ex;
+        }
+        if (exitCode != 0) {
+            throw new IOException("ffmpeg exited with code " + exitCode + ": " + String.join(" ", command));
+        }
+    }
+
+}
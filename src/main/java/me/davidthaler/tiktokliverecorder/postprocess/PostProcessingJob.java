@@ -0,0 +1,38 @@
+package me.davidthaler.tiktokliverecorder.postprocess;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * A unit of work for the post-processing service.
+ */
+public interface PostProcessingJob {
+
+    /**
+     * Gets the key identifying the job, a job is not queued again while another with the same key is pending.
+     * @return The path of the file the job works on.
+     */
+    Path key();
+
+    /**
+     * Gets the priority of the job, higher priorities are run first. The priority must not change while the job is
+     * queued, as the queue only orders a job when it is added.
+     * @return The priority, the modification time of the recording when the job was created so the newest
+     * recordings go first.
+     */
+    long priority();
+
+    /**
+     * Gets the finished recording the job produces.
+     * @return The path of the mp4 written by the job.
+     */
+    Path output();
+
+    /**
+     * Runs the job.
+     * @throws IOException Thrown if the job fails.
+     * @throws InterruptedException Thrown if interrupted while waiting on a process.
+     */
+    void run() throws IOException, InterruptedException;
+
+}
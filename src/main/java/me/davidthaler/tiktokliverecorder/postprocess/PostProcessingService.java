@@ -0,0 +1,384 @@
+package me.davidthaler.tiktokliverecorder.postprocess;
+
+import me.davidthaler.tiktokliverecorder.config.AppConfig;
+import me.davidthaler.tiktokliverecorder.config.WatcherConfig;
+import me.davidthaler.tiktokliverecorder.journal.RecordingJournal;
+import me.davidthaler.tiktokliverecorder.metrics.MetricsRegistry;
+import me.davidthaler.tiktokliverecorder.process.HelperThreads;
+import me.davidthaler.tiktokliverecorder.process.RecordingRegistry;
+import me.davidthaler.tiktokliverecorder.transcode.TranscodeScheduler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * App-wide post-processing service. Jobs are queued by file, a file already queued or being processed is not queued
+ * again, and a fixed number of workers run the jobs newest recording first. The start and end of every job is written
+ * to the recording journal, so unfinished jobs are resumed after a restart, including those still queued or
+ * interrupted on shutdown. The segments of segmented recordings are remuxed by the same workers while the live goes
+ * on, as steps of their recording rather than finished recordings of their own.
+ */
+public class PostProcessingService {
+
+    /** Jobs waiting for a worker, highest priority first. */
+    private final PriorityBlockingQueue<Queued> queue = new PriorityBlockingQueue<>(16,
+            Comparator.comparingLong((Queued q) -> q.job().priority()).reversed()
+                    .thenComparingLong(Queued::sequence));
+    /** Keys of the jobs queued or running, notified when a job ends or the service is shut down. */
+    private final Set<Path> pending = ConcurrentHashMap.newKeySet();
+    /** Sequence keeping jobs of equal priority in submission order. */
+    private final AtomicLong sequence = new AtomicLong();
+    /** Number of jobs finished successfully. */
+    private final AtomicLong completed = new AtomicLong();
+    /** Number of jobs failed. */
+    private final AtomicLong failed = new AtomicLong();
+    /** The worker threads. */
+    private final List<Thread> workerThreads = new ArrayList<>();
+    /** Workers running a job. */
+    private final Set<Thread> busy = ConcurrentHashMap.newKeySet();
+    /** Has the service been shut down? No job is started once set. */
+    private volatile boolean closed;
+    /** Output directories scanned by this run, with the channel they were scanned for. */
+    private final Set<Map.Entry<Path, String>> scanned = ConcurrentHashMap.newKeySet();
+    /** Journal of the recordings still needing work. */
+    private final RecordingJournal journal;
+    /** Registry of the sessions being recorded, whose files recovery leaves alone. */
+    private final RecordingRegistry recordings;
+    /** Metrics registry, timing the jobs. */
+    private final MetricsRegistry metrics;
+    /** Scheduler the encoder threads of resumed encodes are taken from. */
+    private final TranscodeScheduler transcodes;
+    /** Called with the output of every job finished successfully. */
+    private final Consumer<Path> onFinished;
+    /** Time given to an interrupted job to stop its ffmpeg. */
+    private static final Duration INTERRUPT_GRACE = Duration.ofSeconds(1);
+    /** Logger instance. */
+    private static final Logger LOGGER = LoggerFactory.getLogger(PostProcessingService.class);
+
+    /**
+     * Default constructor, starts the workers.
+     * @param workers Number of jobs run at the same time.
+     * @param journal Journal of the recordings still needing work.
+     * @param recordings Registry of the sessions being recorded, whose files recovery leaves alone.
+     * @param metrics Metrics registry, timing the jobs.
+     * @param transcodes Scheduler the encoder threads of resumed encodes are taken from.
+     * @param onFinished Called with the output of every job finished successfully.
+     * @param threads Creates the worker threads.
+     */
+    public PostProcessingService(int workers, RecordingJournal journal, RecordingRegistry recordings,
+                                 MetricsRegistry metrics, TranscodeScheduler transcodes, Consumer<Path> onFinished,
+                                 HelperThreads threads) {
+        this.journal = journal;
+        this.recordings = recordings;
+        this.metrics = metrics;
+        this.transcodes = transcodes;
+        this.onFinished = onFinished;
+        for (int i = 0; i < Math.max(1, workers); i++) {
+            workerThreads.add(threads.start("postprocess-" + i, this::work));
+        }
+    }
+
+    /**
+     * Queues a job unless a job for the same file is already queued or running.
+     * @param job The job to queue.
+     * @return True if queued, false if it was a duplicate.
+     */
+    public boolean submit(PostProcessingJob job) {
+        return submit(job, false);
+    }
+
+    /**
+     * Queues the remux of a segment closed by a recording still going on. Its output is only a step of the recording,
+     * so it is neither journaled nor handed on as finished, the recording is resumed as a whole after a restart.
+     * @param job The job remuxing the segment.
+     * @return True if queued, false if it was a duplicate.
+     */
+    public boolean submitSegment(PostProcessingJob job) {
+        return submit(job, true);
+    }
+
+    /**
+     * Queues a job unless a job for the same file is already queued or running.
+     * @param job The job to queue.
+     * @param segment Is the job the remux of a segment?
+     * @return True if queued, false if it was a duplicate.
+     */
+    private boolean submit(PostProcessingJob job, boolean segment) {
+        if (!pending.add(job.key())) return false;
+        queue.add(new Queued(job, segment, sequence.getAndIncrement()));
+        return true;
+    }
+
+    /**
+     * Waits until none of the given jobs is queued or running, or the service is shut down.
+     * @param keys The keys of the jobs.
+     * @throws InterruptedException Thrown if interrupted while waiting.
+     */
+    public void await(Collection<Path> keys) throws InterruptedException {
+        synchronized (pending) {
+            while (!closed && keys.stream().anyMatch(pending::contains)) pending.wait();
+        }
+    }
+
+    /**
+     * Queues the recordings of an output directory left unfinished, as found in the journal. A recording already
+     * converted is marked done, one whose files are gone is logged and dropped, and sessions still being recorded are
+     * left alone. Where the journal was only just created, or the recovery scan is configured, the directory is also
+     * scanned the first time this run sees it for the channel, and its recordings on disk missing from the journal are
+     * added to it and queued.
+     * @param directory The output directory.
+     * @param appConfig The application config instance.
+     * @param watcherConfig The watcher config of the directory.
+     */
+    public void recover(File directory, AppConfig appConfig, WatcherConfig watcherConfig) {
+        for (RecordingJournal.Pending pending : journal.pending(directory)) {
+            if (recordings.isActive(pending.base())) continue;
+            String base = pending.base().getPath();
+            PostProcessingJob job = finishJob(pending.base(), appConfig, watcherConfig,
+                    pending.transcode() ? transcodes : null);
+            if (job != null) {
+                if (pending.state() == RecordingJournal.State.RECORDING) journal.recordingEnded(pending.base());
+                LOGGER.info("Resuming post-processing of {}", base);
+                submit(job);
+            } else if (new File(base + ".mp4").exists()) {
+                journal.remuxDone(Path.of(base + ".mp4"));
+            } else {
+                LOGGER.warn("Files of the recording {} are missing, dropping it from the journal.", base);
+                journal.dropped(pending.base());
+            }
+        }
+        if ((journal.isNew() || appConfig.recoveryScan())
+                && scanned.add(Map.entry(directory.toPath().toAbsolutePath().normalize(), watcherConfig.channel()))) {
+            scan(directory, appConfig, watcherConfig);
+        }
+    }
+
+    /**
+     * Scans an output directory for recordings of the watcher left unconverted that the journal does not know of, and
+     * adds them to the journal and queues them, including the segments of segmented recordings. Partial mp4 files of
+     * interrupted conversions are removed. Recordings are matched to the watcher by their file name prefix, so in an
+     * output directory shared by several watchers each recording is journaled under its own channel. Recordings of
+     * other watchers, those the journal knows of and sessions being recorded are left alone.
+     * @param directory The output directory.
+     * @param appConfig The application config instance.
+     * @param watcherConfig The watcher config of the directory.
+     */
+    private void scan(File directory, AppConfig appConfig, WatcherConfig watcherConfig) {
+        Predicate<File> leaveAlone = base -> !watcherConfig.isRecordingName(base.getName())
+                || recordings.isActive(base) || journal.isPending(base);
+        for (PostProcessingJob job : findUnfinished(directory, appConfig, watcherConfig, leaveAlone)) {
+            File base = base(job.output().toFile(), ".mp4");
+            if (journal.isNew()) {
+                LOGGER.info("Found unfinished recording {}", base);
+            } else {
+                LOGGER.warn("Found recording {} missing from the journal, resuming its post-processing.", base);
+            }
+            journal.recordingStarted(base, watcherConfig.channel(), false);
+            journal.recordingEnded(base);
+            submit(job);
+        }
+    }
+
+    /**
+     * Finds the recordings of an output directory left unconverted, removing the partial mp4 files of interrupted
+     * conversions on the way.
+     * @param directory The output directory.
+     * @param appConfig The application config instance.
+     * @param watcherConfig The watcher config of the directory.
+     * @return The jobs finishing the recordings found.
+     */
+    public static List<PostProcessingJob> findUnfinished(File directory, AppConfig appConfig,
+                                                         WatcherConfig watcherConfig) {
+        return findUnfinished(directory, appConfig, watcherConfig, base -> false);
+    }
+
+    /**
+     * Finds the recordings of an output directory left unconverted, see
+     * {@link #findUnfinished(File, AppConfig, WatcherConfig)}, skipping the files of recordings to leave alone.
+     * @param directory The output directory.
+     * @param appConfig The application config instance.
+     * @param watcherConfig The watcher config of the directory.
+     * @param leaveAlone Checks if the recording of a base path is in use or not this watcher's, so none of its files
+     *                   may be touched.
+     * @return The jobs finishing the recordings found.
+     */
+    private static List<PostProcessingJob> findUnfinished(File directory, AppConfig appConfig,
+                                                          WatcherConfig watcherConfig, Predicate<File> leaveAlone) {
+        List<PostProcessingJob> jobs = new ArrayList<>();
+        File[] files = directory.listFiles();
+        if (files == null) return jobs;
+        for (File file : files) {
+            String fName = file.getName();
+            if (fName.endsWith(".mp4.part")) {
+                if (!leaveAlone.test(base(file, ".mp4.part"))) file.delete();
+            } else if (file.isDirectory() && fName.endsWith(ConcatSegments.SESSION_SUFFIX)
+                    && !ConcatSegments.isDone(file)) {
+                if (!leaveAlone.test(base(file, ConcatSegments.SESSION_SUFFIX))) {
+                    jobs.add(new ConcatSegments(file, appConfig, watcherConfig));
+                }
+            } else if (ConvertToMP4.isRecording(fName)) {
+                if (!leaveAlone.test(base(file, fName.substring(fName.lastIndexOf('.'))))) {
+                    jobs.add(new ConvertToMP4(file, appConfig, watcherConfig));
+                }
+            }
+        }
+        return jobs;
+    }
+
+    /**
+     * Gets the base path of a recording from one of its files.
+     * @param file The file.
+     * @param suffix The suffix of the file following the base path.
+     * @return The file without the suffix.
+     */
+    private static File base(File file, String suffix) {
+        String path = file.getPath();
+        return new File(path.substring(0, path.length() - suffix.length()));
+    }
+
+    /**
+     * Stops taking jobs and waits for the running ones, interrupting those still running after the timeout. Jobs
+     * queued or interrupted stay pending in the journal.
+     * @param timeout Time given to the running jobs.
+     */
+    public void shutdown(Duration timeout) {
+        closed = true;
+        synchronized (pending) {
+            pending.notifyAll();
+        }
+        long deadline = System.nanoTime() + timeout.toNanos();
+        try {
+            for (Thread worker : workerThreads) {
+                if (!busy.contains(worker)) worker.interrupt();
+            }
+            for (Thread worker : workerThreads) {
+                long left = deadline - System.nanoTime();
+                if (left <= 0 || !worker.join(Duration.ofNanos(left))) {
+                    LOGGER.warn("Interrupting post-processing worker {} at the shutdown deadline.", worker.getName());
+                    worker.interrupt();
+                }
+            }
+            // Interrupted jobs stop their ffmpeg before returning.
+            for (Thread worker : workerThreads) worker.join(INTERRUPT_GRACE);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        LOGGER.info("Post-processing stopped with {} jobs left queued.", queue.size());
+    }
+
+    /**
+     * Gets the number of jobs waiting for a worker.
+     * @return The queue depth.
+     */
+    public int queueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * Gets the number of jobs finished successfully.
+     * @return The completed job count.
+     */
+    public long completedCount() {
+        return completed.get();
+    }
+
+    /**
+     * Gets the number of jobs failed.
+     * @return The failed job count.
+     */
+    public long failedCount() {
+        return failed.get();
+    }
+
+    /**
+     * Finds the job finishing a recording from the files on disk.
+     * @param base The base path of the recording.
+     * @param appConfig The application config instance.
+     * @param watcherConfig The watcher config of the recording.
+     * @param encoder Scheduler to take encoder threads from if the recording has to be encoded rather than remuxed,
+     *                null to remux it.
+     * @return The job joining the parts directory or converting the single file, or null if neither exists.
+     */
+    private static PostProcessingJob finishJob(File base, AppConfig appConfig, WatcherConfig watcherConfig,
+                                               TranscodeScheduler encoder) {
+        File parts = new File(base.getPath() + ConcatSegments.SESSION_SUFFIX);
+        if (parts.isDirectory() && !ConcatSegments.isDone(parts)) {
+            return new ConcatSegments(parts, appConfig, watcherConfig, encoder);
+        }
+        for (String extension : ConvertToMP4.RECORDING_EXTENSIONS) {
+            File file = new File(base.getPath() + extension);
+            if (file.exists()) return new ConvertToMP4(file, appConfig, watcherConfig, encoder);
+        }
+        return null;
+    }
+
+    /**
+     * Worker loop taking jobs off the queue.
+     */
+    private void work() {
+        while (!closed && !Thread.currentThread().isInterrupted()) {
+            Queued queued;
+            try {
+                queued = queue.take();
+            } catch (InterruptedException ex) {
+                return;
+            }
+            PostProcessingJob job = queued.job();
+            if (closed) {
+                queue.add(queued);
+                return;
+            }
+            busy.add(Thread.currentThread());
+            long start = System.nanoTime();
+            try {
+                LOGGER.info("Starting {}", job);
+                if (!queued.segment()) journal.remuxStarted(job.output());
+                job.run();
+                completed.incrementAndGet();
+                LOGGER.info("Finished {}", job);
+                if (!queued.segment()) {
+                    journal.remuxDone(job.output());
+                    onFinished.accept(job.output());
+                }
+            } catch (IOException | RuntimeException ex) {
+                failed.incrementAndGet();
+                LOGGER.error("Post-processing failed for {}", job, ex);
+            } catch (InterruptedException ex) {
+                LOGGER.info("Post-processing interrupted for {}, it is resumed on the next start.", job);
+                return;
+            } finally {
+                busy.remove(Thread.currentThread());
+                metrics.conversionLatency().observeSince(start);
+                synchronized (pending) {
+                    pending.remove(job.key());
+                    pending.notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Queue entry.
+     * @param job The queued job.
+     * @param segment Is the job the remux of a segment?
+     * @param sequence The submission sequence number.
+     */
+    private record Queued(PostProcessingJob job, boolean segment, long sequence) {
+    }
+
+}
@@ -0,0 +1,62 @@
+package me.davidthaler.tiktokliverecorder.postprocess;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The segment list ffmpeg writes for one piece of a segmented recording. Followed while the piece records, so every
+ * segment is queued for its remux to mp4 as soon as ffmpeg has closed it and only the last segment and the concat are
+ * left once the live ends.
+ */
+public class SegmentList {
+
+    /** Directory the segments are written to. */
+    private final Path sessionDirectory;
+    /** The csv segment list of the recording process. */
+    private final Path file;
+    /** Number of segment list entries already returned. */
+    private int read;
+    /** Logger instance. */
+    private static final Logger LOGGER = LoggerFactory.getLogger(SegmentList.class);
+
+    /**
+     * Default constructor.
+     * @param sessionDirectory Directory the segments are written to.
+     * @param file The csv segment list ffmpeg appends every closed segment to.
+     */
+    public SegmentList(Path sessionDirectory, Path file) {
+        this.sessionDirectory = sessionDirectory;
+        this.file = file;
+    }
+
+    /**
+     * Reads the segments ffmpeg closed since the last call.
+     * @return The closed segments, in the order ffmpeg wrote them.
+     */
+    public List<Path> closedSince() {
+        List<Path> closed = new ArrayList<>();
+        if (!Files.exists(file)) return closed;
+        List<String> entries;
+        try {
+            entries = Files.readAllLines(file);
+        } catch (IOException ex) {
+            LOGGER.warn("Failed to read segment list of {}", sessionDirectory, ex);
+            return closed;
+        }
+        for (; read < entries.size(); read++) {
+            String entry = entries.get(read);
+            if (entry.isBlank()) continue;
+            // csv entries are "name,start,end", the segment names never contain a comma.
+            if (entry.indexOf(',') < 0) break; // Entry still being written.
+            closed.add(sessionDirectory.resolve(Path.of(entry.substring(0, entry.indexOf(','))).getFileName()));
+        }
+        return closed;
+    }
+
+}
@@ -0,0 +1,72 @@
+package me.davidthaler.tiktokliverecorder.process;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Creates the worker and helper threads of the app, such as the poll workers, process pumps, downloads and response
+ * decoders. They are virtual threads by default, or daemon platform threads when virtual threads are turned off, so
+ * the virtualThreads setting applies to every part of the app alike. Timers and other single long-running service
+ * threads keep platform threads of their own.
+ */
+public class HelperThreads {
+
+    /** Should the threads be virtual threads? */
+    private final boolean virtual;
+
+    /**
+     * Default constructor.
+     * @param virtual Should the threads be virtual threads? If false daemon platform threads are used.
+     */
+    public HelperThreads(boolean virtual) {
+        this.virtual = virtual;
+    }
+
+    /**
+     * Checks if the threads are virtual threads.
+     * @return True for virtual threads, false for platform threads.
+     */
+    public boolean virtual() {
+        return virtual;
+    }
+
+    /**
+     * Starts a thread.
+     * @param name The name of the thread.
+     * @param task The task to run.
+     * @return The started thread.
+     */
+    public Thread start(String name, Runnable task) {
+        return builder().name(name).start(task);
+    }
+
+    /**
+     * Gets a factory of threads named with a prefix and a counter.
+     * @param prefix The name prefix.
+     * @return The thread factory.
+     */
+    public ThreadFactory factory(String prefix) {
+        return builder().name(prefix, 0).factory();
+    }
+
+    /**
+     * Creates an unbounded executor running every task right away, on a new virtual thread per task or on a reused
+     * platform thread.
+     * @param prefix The name prefix of its threads.
+     * @return The executor.
+     */
+    public ExecutorService executor(String prefix) {
+        return virtual ? Executors.newThreadPerTaskExecutor(factory(prefix))
+                : Executors.newCachedThreadPool(factory(prefix));
+    }
+
+    /**
+     * Gets a new builder of the threads, builders are not thread-safe so every thread gets its own.
+     * @return The thread builder.
+     */
+    private Thread.Builder builder() {
+        return virtual ? Thread.ofVirtual() : Thread.ofPlatform().daemon(true);
+    }
+
+}
@@ -0,0 +1,52 @@
+package me.davidthaler.tiktokliverecorder.process;
+
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+
+/**
+ * Sink logging every line except blank lines and ffmpeg progress updates.
+ */
+public class LineLogger implements LineSink {
+
+    /** Log method the lines are written to. */
+    private final Consumer<String> log;
+    /** Prefixes of ffmpeg progress lines, like: frame=... fps=... size=... time=... */
+    private static final byte[][] PROGRESS_PREFIXES = {
+            "frame=".getBytes(StandardCharsets.US_ASCII),
+            "size=".getBytes(StandardCharsets.US_ASCII),
+            "time=".getBytes(StandardCharsets.US_ASCII),
+            "bitrate=".getBytes(StandardCharsets.US_ASCII)
+    };
+
+    /**
+     * Default constructor.
+     * @param log Log method the lines are written to.
+     */
+    public LineLogger(Consumer<String> log) {
+        this.log = log;
+    }
+
+    @Override
+    public void line(byte[] buffer, int offset, int length) {
+        if (isProgress(buffer, offset, length)) return;
+        String line = new String(buffer, offset, length, StandardCharsets.UTF_8);
+        if (!line.isBlank()) {
+            log.accept(line);
+        }
+    }
+
+    /**
+     * Checks if a line is a progress update, without decoding it.
+     * @param buffer The buffer holding the line.
+     * @param offset The offset of the line in the buffer.
+     * @param length The length of the line.
+     * @return True if the line is a progress update.
+     */
+    public static boolean isProgress(byte[] buffer, int offset, int length) {
+        for (byte[] prefix : PROGRESS_PREFIXES) {
+            if (ProgressParser.startsWith(buffer, offset, length, prefix)) return true;
+        }
+        return false;
+    }
+
+}
@@ -0,0 +1,21 @@
+package me.davidthaler.tiktokliverecorder.process;
+
+/**
+ * Receiver of the lines pumped from a process output stream. Lines are handed over as a slice of the pump's reusable
+ * buffer, a sink must copy anything it wants to keep.
+ */
+@FunctionalInterface
+public interface LineSink {
+
+    /** Sink dropping every line. */
+    LineSink DISCARD = (buffer, offset, length) -> { };
+
+    /**
+     * Receives one line, without its line terminator.
+     * @param buffer The buffer holding the line.
+     * @param offset The offset of the line in the buffer.
+     * @param length The length of the line.
+     */
+    void line(byte[] buffer, int offset, int length);
+
+}
@@ -0,0 +1,49 @@
+package me.davidthaler.tiktokliverecorder.process;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Helpers for stopping ffmpeg processes.
+ */
+public final class ProcessControl {
+
+    private ProcessControl() {
+    }
+
+    /**
+     * Asks ffmpeg to finish writing its output and quit, by sending "q" on its standard input.
+     * @param process The ffmpeg process.
+     * @throws IOException Thrown if ffmpeg's standard input could not be written.
+     */
+    public static void requestQuit(Process process) throws IOException {
+        OutputStream stdin = process.getOutputStream();
+        stdin.write("q\n".getBytes());
+        stdin.flush();
+    }
+
+    /**
+     * Stops ffmpeg, escalating from "q" to SIGTERM to SIGKILL if it does not exit within the grace period.
+     * @param process The ffmpeg process.
+     * @param grace Time given to each step before escalating.
+     * @return The exit code of the process.
+     * @throws InterruptedException Thrown if interrupted while waiting for the process.
+     */
+    public static int stop(Process process, Duration grace) throws InterruptedException {
+        try {
+            requestQuit(process);
+        } catch (IOException ex) {
+            // stdin already closed, escalate straight away.
+        }
+        if (!process.waitFor(grace.toMillis(), TimeUnit.MILLISECONDS)) {
+            process.destroy();
+            if (!process.waitFor(grace.toMillis(), TimeUnit.MILLISECONDS)) {
+                process.destroyForcibly();
+            }
+        }
+        return process.waitFor();
+    }
+
+}
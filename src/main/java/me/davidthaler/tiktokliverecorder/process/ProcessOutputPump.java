@@ -0,0 +1,90 @@
+package me.davidthaler.tiktokliverecorder.process;
+
+import org.apache.logging.log4j.ThreadContext;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+
+/**
+ * Pump continuously draining a process output stream on a helper thread, so a child process never blocks on a full
+ * pipe. The stream is split into lines on '\n' and '\r' straight from a reusable byte buffer.
+ */
+public final class ProcessOutputPump implements Runnable {
+
+    /** The stream to drain. */
+    private final InputStream inputStream;
+    /** The sink receiving the lines. */
+    private final LineSink sink;
+    /** The logging context of the thread that started the pump. */
+    private final Map<String, String> context;
+    /** Longest line kept, the rest of a longer line is dropped. */
+    private static final int MAX_LINE = 8192;
+
+    /**
+     * Default constructor.
+     * @param inputStream The stream to drain.
+     * @param sink The sink receiving the lines.
+     * @param context The logging context for the pump thread.
+     */
+    private ProcessOutputPump(InputStream inputStream, LineSink sink, Map<String, String> context) {
+        this.inputStream = inputStream;
+        this.sink = sink;
+        this.context = context;
+    }
+
+    /**
+     * Starts draining both output streams of a process.
+     * @param threads Creates the pump threads.
+     * @param process The process.
+     * @param name The name of the pump threads.
+     * @param stdout The sink receiving the standard output lines.
+     * @param stderr The sink receiving the standard error lines.
+     */
+    public static void start(HelperThreads threads, Process process, String name, LineSink stdout,
+                             LineSink stderr) {
+        start(threads, process.getInputStream(), name + "-out", stdout);
+        start(threads, process.getErrorStream(), name + "-err", stderr);
+    }
+
+    /**
+     * Starts draining a stream, carrying over the logging context of the calling thread.
+     * @param threads Creates the pump thread.
+     * @param inputStream The stream to drain.
+     * @param name The name of the pump thread.
+     * @param sink The sink receiving the lines.
+     * @return The pump thread.
+     */
+    public static Thread start(HelperThreads threads, InputStream inputStream, String name, LineSink sink) {
+        return threads.start(name, new ProcessOutputPump(inputStream, sink, ThreadContext.getImmutableContext()));
+    }
+
+    /**
+     * Drains the stream until it is closed, handing each line to the sink.
+     */
+    @Override
+    public void run() {
+        ThreadContext.putAll(context);
+        byte[] line = new byte[MAX_LINE];
+        byte[] chunk = new byte[MAX_LINE];
+        int length = 0;
+        try (InputStream in = inputStream) {
+            int read;
+            while ((read = in.read(chunk)) != -1) {
+                for (int i = 0; i < read; i++) {
+                    byte b = chunk[i];
+                    if (b == '\n' || b == '\r') {
+                        if (length > 0) sink.line(line, 0, length);
+                        length = 0;
+                    } else if (length < MAX_LINE) {
+                        line[length++] = b;
+                    }
+                }
+            }
+            if (length > 0) sink.line(line, 0, length);
+        } catch (IOException ex) {
+            // Stream closed with the process, nothing left to drain.
+        }
+    }
+
+}
@@ -0,0 +1,123 @@
+package me.davidthaler.tiktokliverecorder.process;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Sink parsing the "key=value" lines written by ffmpeg's -progress option into the stats of a recording. Values are
+ * parsed straight from the line bytes, no strings are created per update.
+ */
+public class ProgressParser implements LineSink {
+
+    /** The stats to update. */
+    private final RecordingStats stats;
+    private static final byte[] TOTAL_SIZE = key("total_size");
+    private static final byte[] BITRATE = key("bitrate");
+    private static final byte[] SPEED = key("speed");
+    private static final byte[] DROP_FRAMES = key("drop_frames");
+    private static final byte[] OUT_TIME_US = key("out_time_us");
+
+    /**
+     * Default constructor.
+     * @param stats The stats to update.
+     */
+    public ProgressParser(RecordingStats stats) {
+        this.stats = stats;
+    }
+
+    @Override
+    public void line(byte[] buffer, int offset, int length) {
+        if (startsWith(buffer, offset, length, TOTAL_SIZE)) {
+            long value = parseLong(buffer, offset + TOTAL_SIZE.length, offset + length);
+            if (value >= 0) stats.updateBytesWritten(value);
+        } else if (startsWith(buffer, offset, length, OUT_TIME_US)) {
+            long value = parseLong(buffer, offset + OUT_TIME_US.length, offset + length);
+            if (value >= 0) stats.setOutTimeMicros(value);
+        } else if (startsWith(buffer, offset, length, BITRATE)) {
+            double value = parseDouble(buffer, offset + BITRATE.length, offset + length);
+            if (value >= 0) stats.setBitrateKbps(value);
+        } else if (startsWith(buffer, offset, length, SPEED)) {
+            double value = parseDouble(buffer, offset + SPEED.length, offset + length);
+            if (value >= 0) stats.setSpeed(value);
+        } else if (startsWith(buffer, offset, length, DROP_FRAMES)) {
+            long value = parseLong(buffer, offset + DROP_FRAMES.length, offset + length);
+            if (value >= 0) stats.setDroppedFrames(value);
+        }
+    }
+
+    /**
+     * Checks if a line starts with the given prefix.
+     * @param buffer The buffer holding the line.
+     * @param offset The offset of the line in the buffer.
+     * @param length The length of the line.
+     * @param prefix The prefix.
+     * @return True if the line starts with the prefix.
+     */
+    static boolean startsWith(byte[] buffer, int offset, int length, byte[] prefix) {
+        if (length < prefix.length) return false;
+        for (int i = 0; i < prefix.length; i++) {
+            if (buffer[offset + i] != prefix[i]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Parses the leading digits of a value, like the "1234" of "total_size=1234".
+     * @param buffer The buffer.
+     * @param from The start of the value.
+     * @param to The end of the line.
+     * @return The value, or -1 if it does not start with a digit (for example "N/A").
+     */
+    static long parseLong(byte[] buffer, int from, int to) {
+        while (from < to && buffer[from] == ' ') from++;
+        if (from >= to || buffer[from] < '0' || buffer[from] > '9') return -1;
+        long value = 0;
+        for (int i = from; i < to && buffer[i] >= '0' && buffer[i] <= '9'; i++) {
+            value = value * 10 + (buffer[i] - '0');
+        }
+        return value;
+    }
+
+    /**
+     * Parses a leading decimal of a value, like the "1234.5" of "bitrate=1234.5kbits/s" or "1.01" of "speed=1.01x".
+     * @param buffer The buffer.
+     * @param from The start of the value.
+     * @param to The end of the line.
+     * @return The value, or -1 if it does not start with a digit (for example "N/A").
+     */
+    static double parseDouble(byte[] buffer, int from, int to) {
+        while (from < to && buffer[from] == ' ') from++;
+        if (from >= to || buffer[from] < '0' || buffer[from] > '9') return -1;
+        long whole = 0;
+        long fraction = 0;
+        long scale = 1;
+        boolean inFraction = false;
+        for (int i = from; i < to; i++) {
+            byte b = buffer[i];
+            if (b == '.' && !inFraction) {
+                inFraction = true;
+            } else if (b >= '0' && b <= '9') {
+                if (inFraction) {
+                    if (scale < 1_000_000_000L) {
+                        fraction = fraction * 10 + (b - '0');
+                        scale *= 10;
+                    }
+                } else {
+                    whole = whole * 10 + (b - '0');
+                }
+            } else {
+                break;
+            }
+        }
+        return whole + (double) fraction / scale;
+    }
+
+    /**
+     * Encodes a progress key with its separator.
+     * @param name The key name.
+     * @return The bytes of "name=".
+     */
+    private static byte[] key(String name) {
+        return (name + "=").getBytes(StandardCharsets.US_ASCII);
+    }
+
+}
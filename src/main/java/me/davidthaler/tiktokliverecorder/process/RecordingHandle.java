@@ -0,0 +1,58 @@
+package me.davidthaler.tiktokliverecorder.process;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Handle of a running recording, either an ffmpeg process or an in-process stream download, letting the supervisor
+ * wait for and stop either the same way.
+ */
+public interface RecordingHandle {
+
+    /**
+     * Waits for the recording to end.
+     * @param timeout Maximum time to wait.
+     * @return True if the recording has ended, false if the timeout elapsed first.
+     * @throws InterruptedException Thrown if interrupted while waiting.
+     */
+    boolean waitFor(Duration timeout) throws InterruptedException;
+
+    /**
+     * Asks the recording to finish writing its output and end, without waiting for it.
+     * @throws IOException Thrown if the request could not be delivered.
+     */
+    void requestStop() throws IOException;
+
+    /**
+     * Stops the recording, escalating if it does not end within the grace period.
+     * @param grace Time given to each step before escalating.
+     * @throws InterruptedException Thrown if interrupted while waiting.
+     */
+    void stop(Duration grace) throws InterruptedException;
+
+    /**
+     * Wraps an ffmpeg process.
+     * @param process The ffmpeg process.
+     * @return The handle of the process.
+     */
+    static RecordingHandle of(Process process) {
+        return new RecordingHandle() {
+            @Override
+            public boolean waitFor(Duration timeout) throws InterruptedException {
+                return process.waitFor(timeout.toMillis(), TimeUnit.MILLISECONDS);
+            }
+
+            @Override
+            public void requestStop() throws IOException {
+                ProcessControl.requestQuit(process);
+            }
+
+            @Override
+            public void stop(Duration grace) throws InterruptedException {
+                ProcessControl.stop(process, grace);
+            }
+        };
+    }
+
+}
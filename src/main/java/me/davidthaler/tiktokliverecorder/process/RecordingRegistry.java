@@ -0,0 +1,78 @@
+package me.davidthaler.tiktokliverecorder.process;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of the active recordings and their live stats, queryable from anywhere in the app.
+ */
+public class RecordingRegistry {
+
+    /** Stats of each active recording by channel. */
+    private final Map<String, RecordingStats> active = new ConcurrentHashMap<>();
+    /** Absolute base paths of the sessions being recorded, including while they wait to reconnect. */
+    private final Set<String> sessions = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Registers a recording that has started.
+     * @param stats The stats of the recording.
+     */
+    public void register(RecordingStats stats) {
+        active.put(stats.channel(), stats);
+    }
+
+    /**
+     * Removes a recording that has ended.
+     * @param stats The stats of the recording.
+     */
+    public void unregister(RecordingStats stats) {
+        active.remove(stats.channel(), stats);
+    }
+
+    /**
+     * Marks a session as being recorded, from before its first piece until its post-processing is queued.
+     * @param base The base path of the session.
+     */
+    public void sessionStarted(File base) {
+        sessions.add(base.getAbsolutePath());
+    }
+
+    /**
+     * Marks a session as no longer being recorded.
+     * @param base The base path of the session.
+     */
+    public void sessionEnded(File base) {
+        sessions.remove(base.getAbsolutePath());
+    }
+
+    /**
+     * Checks if a session is being recorded, so its files must not be touched by recovery.
+     * @param base The base path of the session.
+     * @return True if the session is being recorded.
+     */
+    public boolean isActive(File base) {
+        return sessions.contains(base.getAbsolutePath());
+    }
+
+    /**
+     * Gets the stats of the active recording of a channel.
+     * @param channel The channel.
+     * @return The stats, or null if the channel is not recording.
+     */
+    public RecordingStats get(String channel) {
+        return active.get(channel);
+    }
+
+    /**
+     * Gets the stats of all active recordings.
+     * @return A snapshot of the active recordings.
+     */
+    public Collection<RecordingStats> all() {
+        return List.copyOf(active.values());
+    }
+
+}
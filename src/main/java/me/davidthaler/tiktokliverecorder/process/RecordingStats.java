@@ -0,0 +1,170 @@
+package me.davidthaler.tiktokliverecorder.process;
+
+import java.nio.file.Path;
+import java.time.Instant;
+
+/**
+ * Live statistics of one recording, updated from the ffmpeg progress output. Written by a single pump thread and
+ * readable from any thread.
+ */
+public class RecordingStats {
+
+    /** The channel being recorded. */
+    private final String channel;
+    /** The output file or directory of the recording. */
+    private final Path output;
+    /** Time the recording started. */
+    private final Instant startedAt = Instant.now();
+    /** Bytes written to the output so far. */
+    private volatile long bytesWritten;
+    /** Current output bitrate in kbit/s. */
+    private volatile double bitrateKbps;
+    /** Current processing speed relative to realtime. */
+    private volatile double speed;
+    /** Frames dropped so far. */
+    private volatile long droppedFrames;
+    /** Media time written so far in microseconds. */
+    private volatile long outTimeMicros;
+    /** Epoch millis of the last progress update. */
+    private volatile long lastProgressAt = System.currentTimeMillis();
+    /** Bytes written per second, measured between the last two progress updates. */
+    private volatile double bytesPerSecond;
+
+    /**
+     * Default constructor.
+     * @param channel The channel being recorded.
+     * @param output The output file or directory of the recording.
+     */
+    public RecordingStats(String channel, Path output) {
+        this.channel = channel;
+        this.output = output;
+    }
+
+    /**
+     * Records a new total of bytes written, updating the write rate. Called by the progress parser of ffmpeg and by
+     * in-process stream downloads.
+     * @param total The total bytes written.
+     */
+    public void updateBytesWritten(long total) {
+        long now = System.currentTimeMillis();
+        long elapsed = now - lastProgressAt;
+        if (elapsed > 0 && total >= bytesWritten) {
+            bytesPerSecond = (total - bytesWritten) * 1000.0 / elapsed;
+        }
+        bytesWritten = total;
+        lastProgressAt = now;
+    }
+
+    /**
+     * Sets the current output bitrate.
+     * @param bitrateKbps The bitrate in kbit/s.
+     */
+    void setBitrateKbps(double bitrateKbps) {
+        this.bitrateKbps = bitrateKbps;
+    }
+
+    /**
+     * Sets the current processing speed.
+     * @param speed The speed relative to realtime.
+     */
+    void setSpeed(double speed) {
+        this.speed = speed;
+    }
+
+    /**
+     * Sets the number of frames dropped so far.
+     * @param droppedFrames The dropped frame count.
+     */
+    void setDroppedFrames(long droppedFrames) {
+        this.droppedFrames = droppedFrames;
+    }
+
+    /**
+     * Sets the media time written so far.
+     * @param outTimeMicros The media time in microseconds.
+     */
+    void setOutTimeMicros(long outTimeMicros) {
+        this.outTimeMicros = outTimeMicros;
+    }
+
+    /**
+     * Gets the channel being recorded.
+     * @return The channel.
+     */
+    public String channel() {
+        return channel;
+    }
+
+    /**
+     * Gets the output of the recording.
+     * @return The output file or directory.
+     */
+    public Path output() {
+        return output;
+    }
+
+    /**
+     * Gets the time the recording started.
+     * @return The start time.
+     */
+    public Instant startedAt() {
+        return startedAt;
+    }
+
+    /**
+     * Gets the bytes written to the output so far.
+     * @return The bytes written.
+     */
+    public long bytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * Gets the current output bitrate.
+     * @return The bitrate in kbit/s.
+     */
+    public double bitrateKbps() {
+        return bitrateKbps;
+    }
+
+    /**
+     * Gets the current processing speed.
+     * @return The speed relative to realtime, below 1 means falling behind.
+     */
+    public double speed() {
+        return speed;
+    }
+
+    /**
+     * Gets the frames dropped so far.
+     * @return The dropped frame count.
+     */
+    public long droppedFrames() {
+        return droppedFrames;
+    }
+
+    /**
+     * Gets the media time written so far.
+     * @return The media time in microseconds.
+     */
+    public long outTimeMicros() {
+        return outTimeMicros;
+    }
+
+    /**
+     * Gets the time of the last progress update.
+     * @return The epoch millis of the last update.
+     */
+    public long lastProgressAt() {
+        return lastProgressAt;
+    }
+
+    /**
+     * Gets the current write rate.
+     * @return The bytes written per second.
+     */
+    public double bytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+}
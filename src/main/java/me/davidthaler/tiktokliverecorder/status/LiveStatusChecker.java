@@ -0,0 +1,122 @@
+package me.davidthaler.tiktokliverecorder.status;
+
+import me.davidthaler.tiktokliverecorder.http.ThrottledHttpClient;
+import me.davidthaler.tiktokliverecorder.metrics.MetricsRegistry;
+
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shared service checking the live status of rooms. Room ids requested by the watchers are collected for one tick and
+ * sent together in batched check_alive calls, the result of each room is then handed back to the watcher waiting on
+ * it.
+ */
+public class LiveStatusChecker {
+
+    /** Throttled http client instance. */
+    private final ThrottledHttpClient httpClient;
+    /** Decoder of the check_alive responses. */
+    private final StatusResponseDecoder decoder;
+    /** Metrics registry, timing the check_alive calls. */
+    private final MetricsRegistry metrics;
+    /** Maximum number of room ids sent in one check_alive call. */
+    private final int batchSize;
+    /** Room ids waiting for the next tick, mapped to the futures waiting on their status. */
+    private final Map<String, List<CompletableFuture<RoomStatus>>> pending = new LinkedHashMap<>();
+    /** Api url to check the live status of a list of rooms. */
+    private final String checkAliveUrl;
+    /** Timer flushing the pending room ids. */
+    private final ScheduledExecutorService ticker;
+    /** Path of the api checking the live status of a list of rooms. */
+    private static final String CHECK_ALIVE_PATH =
+        "/webcast/room/check_alive/?aid=1988&region=CH&user_is_login=true&room_ids=";
+    /** Time the room ids are collected for before being sent. */
+    private static final Duration TICK = Duration.ofSeconds(1);
+    private static final Duration TIMEOUT_DURATION = Duration.ofSeconds(10);
+
+    /**
+     * Default constructor.
+     * @param httpClient The throttled http client instance.
+     * @param decoder The status response decoder.
+     * @param metrics The metrics registry, timing the check_alive calls.
+     * @param batchSize Maximum number of room ids sent in one check_alive call.
+     * @param webcastUrl Base url of the webcast api.
+     */
+    public LiveStatusChecker(ThrottledHttpClient httpClient, StatusResponseDecoder decoder, MetricsRegistry metrics,
+                             int batchSize, String webcastUrl) {
+        this.httpClient = httpClient;
+        this.checkAliveUrl = webcastUrl + CHECK_ALIVE_PATH;
+        this.decoder = decoder;
+        this.metrics = metrics;
+        this.batchSize = Math.max(1, batchSize);
+        this.ticker = Executors.newSingleThreadScheduledExecutor(
+                Thread.ofPlatform().name("status-batch").daemon(true).factory());
+        ticker.scheduleWithFixedDelay(this::flush, TICK.toMillis(), TICK.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Queues a room for the next batched status check.
+     * @param roomId The room id to check.
+     * @return Future completed with the room status once the batch containing it has been answered.
+     */
+    public CompletableFuture<RoomStatus> check(String roomId) {
+        CompletableFuture<RoomStatus> future = new CompletableFuture<>();
+        synchronized (pending) {
+            pending.computeIfAbsent(roomId, k -> new ArrayList<>()).add(future);
+        }
+        return future;
+    }
+
+    /**
+     * Sends all pending room ids in batches of at most the configured batch size.
+     */
+    private void flush() {
+        Map<String, List<CompletableFuture<RoomStatus>>> due;
+        synchronized (pending) {
+            if (pending.isEmpty()) return;
+            due = new LinkedHashMap<>(pending);
+            pending.clear();
+        }
+        List<String> roomIds = new ArrayList<>(due.keySet());
+        for (int i = 0; i < roomIds.size(); i += batchSize) {
+            List<String> batch = roomIds.subList(i, Math.min(roomIds.size(), i + batchSize));
+            sendBatch(batch, due);
+        }
+    }
+
+    /**
+     * Sends one check_alive call and completes the futures of the rooms in it. A room without a valid entry in the
+     * response fails on its own, the others of the batch still get their status. The check_alive hop is timed from
+     * here, so it measures the call without the time the rooms waited for the tick.
+     * @param batch The room ids in this batch.
+     * @param due The futures waiting on each room id.
+     */
+    private void sendBatch(List<String> batch, Map<String, List<CompletableFuture<RoomStatus>>> due) {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(checkAliveUrl + String.join(",", batch)))
+                .timeout(TIMEOUT_DURATION).build();
+        metrics.timeHop("check_alive", () -> httpClient.sendAndDecode(request,
+                        body -> decoder.decodeCheckAlive(body, batch)))
+                .whenComplete((statuses, ex) -> {
+                    for (String roomId : batch) {
+                        RoomStatus status = statuses == null ? null : statuses.get(roomId);
+                        for (CompletableFuture<RoomStatus> future : due.get(roomId)) {
+                            if (ex != null) {
+                                future.completeExceptionally(ex);
+                            } else if (status == null) {
+                                future.completeExceptionally(new MalformedResponseException(
+                                        "check_alive response has no valid entry for room " + roomId));
+                            } else {
+                                future.complete(status);
+                            }
+                        }
+                    }
+                });
+    }
+
+}
@@ -0,0 +1,31 @@
+package me.davidthaler.tiktokliverecorder.status;
+
+import java.io.Serial;
+
+/**
+ * Thrown when a status response body does not have the expected structure.
+ */
+public class MalformedResponseException extends RuntimeException {
+
+    /** Serialisation version. */
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Default constructor.
+     * @param message Description of what was wrong with the body.
+     */
+    public MalformedResponseException(String message) {
+        super(message);
+    }
+
+    /**
+     * Constructor wrapping the cause.
+     * @param message Description of what was wrong with the body.
+     * @param cause The underlying parse failure.
+     */
+    public MalformedResponseException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+}
@@ -0,0 +1,164 @@
+package me.davidthaler.tiktokliverecorder.status;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import tools.jackson.core.JacksonException;
+import tools.jackson.core.type.TypeReference;
+import tools.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded cache of the room id resolved for each channel. Entries expire after a fixed time to live and the least
+ * recently used entry is evicted once the cache is full. The cache can optionally be persisted to disk so a restart
+ * does not need to resolve every room id again. Changes are written in the background at most once per persist
+ * interval and on {@link #flush()}, never on the poll path.
+ */
+public class RoomIdCache {
+
+    /** Cached entries in access order, the eldest entry is the least recently used. */
+    private final LinkedHashMap<String, Entry> entries;
+    /** Time to live of an entry. */
+    private final Duration ttl;
+    /** File the cache is persisted to, null if not persisted. */
+    private final Path persistPath;
+    /** Object mapper instance. */
+    private final ObjectMapper objectMapper;
+    /** Lock serialising the writes, so an older snapshot never replaces a newer one. */
+    private final Object writeLock = new Object();
+    /** Have the entries changed since they were last persisted? */
+    private boolean dirty;
+    /** Interval the changed entries are persisted at. */
+    private static final Duration PERSIST_INTERVAL = Duration.ofSeconds(10);
+    /** Logger instance. */
+    private static final Logger LOGGER = LoggerFactory.getLogger(RoomIdCache.class);
+
+    /**
+     * Default constructor.
+     * @param maxEntries Maximum number of channels kept in the cache.
+     * @param ttl Time to live of an entry.
+     * @param persistPath File to persist the cache to, null to keep it in memory only.
+     * @param objectMapper The object mapper instance.
+     */
+    public RoomIdCache(int maxEntries, Duration ttl, Path persistPath, ObjectMapper objectMapper) {
+        this.ttl = ttl;
+        this.persistPath = persistPath;
+        this.objectMapper = objectMapper;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+        load();
+        if (persistPath != null) {
+            ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor(
+                    Thread.ofPlatform().name("room-id-cache").daemon(true).factory());
+            writer.scheduleWithFixedDelay(this::persistChanges, PERSIST_INTERVAL.toMillis(), PERSIST_INTERVAL.toMillis(),
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Gets the cached room id of a channel.
+     * @param channel The channel.
+     * @return The room id, or null if not cached or expired.
+     */
+    public synchronized String get(String channel) {
+        Entry entry = entries.get(channel);
+        if (entry == null) return null;
+        if (entry.expiresAt() <= System.currentTimeMillis()) {
+            entries.remove(channel);
+            return null;
+        }
+        return entry.roomId();
+    }
+
+    /**
+     * Caches the room id of a channel.
+     * @param channel The channel.
+     * @param roomId The resolved room id.
+     */
+    public synchronized void put(String channel, String roomId) {
+        Entry previous = entries.put(channel, new Entry(roomId, System.currentTimeMillis() + ttl.toMillis()));
+        if (previous == null || !previous.roomId().equals(roomId)) dirty = true;
+    }
+
+    /**
+     * Removes the room id of a channel, forcing it to be resolved again on the next poll.
+     * @param channel The channel.
+     */
+    public synchronized void invalidate(String channel) {
+        if (entries.remove(channel) != null) dirty = true;
+    }
+
+    /**
+     * Writes the cache to disk if it changed since it was last written, replacing the previous file atomically.
+     * Called periodically and once more on shutdown.
+     */
+    public void flush() {
+        persistChanges();
+    }
+
+    /**
+     * Writes the changed entries, see {@link #flush()}.
+     */
+    private void persistChanges() {
+        if (persistPath == null) return;
+        synchronized (writeLock) {
+            Map<String, Entry> snapshot;
+            synchronized (this) {
+                if (!dirty) return;
+                snapshot = new LinkedHashMap<>(entries);
+                dirty = false;
+            }
+            try {
+                Path parent = persistPath.toAbsolutePath().getParent();
+                Files.createDirectories(parent);
+                Path tmp = Files.createTempFile(parent, persistPath.getFileName().toString(), ".tmp");
+                objectMapper.writeValue(tmp, snapshot);
+                Files.move(tmp, persistPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException | JacksonException ex) {
+                synchronized (this) {
+                    dirty = true;
+                }
+                LOGGER.warn("Failed to persist room id cache to [{}]", persistPath, ex);
+            }
+        }
+    }
+
+    /**
+     * Loads the persisted cache, dropping any expired entries.
+     */
+    private void load() {
+        if (persistPath == null || !Files.exists(persistPath)) return;
+        try {
+            Map<String, Entry> persisted = objectMapper.readValue(persistPath, new TypeReference<>() { });
+            long now = System.currentTimeMillis();
+            persisted.forEach((channel, entry) -> {
+                if (entry != null && entry.roomId() != null && entry.expiresAt() > now) entries.put(channel, entry);
+            });
+            LOGGER.info("Loaded {} cached room ids from [{}]", entries.size(), persistPath);
+        } catch (JacksonException ex) {
+            LOGGER.warn("Ignoring unreadable room id cache [{}]", persistPath, ex);
+        }
+    }
+
+    /**
+     * Cached room id of a channel.
+     * @param roomId The room id.
+     * @param expiresAt Epoch millis the entry expires at.
+     */
+    private record Entry(String roomId, long expiresAt) {
+    }
+
+}
@@ -0,0 +1,11 @@
+package me.davidthaler.tiktokliverecorder.status;
+
+/**
+ * Live status of a room as reported by the check_alive endpoint.
+ */
+public enum RoomStatus {
+    /** The room is currently live. */
+    ALIVE,
+    /** The room exists but is not live. */
+    NOT_ALIVE
+}
@@ -0,0 +1,234 @@
+package me.davidthaler.tiktokliverecorder.status;
+
+import tools.jackson.core.JacksonException;
+import tools.jackson.core.JsonParser;
+import tools.jackson.core.JsonToken;
+import tools.jackson.databind.ObjectMapper;
+
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Streaming decoder of the status responses. Only the few fields needed are read straight from the response stream,
+ * everything else is skipped without being materialised.
+ */
+public class StatusResponseDecoder {
+
+    /** Object mapper instance, used as the parser factory. */
+    private final ObjectMapper objectMapper;
+
+    /**
+     * Default constructor.
+     * @param objectMapper The object mapper instance.
+     */
+    public StatusResponseDecoder(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * Decodes the signer response.
+     * @param body The response body.
+     * @return The signed user lookup url.
+     * @throws MalformedResponseException Thrown if the body is not json or has no signed url.
+     */
+    public String decodeSignedUrl(InputStream body) {
+        try (JsonParser parser = openObject(body, "Signer")) {
+            String signedUrl = null;
+            while (parser.nextToken() == JsonToken.PROPERTY_NAME) {
+                String name = parser.currentName();
+                if (parser.nextToken() == JsonToken.VALUE_STRING && name.equals("signed_url")) {
+                    signedUrl = parser.getValueAsString();
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            if (signedUrl == null || signedUrl.isEmpty()) {
+                throw new MalformedResponseException("Signer response has no signed_url");
+            }
+            return signedUrl;
+        } catch (JacksonException ex) {
+            throw new MalformedResponseException("Signer response is not valid json", ex);
+        }
+    }
+
+    /**
+     * Decodes the signed user lookup response, reading message, data.user.roomId and
+     * data.liveRoom.streamData.pull_data.stream_data.
+     * @param body The response body.
+     * @return The fields read from the response.
+     * @throws MalformedResponseException Thrown if the body is not a json object.
+     */
+    public UserRoom decodeUserRoom(InputStream body) {
+        try (JsonParser parser = openObject(body, "User lookup")) {
+            String message = null;
+            UserData data = new UserData();
+            while (parser.nextToken() == JsonToken.PROPERTY_NAME) {
+                String name = parser.currentName();
+                JsonToken value = parser.nextToken();
+                if (name.equals("message") && value == JsonToken.VALUE_STRING) {
+                    message = parser.getValueAsString();
+                } else if (name.equals("data") && value == JsonToken.START_OBJECT) {
+                    readUserData(parser, data);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            String roomId = data.roomId;
+            return new UserRoom(message, roomId == null || roomId.isBlank() ? null : roomId.trim(), data.streamData);
+        } catch (JacksonException ex) {
+            throw new MalformedResponseException("User lookup response is not valid json", ex);
+        }
+    }
+
+    /**
+     * Decodes the check_alive response, reading data[].alive and the room id of each entry. Entries that are
+     * malformed or name a room that was not requested are skipped, so they only leave their own room without a
+     * status.
+     * @param body The response body.
+     * @param batch The room ids requested. An entry without a room id is only matched when a single room was
+     * requested, as matching by position could hand a status to the wrong room.
+     * @return The status of every room found in the response.
+     * @throws MalformedResponseException Thrown if the body is not json or has no data array.
+     */
+    public Map<String, RoomStatus> decodeCheckAlive(InputStream body, List<String> batch) {
+        try (JsonParser parser = openObject(body, "check_alive")) {
+            Map<String, RoomStatus> statuses = null;
+            while (parser.nextToken() == JsonToken.PROPERTY_NAME) {
+                String name = parser.currentName();
+                if (parser.nextToken() == JsonToken.START_ARRAY && name.equals("data")) {
+                    statuses = readStatuses(parser, batch);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            if (statuses == null) {
+                throw new MalformedResponseException("check_alive response has no data array");
+            }
+            return statuses;
+        } catch (JacksonException ex) {
+            throw new MalformedResponseException("check_alive response is not valid json", ex);
+        }
+    }
+
+    /**
+     * Opens a parser on the body and checks that it starts with an object.
+     * @param body The response body.
+     * @param response Name of the response for error messages.
+     * @return The parser, positioned on the start of the root object.
+     */
+    private JsonParser openObject(InputStream body, String response) {
+        JsonParser parser = objectMapper.createParser(body);
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            parser.close();
+            throw new MalformedResponseException(response + " response is not a json object");
+        }
+        return parser;
+    }
+
+    /**
+     * Reads user.roomId and liveRoom.streamData.pull_data.stream_data from the data object the parser is positioned
+     * on.
+     * @param parser The parser, positioned on the start of the data object.
+     * @param data The fields read, left null if not present.
+     */
+    private void readUserData(JsonParser parser, UserData data) {
+        while (parser.nextToken() == JsonToken.PROPERTY_NAME) {
+            String name = parser.currentName();
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                parser.skipChildren();
+            } else if (name.equals("user")) {
+                while (parser.nextToken() == JsonToken.PROPERTY_NAME) {
+                    String userField = parser.currentName();
+                    JsonToken value = parser.nextToken();
+                    if (userField.equals("roomId") && value.isScalarValue() && value != JsonToken.VALUE_NULL) {
+                        data.roomId = parser.getValueAsString();
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+            } else if (name.equals("liveRoom")) {
+                data.streamData = readPath(parser, List.of("streamData", "pull_data", "stream_data"), 0);
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    /**
+     * Reads the string at a path of nested objects below the object the parser is positioned on, skipping
+     * everything else.
+     * @param parser The parser, positioned on the start of an object.
+     * @param path Property names leading to the string.
+     * @param depth Index in the path of the property looked for in the current object.
+     * @return The string, or null if not present.
+     */
+    private String readPath(JsonParser parser, List<String> path, int depth) {
+        String found = null;
+        while (parser.nextToken() == JsonToken.PROPERTY_NAME) {
+            String name = parser.currentName();
+            JsonToken value = parser.nextToken();
+            if (!name.equals(path.get(depth))) {
+                parser.skipChildren();
+            } else if (depth == path.size() - 1 && value == JsonToken.VALUE_STRING) {
+                found = parser.getValueAsString();
+            } else if (depth < path.size() - 1 && value == JsonToken.START_OBJECT) {
+                found = readPath(parser, path, depth + 1);
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Reads the entries of the check_alive data array the parser is positioned on.
+     * @param parser The parser, positioned on the start of the data array.
+     * @param batch The room ids requested.
+     * @return The status of every requested room with a valid entry.
+     */
+    private Map<String, RoomStatus> readStatuses(JsonParser parser, List<String> batch) {
+        Map<String, RoomStatus> statuses = new HashMap<>();
+        JsonToken token;
+        while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+            if (token != JsonToken.START_OBJECT) {
+                parser.skipChildren();
+                continue;
+            }
+            String roomId = null;
+            Boolean alive = null;
+            while (parser.nextToken() == JsonToken.PROPERTY_NAME) {
+                String name = parser.currentName();
+                JsonToken value = parser.nextToken();
+                if (name.equals("alive") && (value == JsonToken.VALUE_TRUE || value == JsonToken.VALUE_FALSE
+                        || value == JsonToken.VALUE_NUMBER_INT)) {
+                    alive = parser.getValueAsBoolean();
+                } else if (name.equals("room_id_str") && value == JsonToken.VALUE_STRING) {
+                    roomId = parser.getValueAsString();
+                } else if (name.equals("room_id") && roomId == null
+                        && (value == JsonToken.VALUE_NUMBER_INT || value == JsonToken.VALUE_STRING)) {
+                    roomId = parser.getValueAsString();
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            if (roomId == null && batch.size() == 1) roomId = batch.getFirst();
+            if (roomId != null && alive != null && batch.contains(roomId)) {
+                statuses.put(roomId, alive ? RoomStatus.ALIVE : RoomStatus.NOT_ALIVE);
+            }
+        }
+        return statuses;
+    }
+
+    /**
+     * Fields read from the data object of the user lookup.
+     */
+    private static final class UserData {
+        /** The room id, null if not present. */
+        private String roomId;
+        /** The stream_data json, null if not present. */
+        private String streamData;
+    }
+
+}
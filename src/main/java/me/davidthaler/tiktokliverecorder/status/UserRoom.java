@@ -0,0 +1,19 @@
+package me.davidthaler.tiktokliverecorder.status;
+
+/**
+ * Fields read from the signed user lookup response.
+ * @param message The message of the response, null if there was none.
+ * @param roomId The current room id of the user, null if the user has no room.
+ * @param streamData The stream_data json of the live room, null if the user is not live.
+ */
+public record UserRoom(String message, String roomId, String streamData) {
+
+    /**
+     * Checks if the lookup reported that the user does not exist.
+     * @return True if the user was not found.
+     */
+    public boolean userNotFound() {
+        return "user_not_found".equalsIgnoreCase(message);
+    }
+
+}
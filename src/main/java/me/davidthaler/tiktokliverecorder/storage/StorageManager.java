@@ -0,0 +1,545 @@
+package me.davidthaler.tiktokliverecorder.storage;
+
+import me.davidthaler.tiktokliverecorder.config.AppConfig;
+import me.davidthaler.tiktokliverecorder.config.WatcherConfig;
+import me.davidthaler.tiktokliverecorder.postprocess.ConvertToMP4;
+import me.davidthaler.tiktokliverecorder.process.RecordingRegistry;
+import me.davidthaler.tiktokliverecorder.process.RecordingStats;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * App-wide storage management. When a free space watermark is configured, new recordings are only admitted while the
+ * disk keeps it after what the active recordings will write in the next minutes. Finished recordings beyond the
+ * per-channel and global quotas are deleted oldest first, and when an archive directory is configured finished mp4
+ * files are moved there out of the output directories, which then only serve as scratch space.
+ * <p>
+ * The finished recordings of every channel are listed once when the channel is registered and tracked with their
+ * running total from then on, so enforcing the quotas needs no directory listing. Files changed behind the back of the
+ * app are picked up on the next start.
+ */
+public class StorageManager {
+
+    /** Registry of the active recordings, whose write rates are counted against the free space. */
+    private final RecordingRegistry recordings;
+    /** Bytes that must stay free on the disk of a recording, 0 for not checked. */
+    private final long minFreeBytes;
+    /** Bytes of finished recordings kept across all channels, 0 for unlimited. */
+    private final long maxStorageBytes;
+    /** Directory finished mp4 files are moved to, null if not archiving. */
+    private final Path archiveRoot;
+    /** Config of each watcher by its channel, guarded by this. */
+    private final Map<String, WatcherConfig> watchers = new HashMap<>();
+    /** Finished recordings of each channel by its channel, guarded by this. */
+    private final Map<String, Usage> usage = new HashMap<>();
+    /** Finished mp4 files left in an output directory, moved into the archive by the maintenance. */
+    private final Set<Path> unarchived = ConcurrentHashMap.newKeySet();
+    /** Number of recordings refused or not reconnected for lack of free space since start. */
+    private final AtomicLong refused = new AtomicLong();
+    /** Timer indexing new channels and running the periodic maintenance. */
+    private final ScheduledExecutorService ticker;
+    /** Time ahead the writes of the active recordings are reserved for. */
+    private static final Duration PROJECTION = Duration.ofMinutes(10);
+    /** Interval left over files are archived at. */
+    private static final Duration MAINTENANCE_INTERVAL = Duration.ofMinutes(1);
+    /** Timestamp following the file name prefix of a recording. */
+    private static final Pattern TIMESTAMP = Pattern.compile("\\d{4}-\\d{2}-\\d{2}_\\d{2}-\\d{2}-\\d{2}.*");
+    private static final long MB = 1024 * 1024;
+    /** Logger instance. */
+    private static final Logger LOGGER = LoggerFactory.getLogger(StorageManager.class);
+
+    /**
+     * Default constructor, starts the periodic maintenance.
+     * @param appConfig The application config instance.
+     * @param recordings Registry of the active recordings.
+     */
+    public StorageManager(AppConfig appConfig, RecordingRegistry recordings) {
+        this.recordings = recordings;
+        this.minFreeBytes = appConfig.minFreeSpaceMb() * MB;
+        this.maxStorageBytes = appConfig.maxStorageMb() * MB;
+        String archivePath = appConfig.archivePath();
+        this.archiveRoot = archivePath == null || archivePath.isEmpty() ? null : Path.of(archivePath);
+        this.ticker = Executors.newSingleThreadScheduledExecutor(
+                Thread.ofPlatform().name("storage").daemon(true).factory());
+        ticker.scheduleWithFixedDelay(this::maintain, MAINTENANCE_INTERVAL.toMillis(),
+                MAINTENANCE_INTERVAL.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Registers a watcher, so its recordings count towards the quotas. The finished recordings of a channel new to the
+     * manager, or whose output directory or file name prefix changed, are listed in the background.
+     * @param watcherConfig The watcher config.
+     */
+    public void register(WatcherConfig watcherConfig) {
+        String channel = watcherConfig.channel();
+        synchronized (this) {
+            WatcherConfig previous = watchers.put(channel, watcherConfig);
+            if (previous != null && directory(previous).equals(directory(watcherConfig))
+                    && prefix(previous).equals(prefix(watcherConfig))) {
+                return;
+            }
+            usage.put(channel, new Usage());
+        }
+        ticker.execute(() -> index(channel));
+    }
+
+    /**
+     * Checks if a recording may start or continue in a directory. When short of space the quotas are enforced first,
+     * in case that frees enough.
+     * @param directory The directory recorded into.
+     * @return True if the free space left after the projected writes of the active recordings stays above the
+     * watermark, or if no watermark is configured.
+     */
+    public boolean admit(File directory) {
+        if (minFreeBytes <= 0 || hasHeadroom(directory)) return true;
+        enforceQuotas();
+        if (hasHeadroom(directory)) return true;
+        refused.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Gets the number of recordings refused or not reconnected for lack of free space since start.
+     * @return The refused admission count.
+     */
+    public long refusedCount() {
+        return refused.get();
+    }
+
+    /**
+     * Handles a recording whose post-processing finished, archiving it, adding it to the running total of its channel
+     * and enforcing the quotas. An mp4 that could not be archived is tried again by the maintenance.
+     * @param mp4 The finished mp4.
+     */
+    public void finished(Path mp4) {
+        Path directory = mp4.toAbsolutePath().normalize().getParent();
+        String name = mp4.getFileName().toString();
+        List<Recording> finished = new ArrayList<>();
+        Path kept = mp4;
+        if (archiveRoot != null && Files.isRegularFile(mp4)) {
+            try {
+                kept = archive(mp4);
+            } catch (NoSuchFileException ex) {
+                // Evicted in the meantime.
+                return;
+            } catch (IOException ex) {
+                LOGGER.error("Failed to archive {}, trying again later.", mp4, ex);
+                unarchived.add(mp4);
+            }
+        }
+        addIfExists(finished, kept);
+        String base = name.substring(0, name.length() - ".mp4".length());
+        for (String extension : ConvertToMP4.RECORDING_EXTENSIONS) {
+            addIfExists(finished, directory.resolve(base + "-converted" + extension));
+        }
+        synchronized (this) {
+            Usage owner = usage.get(owner(directory, name));
+            if (owner != null) finished.forEach(owner::add);
+            enforce();
+        }
+    }
+
+    /**
+     * Gets the usable space of the disk of a directory.
+     * @param directory The directory.
+     * @return The usable bytes, or -1 if they could not be read.
+     */
+    public long freeBytes(File directory) {
+        try {
+            return Files.getFileStore(directory.toPath()).getUsableSpace();
+        } catch (IOException ex) {
+            return -1;
+        }
+    }
+
+    /**
+     * Gets the bytes the active recordings are projected to write before the next checks.
+     * @return The projected bytes.
+     */
+    public long projectedBytes() {
+        double bytesPerSecond = 0;
+        for (RecordingStats stats : recordings.all()) {
+            bytesPerSecond += stats.bytesPerSecond();
+        }
+        return (long) (bytesPerSecond * PROJECTION.toSeconds());
+    }
+
+    /**
+     * Checks the free space of a directory against the watermark.
+     * @param directory The directory.
+     * @return True if above the watermark, or if the free space could not be read.
+     */
+    private boolean hasHeadroom(File directory) {
+        long free = freeBytes(directory);
+        if (free < 0) return true;
+        long headroom = free - projectedBytes();
+        if (headroom >= minFreeBytes) return true;
+        LOGGER.warn("Only {} MB free for {} after the active recordings, below the {} MB watermark.",
+                headroom / MB, directory, minFreeBytes / MB);
+        return false;
+    }
+
+    /**
+     * Lists the finished recordings of a channel, in its output directory and its archive directory, and adds them to
+     * its running total. Finished mp4 files left in the output directory are queued for archiving.
+     * @param channel The channel.
+     */
+    private void index(String channel) {
+        WatcherConfig watcherConfig;
+        List<WatcherConfig> sharing;
+        synchronized (this) {
+            watcherConfig = watchers.get(channel);
+            sharing = sharing(directory(watcherConfig));
+        }
+        Path directory = directory(watcherConfig);
+        List<Recording> found = new ArrayList<>();
+        try {
+            for (Path file : list(directory, StorageManager::isFinished)) {
+                String name = file.getFileName().toString();
+                if (!channel.equals(owner(sharing, name))) continue;
+                if (archiveRoot != null && name.endsWith(".mp4")) unarchived.add(file);
+                addIfExists(found, file);
+            }
+            if (archiveRoot != null) {
+                for (Path file : list(archiveDirectory(directory), StorageManager::isFinished)) {
+                    if (channel.equals(owner(sharing, file.getFileName().toString()))) addIfExists(found, file);
+                }
+            }
+        } catch (IOException ex) {
+            LOGGER.warn("Failed to list the recordings of {}", directory, ex);
+        }
+        synchronized (this) {
+            Usage channelUsage = usage.get(channel);
+            if (channelUsage == null) return;
+            for (Recording recording : found) {
+                // Skips files archived or evicted since they were listed.
+                if (Files.exists(recording.path())) channelUsage.add(recording);
+            }
+            enforce();
+        }
+    }
+
+    /**
+     * Periodic maintenance, archiving the finished mp4 files left in the output directories.
+     */
+    private void maintain() {
+        for (Path mp4 : List.copyOf(unarchived)) {
+            if (!unarchived.remove(mp4)) continue;
+            try {
+                Recording archived = Recording.of(archive(mp4));
+                synchronized (this) {
+                    for (Usage channelUsage : usage.values()) {
+                        if (channelUsage.remove(mp4) != null) channelUsage.add(archived);
+                    }
+                }
+            } catch (NoSuchFileException ex) {
+                // Evicted or archived in the meantime.
+            } catch (IOException | RuntimeException ex) {
+                LOGGER.error("Failed to archive {}, trying again later.", mp4, ex);
+                unarchived.add(mp4);
+            }
+        }
+    }
+
+    /**
+     * Moves a finished mp4 into the archive. The move is atomic when the archive is on the same file system,
+     * otherwise the file is streamed into a ".part" file that is renamed once complete, and only then deleted.
+     * @param mp4 The finished mp4.
+     * @return The archived file.
+     * @throws NoSuchFileException Thrown if the mp4 is gone.
+     * @throws IOException Thrown if the move or copy failed.
+     */
+    private Path archive(Path mp4) throws IOException {
+        Path target = archiveDirectory(mp4.toAbsolutePath().normalize().getParent()).resolve(mp4.getFileName());
+        Files.createDirectories(target.getParent());
+        try {
+            Files.move(mp4, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Path part = target.resolveSibling(target.getFileName() + ".part");
+            try (FileChannel in = FileChannel.open(mp4, StandardOpenOption.READ);
+                 FileChannel out = FileChannel.open(part, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                         StandardOpenOption.TRUNCATE_EXISTING)) {
+                long size = in.size();
+                long position = 0;
+                while (position < size) {
+                    position += in.transferTo(position, size - position, out);
+                }
+                out.force(true);
+            } catch (IOException copyEx) {
+                Files.deleteIfExists(part);
+                throw copyEx;
+            }
+            Files.move(part, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            Files.delete(mp4);
+        }
+        LOGGER.info("Archived {} to {}", mp4, target);
+        return target;
+    }
+
+    /**
+     * Deletes the oldest finished recordings of every channel over its quota, then the oldest of all channels while
+     * over the global quota.
+     */
+    public synchronized void enforceQuotas() {
+        enforce();
+    }
+
+    /**
+     * Enforces the quotas on the running totals, see {@link #enforceQuotas()}. Called holding the lock.
+     */
+    private void enforce() {
+        long total = 0;
+        for (Map.Entry<String, Usage> entry : usage.entrySet()) {
+            Usage channelUsage = entry.getValue();
+            Long quotaMb = watchers.get(entry.getKey()).maxStorageMb();
+            if (quotaMb != null && quotaMb > 0) {
+                while (channelUsage.bytes() > quotaMb * MB && channelUsage.oldest() != null) {
+                    evict(channelUsage, entry.getKey(), quotaMb * MB);
+                }
+            }
+            total += channelUsage.bytes();
+        }
+        while (maxStorageBytes > 0 && total > maxStorageBytes) {
+            Usage oldest = usage.values().stream().filter(u -> u.oldest() != null)
+                    .min(Comparator.comparing(Usage::oldest, Recording.OLDEST_FIRST)).orElse(null);
+            if (oldest == null) break;
+            total -= evict(oldest, "all channels", maxStorageBytes);
+        }
+    }
+
+    /**
+     * Deletes the oldest recording of a channel and takes it off its running total. A file that could not be deleted
+     * is no longer counted either, it is found again on the next start.
+     * @param channelUsage The recordings of the channel.
+     * @param owner Who the quota applies to, for the log.
+     * @param quota The quota in bytes, for the log.
+     * @return The size of the recording taken off.
+     */
+    private long evict(Usage channelUsage, String owner, long quota) {
+        Recording oldest = channelUsage.oldest();
+        channelUsage.remove(oldest.path());
+        unarchived.remove(oldest.path());
+        try {
+            Files.deleteIfExists(oldest.path());
+            LOGGER.info("Deleted {} to keep {} within its {} MB quota.", oldest.path(), owner, quota / MB);
+        } catch (IOException ex) {
+            LOGGER.error("Failed to delete {}", oldest.path(), ex);
+        }
+        return oldest.size();
+    }
+
+    /**
+     * Finds the channel a finished recording belongs to.
+     * @param directory The output directory of the recording.
+     * @param name The file name of the recording.
+     * @return The channel, or null if no registered watcher records into the directory.
+     */
+    private synchronized String owner(Path directory, String name) {
+        return owner(sharing(directory), name);
+    }
+
+    /**
+     * Gets the watchers recording into a directory. Called holding the lock.
+     * @param directory The output directory.
+     * @return The watchers.
+     */
+    private List<WatcherConfig> sharing(Path directory) {
+        return watchers.values().stream().filter(w -> directory(w).equals(directory)).toList();
+    }
+
+    /**
+     * Finds the watcher a finished recording belongs to among those sharing its output directory. A directory of one
+     * watcher holds only its recordings, in a shared one the recording is matched by its file name prefix.
+     * @param sharing The watchers recording into the directory of the recording.
+     * @param name The file name of the recording.
+     * @return The channel, or null if none matches.
+     */
+    private static String owner(List<WatcherConfig> sharing, String name) {
+        if (sharing.size() == 1) return sharing.getFirst().channel();
+        String owner = null;
+        int longest = -1;
+        for (WatcherConfig watcherConfig : sharing) {
+            String prefix = prefix(watcherConfig);
+            if (prefix.length() > longest && name.startsWith(prefix + "_")
+                    && TIMESTAMP.matcher(name.substring(prefix.length() + 1)).matches()) {
+                owner = watcherConfig.channel();
+                longest = prefix.length();
+            }
+        }
+        return owner;
+    }
+
+    /**
+     * Gets the archive directory of an output directory.
+     * @param directory The absolute output directory.
+     * @return The sub directory of the archive at the full path of the output directory, so output directories of the
+     * same name do not share it.
+     */
+    private Path archiveDirectory(Path directory) {
+        Path root = directory.getRoot();
+        Path archive = archiveRoot;
+        // Keeps the drive of a Windows path apart.
+        String drive = root == null ? "" : root.toString().replaceAll("[:\\\\/]", "");
+        if (!drive.isEmpty()) archive = archive.resolve(drive);
+        return root == null ? archive.resolve(directory) : archive.resolve(root.relativize(directory));
+    }
+
+    /**
+     * Gets the absolute output directory of a watcher.
+     * @param watcherConfig The watcher config.
+     * @return The normalized absolute path.
+     */
+    private static Path directory(WatcherConfig watcherConfig) {
+        return watcherConfig.outputDirectory().toPath().toAbsolutePath().normalize();
+    }
+
+    /**
+     * Gets the file name prefix of the recordings of a watcher.
+     * @param watcherConfig The watcher config.
+     * @return The configured prefix, or the channel if none is configured.
+     */
+    private static String prefix(WatcherConfig watcherConfig) {
+        String prefix = watcherConfig.outputFilenamePrefix();
+        return prefix == null || prefix.isEmpty() ? watcherConfig.channel() : prefix;
+    }
+
+    /**
+     * Checks if a file name is that of a finished recording.
+     * @param name The file name.
+     * @return True for mp4 files and recordings kept after conversion.
+     */
+    private static boolean isFinished(String name) {
+        return name.endsWith(".mp4") || ConvertToMP4.isConverted(name);
+    }
+
+    /**
+     * Lists the regular files of a directory matching a filter.
+     * @param directory The directory.
+     * @param filter The file name filter.
+     * @return The matching files, empty if the directory does not exist.
+     * @throws IOException Thrown if the directory could not be listed.
+     */
+    private static List<Path> list(Path directory, Predicate<String> filter) throws IOException {
+        if (!Files.isDirectory(directory)) return List.of();
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(f -> Files.isRegularFile(f) && filter.test(f.getFileName().toString())).toList();
+        }
+    }
+
+    /**
+     * Adds a file to a list of recordings if it exists.
+     * @param recordings The list.
+     * @param file The file.
+     */
+    private static void addIfExists(List<Recording> recordings, Path file) {
+        try {
+            recordings.add(Recording.of(file));
+        } catch (IOException ex) {
+            // Gone, nothing to count.
+        }
+    }
+
+    /**
+     * A finished recording counted towards the quotas.
+     * @param path The file.
+     * @param size The size in bytes.
+     * @param modified The modification time in epoch millis.
+     */
+    private record Recording(Path path, long size, long modified) {
+
+        /** Orders recordings oldest first. */
+        static final Comparator<Recording> OLDEST_FIRST = Comparator.comparingLong(Recording::modified)
+                .thenComparing(Recording::path);
+
+        /**
+         * Reads the size and modification time of a file.
+         * @param file The file.
+         * @return The recording.
+         * @throws IOException Thrown if the file could not be read.
+         */
+        static Recording of(Path file) throws IOException {
+            return new Recording(file, Files.size(file), Files.getLastModifiedTime(file).toMillis());
+        }
+    }
+
+    /**
+     * The finished recordings of one channel with their running total.
+     */
+    private static final class Usage {
+
+        /** The recordings by path. */
+        private final Map<Path, Recording> byPath = new HashMap<>();
+        /** The recordings, oldest first. */
+        private final TreeSet<Recording> oldestFirst = new TreeSet<>(Recording.OLDEST_FIRST);
+        /** Total size of the recordings in bytes. */
+        private long bytes;
+
+        /**
+         * Adds a recording, replacing an earlier entry of the same file.
+         * @param recording The recording.
+         */
+        void add(Recording recording) {
+            remove(recording.path());
+            byPath.put(recording.path(), recording);
+            oldestFirst.add(recording);
+            bytes += recording.size();
+        }
+
+        /**
+         * Removes the recording of a file.
+         * @param path The file.
+         * @return The removed recording, null if the file was not tracked.
+         */
+        Recording remove(Path path) {
+            Recording recording = byPath.remove(path);
+            if (recording != null) {
+                oldestFirst.remove(recording);
+                bytes -= recording.size();
+            }
+            return recording;
+        }
+
+        /**
+         * Gets the oldest recording.
+         * @return The oldest recording, null if there is none.
+         */
+        Recording oldest() {
+            return oldestFirst.isEmpty() ? null : oldestFirst.first();
+        }
+
+        /**
+         * Gets the total size of the recordings.
+         * @return The total in bytes.
+         */
+        long bytes() {
+            return bytes;
+        }
+    }
+
+}
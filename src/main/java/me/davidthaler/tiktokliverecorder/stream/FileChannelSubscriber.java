@@ -0,0 +1,107 @@
+package me.davidthaler.tiktokliverecorder.stream;
+
+import me.davidthaler.tiktokliverecorder.process.RecordingStats;
+
+import java.io.IOException;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+
+/**
+ * Body subscriber writing a response straight to a file channel. The buffers of every item are written with one
+ * gathering write, and only one item is requested at a time, so a slow disk holds back the connection instead of
+ * growing the heap.
+ */
+class FileChannelSubscriber implements HttpResponse.BodySubscriber<Long> {
+
+    /** Channel the body is appended to. */
+    private final FileChannel channel;
+    /** Stats updated with the size of the file after every write. */
+    private final RecordingStats stats;
+    /** Completed with the number of bytes of the body once it has been written. */
+    private final CompletableFuture<Long> result = new CompletableFuture<>();
+    /** The subscription, null until subscribed. */
+    private volatile Flow.Subscription subscription;
+    /** Bytes of this body written so far. */
+    private long written;
+
+    /**
+     * Default constructor.
+     * @param channel Channel the body is appended to, not closed by the subscriber.
+     * @param stats Stats updated with the size of the file after every write.
+     */
+    FileChannelSubscriber(FileChannel channel, RecordingStats stats) {
+        this.channel = channel;
+        this.stats = stats;
+    }
+
+    @Override
+    public CompletionStage<Long> getBody() {
+        return result;
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        this.subscription = subscription;
+        if (result.isDone()) {
+            subscription.cancel();
+        } else {
+            subscription.request(1);
+        }
+    }
+
+    @Override
+    public void onNext(List<ByteBuffer> items) {
+        try {
+            synchronized (this) {
+                if (result.isDone()) return;
+                write(items.toArray(ByteBuffer[]::new));
+            }
+            subscription.request(1);
+        } catch (IOException ex) {
+            subscription.cancel();
+            result.completeExceptionally(ex);
+        }
+    }
+
+    @Override
+    public synchronized void onError(Throwable throwable) {
+        result.completeExceptionally(throwable);
+    }
+
+    @Override
+    public synchronized void onComplete() {
+        result.complete(written);
+    }
+
+    /**
+     * Stops receiving the body. Everything received so far has already been written, so the result completes with
+     * the bytes written.
+     */
+    void cancel() {
+        Flow.Subscription s = subscription;
+        if (s != null) s.cancel();
+        onComplete();
+    }
+
+    /**
+     * Writes the buffers of one item to the channel with a gathering write.
+     * @param buffers The buffers of the item.
+     * @throws IOException Thrown if the write failed.
+     */
+    private void write(ByteBuffer[] buffers) throws IOException {
+        long remaining = 0;
+        for (ByteBuffer buffer : buffers) remaining += buffer.remaining();
+        while (remaining > 0) {
+            long n = channel.write(buffers);
+            written += n;
+            remaining -= n;
+        }
+        stats.updateBytesWritten(channel.position());
+    }
+
+}
@@ -0,0 +1,88 @@
+package me.davidthaler.tiktokliverecorder.stream;
+
+import me.davidthaler.tiktokliverecorder.process.RecordingHandle;
+import me.davidthaler.tiktokliverecorder.process.RecordingStats;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * In-process download of an http-flv stream. The response is one endless body, written to the file as it arrives
+ * until the server ends it or the download is stopped.
+ */
+class FlvDownload implements RecordingHandle {
+
+    /** Subscriber writing the body to the file. */
+    private final FileChannelSubscriber subscriber;
+    /** Completed once the download has ended and the file is closed. */
+    private final CompletableFuture<Void> done;
+    /** Logger instance. */
+    private static final Logger LOGGER = LoggerFactory.getLogger(FlvDownload.class);
+
+    /**
+     * Starts the download.
+     * @param httpClient The shared http client.
+     * @param url The flv url.
+     * @param output The file written to.
+     * @param stats Stats of the recording.
+     * @throws IOException Thrown if the file could not be opened.
+     */
+    FlvDownload(HttpClient httpClient, String url, Path output, RecordingStats stats) throws IOException {
+        FileChannel channel = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        subscriber = new FileChannelSubscriber(channel, stats);
+        // No request timeout, the body lasts as long as the live.
+        HttpRequest request = HttpRequest.newBuilder(URI.create(url)).GET().build();
+        done = httpClient.sendAsync(request, info -> {
+                    if (info.statusCode() == 200) return subscriber;
+                    LOGGER.warn("Stream url answered with status {}.", info.statusCode());
+                    return HttpResponse.BodySubscribers.replacing(0L);
+                })
+                .handle((response, ex) -> {
+                    if (ex != null) LOGGER.warn("Stream download ended with an error.", ex);
+                    try {
+                        channel.close();
+                    } catch (IOException closeEx) {
+                        LOGGER.warn("Failed to close {}", output, closeEx);
+                    }
+                    return null;
+                });
+    }
+
+    @Override
+    public boolean waitFor(Duration timeout) throws InterruptedException {
+        try {
+            done.get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException ex) {
+            return false;
+        } catch (ExecutionException ex) {
+            // Already logged, the download has ended either way.
+        }
+        return true;
+    }
+
+    @Override
+    public void requestStop() {
+        subscriber.cancel();
+    }
+
+    @Override
+    public void stop(Duration grace) throws InterruptedException {
+        requestStop();
+        waitFor(grace);
+    }
+
+}
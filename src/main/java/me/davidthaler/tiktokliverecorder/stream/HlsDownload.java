@@ -0,0 +1,271 @@
+package me.davidthaler.tiktokliverecorder.stream;
+
+import me.davidthaler.tiktokliverecorder.process.HelperThreads;
+import me.davidthaler.tiktokliverecorder.process.RecordingHandle;
+import me.davidthaler.tiktokliverecorder.process.RecordingStats;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * In-process download of an hls stream. The playlist is polled at half its target duration and every new segment is
+ * appended to one transport stream file, which ConvertToMP4 remuxes once the live has ended.
+ */
+class HlsDownload implements RecordingHandle {
+
+    private final HttpClient httpClient;
+    /** The file written to. */
+    private final FileChannel channel;
+    private final RecordingStats stats;
+    /** Completed once the download has ended and the file is closed. */
+    private final CompletableFuture<Void> done = new CompletableFuture<>();
+    /** The polling thread. */
+    private final Thread thread;
+    /** Subscriber of the segment being downloaded, null between segments. */
+    private volatile FileChannelSubscriber current;
+    /** Has the download been asked to stop? */
+    private volatile boolean stopped;
+    /** Consecutive failed playlist requests after which the download ends. */
+    private static final int MAX_FAILURES = 3;
+    private static final Duration TIMEOUT_DURATION = Duration.ofSeconds(10);
+    /** Logger instance. */
+    private static final Logger LOGGER = LoggerFactory.getLogger(HlsDownload.class);
+
+    /**
+     * Starts the download.
+     * @param httpClient The shared http client.
+     * @param url The playlist url, either a media playlist or a master playlist whose best variant is followed.
+     * @param output The file written to.
+     * @param stats Stats of the recording.
+     * @param threads Creates the polling thread.
+     * @throws IOException Thrown if the file could not be opened.
+     */
+    HlsDownload(HttpClient httpClient, String url, Path output, RecordingStats stats, HelperThreads threads)
+            throws IOException {
+        this.httpClient = httpClient;
+        this.channel = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        this.stats = stats;
+        this.thread = threads.start("hls-" + stats.channel(), () -> run(URI.create(url)));
+    }
+
+    /**
+     * Polls the playlist and downloads new segments until the playlist ends, fails repeatedly or the download is
+     * stopped.
+     * @param playlistUrl The playlist url.
+     */
+    private void run(URI playlistUrl) {
+        long lastSequence = -1;
+        String lastSegment = null;
+        int failures = 0;
+        try {
+            while (!stopped) {
+                HttpResponse<String> response;
+                try {
+                    response = httpClient.send(HttpRequest.newBuilder(playlistUrl).timeout(TIMEOUT_DURATION).build(),
+                            HttpResponse.BodyHandlers.ofString());
+                } catch (IOException ex) {
+                    response = null;
+                }
+                if (response == null || response.statusCode() != 200) {
+                    if (++failures >= MAX_FAILURES) {
+                        LOGGER.warn("Playlist {} failed {} times in a row, ending the download.", playlistUrl,
+                                failures);
+                        return;
+                    }
+                    Thread.sleep(Duration.ofSeconds(1));
+                    continue;
+                }
+                failures = 0;
+                Playlist playlist = Playlist.parse(response.body());
+                if (playlist.variant() != null) {
+                    playlistUrl = playlistUrl.resolve(playlist.variant());
+                    continue;
+                }
+                for (int i = playlist.firstNew(lastSequence, lastSegment);
+                     i < playlist.segments().size() && !stopped; i++) {
+                    lastSegment = playlist.segments().get(i);
+                    lastSequence = playlist.mediaSequence() + i;
+                    downloadSegment(playlistUrl.resolve(lastSegment));
+                }
+                if (playlist.ended()) return;
+                Thread.sleep(Duration.ofMillis(Math.max(1000, playlist.targetDuration().toMillis() / 2)));
+            }
+        } catch (InterruptedException ex) {
+            // Stopped.
+        } finally {
+            try {
+                channel.close();
+            } catch (IOException ex) {
+                LOGGER.warn("Failed to close {}", stats.output(), ex);
+            }
+            done.complete(null);
+        }
+    }
+
+    /**
+     * Appends one segment to the file.
+     * @param segmentUrl The segment url.
+     * @throws InterruptedException Thrown if interrupted while downloading.
+     */
+    private void downloadSegment(URI segmentUrl) throws InterruptedException {
+        FileChannelSubscriber subscriber = new FileChannelSubscriber(channel, stats);
+        current = subscriber;
+        try {
+            httpClient.send(HttpRequest.newBuilder(segmentUrl).timeout(TIMEOUT_DURATION).build(), info -> {
+                if (info.statusCode() == 200) return subscriber;
+                return HttpResponse.BodySubscribers.replacing(0L);
+            });
+        } catch (IOException ex) {
+            // A missing segment is skipped, the stream continues with the next one.
+            LOGGER.warn("Failed to download segment {}", segmentUrl, ex);
+            subscriber.cancel();
+        } finally {
+            current = null;
+        }
+    }
+
+    @Override
+    public boolean waitFor(Duration timeout) throws InterruptedException {
+        try {
+            done.get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException ex) {
+            return false;
+        } catch (ExecutionException ex) {
+            // Never completed exceptionally.
+        }
+        return true;
+    }
+
+    @Override
+    public void requestStop() {
+        stopped = true;
+        FileChannelSubscriber subscriber = current;
+        if (subscriber != null) subscriber.cancel();
+    }
+
+    @Override
+    public void stop(Duration grace) throws InterruptedException {
+        requestStop();
+        if (!waitFor(grace)) {
+            thread.interrupt();
+            waitFor(grace);
+        }
+    }
+
+    /**
+     * The parts of a playlist used by the download.
+     * @param variant Uri of the best variant if this is a master playlist, null for a media playlist.
+     * @param targetDuration The target segment duration.
+     * @param mediaSequence Sequence number of the first segment listed.
+     * @param segments Uris of the segments listed, in order.
+     * @param discontinuity Index of the first segment after the last EXT-X-DISCONTINUITY, -1 if there is none.
+     * @param ended Does the playlist end with EXT-X-ENDLIST?
+     */
+    record Playlist(String variant, Duration targetDuration, long mediaSequence, List<String> segments,
+                    int discontinuity, boolean ended) {
+
+        /**
+         * Finds the first segment not downloaded yet. Segments are normally told apart by their sequence number, but
+         * when the server restarts the stream the numbering restarts too, usually behind an EXT-X-DISCONTINUITY. So
+         * the last downloaded segment is looked up by uri, and if the sequence number no longer matches it the
+         * numbering is treated as reset.
+         * @param lastSequence Sequence number of the last downloaded segment, -1 if none.
+         * @param lastSegment Uri of the last downloaded segment, null if none.
+         * @return Index of the first segment to download, the size of the segment list if there is none.
+         */
+        int firstNew(long lastSequence, String lastSegment) {
+            if (lastSegment == null || mediaSequence > lastSequence) return 0;
+            long index = lastSequence - mediaSequence;
+            if (index < segments.size() && segments.get((int) index).equals(lastSegment)) return (int) index + 1;
+            // The numbering was reset, continue after the last downloaded segment if it is still listed, otherwise
+            // with the segments after the discontinuity.
+            int found = segments.lastIndexOf(lastSegment);
+            if (found >= 0) return found + 1;
+            return Math.max(discontinuity, 0);
+        }
+
+        /**
+         * Parses an m3u8 playlist.
+         * @param text The playlist text.
+         * @return The parsed playlist.
+         */
+        static Playlist parse(String text) {
+            String variant = null;
+            long bestBandwidth = -1;
+            long pendingBandwidth = -1;
+            boolean expectVariant = false;
+            Duration targetDuration = Duration.ofSeconds(2);
+            long mediaSequence = 0;
+            List<String> segments = new ArrayList<>();
+            int discontinuity = -1;
+            boolean ended = false;
+            for (String raw : text.split("\n")) {
+                String line = raw.trim();
+                if (line.isEmpty()) continue;
+                if (line.startsWith("#EXT-X-STREAM-INF:")) {
+                    expectVariant = true;
+                    pendingBandwidth = attribute(line, "BANDWIDTH");
+                } else if (line.startsWith("#EXT-X-TARGETDURATION:")) {
+                    targetDuration = Duration.ofSeconds(parseLong(line.substring(22), 2));
+                } else if (line.startsWith("#EXT-X-MEDIA-SEQUENCE:")) {
+                    mediaSequence = parseLong(line.substring(22), 0);
+                } else if (line.equals("#EXT-X-DISCONTINUITY")) {
+                    discontinuity = segments.size();
+                } else if (line.startsWith("#EXT-X-ENDLIST")) {
+                    ended = true;
+                } else if (!line.startsWith("#")) {
+                    if (expectVariant) {
+                        if (pendingBandwidth > bestBandwidth) {
+                            bestBandwidth = pendingBandwidth;
+                            variant = line;
+                        }
+                        expectVariant = false;
+                    } else {
+                        segments.add(line);
+                    }
+                }
+            }
+            return new Playlist(variant, targetDuration, mediaSequence, segments, discontinuity, ended);
+        }
+
+        /**
+         * Reads a numeric attribute of a tag.
+         * @param line The tag line.
+         * @param name The attribute name.
+         * @return The attribute value, or 0 if missing.
+         */
+        private static long attribute(String line, String name) {
+            int start = line.indexOf(name + "=");
+            if (start < 0) return 0;
+            start += name.length() + 1;
+            int end = start;
+            while (end < line.length() && Character.isDigit(line.charAt(end))) end++;
+            return parseLong(line.substring(start, end), 0);
+        }
+
+        private static long parseLong(String value, long fallback) {
+            try {
+                return Long.parseLong(value.trim());
+            } catch (NumberFormatException ex) {
+                return fallback;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,144 @@
+package me.davidthaler.tiktokliverecorder.stream;
+
+import me.davidthaler.tiktokliverecorder.status.MalformedResponseException;
+import tools.jackson.core.JacksonException;
+import tools.jackson.core.JsonParser;
+import tools.jackson.core.JsonToken;
+import tools.jackson.databind.ObjectMapper;
+
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Streaming decoder of the pull urls found in the room info and user lookup responses. FLV urls are preferred over
+ * HLS, and the best quality available is picked.
+ */
+public class PullUrlDecoder {
+
+    /** Object mapper instance, used as the parser factory. */
+    private final ObjectMapper objectMapper;
+    /** Keys of the room info flv_pull_url object, best quality first. */
+    private static final List<String> ROOM_INFO_QUALITIES = List.of("FULL_HD1", "HD1", "SD1", "SD2");
+    /** Keys of the stream_data qualities, best quality first. */
+    private static final List<String> STREAM_DATA_QUALITIES = List.of("origin", "uhd", "hd", "sd", "ld");
+
+    /**
+     * Default constructor.
+     * @param objectMapper The object mapper instance.
+     */
+    public PullUrlDecoder(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * Decodes the room info response, reading data.stream_url.flv_pull_url and data.stream_url.hls_pull_url.
+     * @param body The response body.
+     * @return The best pull url, or null if the room has none.
+     * @throws MalformedResponseException Thrown if the body is not a json object.
+     */
+    public String decodeRoomInfo(InputStream body) {
+        try (JsonParser parser = objectMapper.createParser(body)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new MalformedResponseException("Room info response is not a json object");
+            }
+            Map<String, String> flv = new HashMap<>();
+            String hls = null;
+            if (enter(parser, "data") && enter(parser, "stream_url")) {
+                while (parser.nextToken() == JsonToken.PROPERTY_NAME) {
+                    String name = parser.currentName();
+                    JsonToken value = parser.nextToken();
+                    if (name.equals("flv_pull_url") && value == JsonToken.START_OBJECT) {
+                        readStrings(parser, flv);
+                    } else if (name.equals("hls_pull_url") && value == JsonToken.VALUE_STRING) {
+                        hls = parser.getValueAsString();
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+            }
+            for (String quality : ROOM_INFO_QUALITIES) {
+                String url = flv.get(quality);
+                if (url != null && !url.isEmpty()) return url;
+            }
+            return hls == null || hls.isEmpty() ? null : hls;
+        } catch (JacksonException ex) {
+            throw new MalformedResponseException("Room info response is not valid json", ex);
+        }
+    }
+
+    /**
+     * Decodes the stream_data json string embedded in the user lookup response, reading data.[quality].main.flv and
+     * data.[quality].main.hls.
+     * @param streamData The stream_data json.
+     * @return The best pull url, or null if none was found or the json is malformed.
+     */
+    public String decodeStreamData(String streamData) {
+        if (streamData == null || streamData.isEmpty()) return null;
+        Map<String, String> flv = new HashMap<>();
+        Map<String, String> hls = new HashMap<>();
+        try (JsonParser parser = objectMapper.createParser(streamData)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT || !enter(parser, "data")) return null;
+            while (parser.nextToken() == JsonToken.PROPERTY_NAME) {
+                String quality = parser.currentName();
+                if (parser.nextToken() == JsonToken.START_OBJECT && enter(parser, "main")) {
+                    Map<String, String> urls = new HashMap<>();
+                    readStrings(parser, urls);
+                    if (urls.get("flv") != null) flv.put(quality, urls.get("flv"));
+                    if (urls.get("hls") != null) hls.put(quality, urls.get("hls"));
+                    // Skip the rest of the quality object.
+                    while (parser.nextToken() == JsonToken.PROPERTY_NAME) {
+                        parser.nextToken();
+                        parser.skipChildren();
+                    }
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        } catch (JacksonException ex) {
+            return null;
+        }
+        for (Map<String, String> urls : List.of(flv, hls)) {
+            for (String quality : STREAM_DATA_QUALITIES) {
+                String url = urls.get(quality);
+                if (url != null && !url.isEmpty()) return url;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Moves the parser into the object value of the given property of the current object, skipping the properties
+     * before it.
+     * @param parser The parser, positioned on the start of an object or after a property value within it.
+     * @param property The property to enter.
+     * @return True if positioned on the start of the property's object, false if the object has no such property.
+     */
+    private static boolean enter(JsonParser parser, String property) {
+        while (parser.nextToken() == JsonToken.PROPERTY_NAME) {
+            String name = parser.currentName();
+            JsonToken value = parser.nextToken();
+            if (name.equals(property) && value == JsonToken.START_OBJECT) return true;
+            parser.skipChildren();
+        }
+        return false;
+    }
+
+    /**
+     * Reads the string properties of the object the parser is positioned on, skipping everything else.
+     * @param parser The parser, positioned on the start of an object.
+     * @param into The map the strings are put in.
+     */
+    private static void readStrings(JsonParser parser, Map<String, String> into) {
+        while (parser.nextToken() == JsonToken.PROPERTY_NAME) {
+            String name = parser.currentName();
+            if (parser.nextToken() == JsonToken.VALUE_STRING) {
+                into.put(name, parser.getValueAsString());
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+}
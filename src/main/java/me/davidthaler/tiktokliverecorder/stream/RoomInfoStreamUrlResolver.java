@@ -0,0 +1,65 @@
+package me.davidthaler.tiktokliverecorder.stream;
+
+import me.davidthaler.tiktokliverecorder.http.ThrottledHttpClient;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Resolves the stream url natively, by reading the pull urls of the room from the webcast room info api through the
+ * shared throttled http client. No process is started.
+ */
+public class RoomInfoStreamUrlResolver implements StreamUrlResolver {
+
+    /** Throttled http client instance. */
+    private final ThrottledHttpClient httpClient;
+    /** Decoder of the pull urls. */
+    private final PullUrlDecoder decoder;
+    /** Api url to fetch the info of a room. */
+    private final String roomInfoUrl;
+    /** Path of the api fetching the info of a room. */
+    private static final String ROOM_INFO_PATH = "/webcast/room/info/?aid=1988&room_id=";
+    private static final Duration TIMEOUT_DURATION = Duration.ofSeconds(10);
+    /** Maximum time the lookup may take, covering any rate limiting. */
+    private static final Duration RESOLVE_TIMEOUT = Duration.ofSeconds(30);
+
+    /**
+     * Default constructor.
+     * @param httpClient The throttled http client instance.
+     * @param decoder The pull url decoder.
+     * @param webcastUrl Base url of the webcast api.
+     */
+    public RoomInfoStreamUrlResolver(ThrottledHttpClient httpClient, PullUrlDecoder decoder, String webcastUrl) {
+        this.httpClient = httpClient;
+        this.decoder = decoder;
+        this.roomInfoUrl = webcastUrl + ROOM_INFO_PATH;
+    }
+
+    @Override
+    public String name() {
+        return "native";
+    }
+
+    @Override
+    public String resolve(String channel, String roomId) throws IOException, InterruptedException {
+        if (roomId == null || roomId.isEmpty()) return null;
+        HttpRequest request = HttpRequest.newBuilder(URI.create(roomInfoUrl + roomId))
+                .timeout(TIMEOUT_DURATION).build();
+        CompletableFuture<String> url = httpClient.sendAndDecode(request, decoder::decodeRoomInfo);
+        try {
+            return url.get(RESOLVE_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (ExecutionException ex) {
+            throw new IOException("Room info lookup failed for room " + roomId, ex.getCause());
+        } catch (TimeoutException ex) {
+            url.cancel(true);
+            throw new IOException("Room info lookup timed out for room " + roomId, ex);
+        }
+    }
+
+}
@@ -0,0 +1,65 @@
+package me.davidthaler.tiktokliverecorder.stream;
+
+import me.davidthaler.tiktokliverecorder.process.HelperThreads;
+import me.davidthaler.tiktokliverecorder.process.RecordingHandle;
+import me.davidthaler.tiktokliverecorder.process.RecordingStats;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.nio.file.Path;
+
+/**
+ * In-process capture engine for copy mode. Instead of an ffmpeg process per live, the flv or hls stream is written
+ * straight to disk on the shared http client, and the usual mp4 conversion remuxes the file once the live has ended.
+ */
+public class StreamDownloader {
+
+    /** The shared http client. */
+    private final HttpClient httpClient;
+    /** Creates the polling threads of the hls downloads. */
+    private final HelperThreads threads;
+
+    /**
+     * Default constructor.
+     * @param httpClient The shared http client.
+     * @param threads Creates the polling threads of the hls downloads.
+     */
+    public StreamDownloader(HttpClient httpClient, HelperThreads threads) {
+        this.httpClient = httpClient;
+        this.threads = threads;
+    }
+
+    /**
+     * Starts downloading a stream.
+     * @param url The stream url.
+     * @param output The file written to, named with {@link #extension(String)}.
+     * @param stats Stats of the recording, updated as bytes are written.
+     * @return The handle of the download.
+     * @throws IOException Thrown if the output could not be opened.
+     */
+    public RecordingHandle start(String url, Path output, RecordingStats stats) throws IOException {
+        if (isHls(url)) return new HlsDownload(httpClient, url, output, stats, threads);
+        return new FlvDownload(httpClient, url, output, stats);
+    }
+
+    /**
+     * Gets the extension of the file a stream is downloaded to.
+     * @param url The stream url.
+     * @return "ts" for hls streams, "flv" otherwise.
+     */
+    public static String extension(String url) {
+        return isHls(url) ? "ts" : "flv";
+    }
+
+    /**
+     * Checks if a stream url is an hls playlist.
+     * @param url The stream url.
+     * @return True if the url path ends with ".m3u8".
+     */
+    private static boolean isHls(String url) {
+        String path = URI.create(url).getPath();
+        return path != null && path.endsWith(".m3u8");
+    }
+
+}
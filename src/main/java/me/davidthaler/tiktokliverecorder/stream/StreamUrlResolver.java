@@ -0,0 +1,26 @@
+package me.davidthaler.tiktokliverecorder.stream;
+
+import java.io.IOException;
+
+/**
+ * Resolves the url a live stream can be recorded from.
+ */
+public interface StreamUrlResolver {
+
+    /**
+     * Gets the name of the resolver, as used in the config.
+     * @return The resolver name.
+     */
+    String name();
+
+    /**
+     * Resolves the stream url of a live.
+     * @param channel The channel that is live.
+     * @param roomId The room id of the live, null if not known.
+     * @return The stream url, or null if this resolver could not find one.
+     * @throws IOException Thrown if the lookup failed.
+     * @throws InterruptedException Thrown if interrupted during the lookup.
+     */
+    String resolve(String channel, String roomId) throws IOException, InterruptedException;
+
+}
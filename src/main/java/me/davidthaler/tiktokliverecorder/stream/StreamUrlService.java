@@ -0,0 +1,160 @@
+package me.davidthaler.tiktokliverecorder.stream;
+
+import me.davidthaler.tiktokliverecorder.metrics.MetricsRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.URI;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Shared service resolving stream urls. The configured resolvers are tried in order until one returns a url, and the
+ * url of every room is cached until the expiry signed into it, so a reconnect or restart within the same live does
+ * not repeat the lookup.
+ */
+public class StreamUrlService {
+
+    /** Resolvers tried in order. */
+    private final List<StreamUrlResolver> resolvers;
+    /** Decoder of the pull urls embedded in the user lookup. */
+    private final PullUrlDecoder decoder;
+    /** Metrics registry, timing the resolvers. */
+    private final MetricsRegistry metrics;
+    /** Cached url of each room id. */
+    private final Map<String, Entry> cache = new ConcurrentHashMap<>();
+    /** Time a url is reused for when it carries no expiry. */
+    private static final Duration DEFAULT_TTL = Duration.ofMinutes(5);
+    /** Margin before the expiry of a url after which it is no longer handed out. */
+    private static final Duration EXPIRY_MARGIN = Duration.ofSeconds(60);
+    /** Logger instance. */
+    private static final Logger LOGGER = LoggerFactory.getLogger(StreamUrlService.class);
+
+    /**
+     * Default constructor.
+     * @param resolvers Resolvers tried in order.
+     * @param decoder Decoder of the pull urls embedded in the user lookup.
+     * @param metrics Metrics registry, timing the resolvers.
+     */
+    public StreamUrlService(List<StreamUrlResolver> resolvers, PullUrlDecoder decoder, MetricsRegistry metrics) {
+        this.resolvers = List.copyOf(resolvers);
+        this.decoder = decoder;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Gets the stream url of a live, from the cache if a valid url is cached for the room.
+     * @param channel The channel that is live.
+     * @param roomId The room id of the live, null if not known.
+     * @return The stream url, or null if no resolver found one.
+     * @throws InterruptedException Thrown if interrupted while resolving.
+     */
+    public String resolve(String channel, String roomId) throws InterruptedException {
+        if (roomId != null) {
+            Entry entry = cache.get(roomId);
+            if (entry != null && Instant.now().isBefore(entry.expiresAt())) return entry.url();
+        }
+        for (StreamUrlResolver resolver : resolvers) {
+            long start = System.nanoTime();
+            try {
+                String url = resolver.resolve(channel, roomId);
+                metrics.resolveLatency(resolver.name()).observeSince(start);
+                if (url != null) {
+                    offer(roomId, url);
+                    return url;
+                }
+                LOGGER.warn("The {} resolver found no stream url for {}.", resolver.name(), channel);
+            } catch (IOException | RuntimeException ex) {
+                metrics.resolveLatency(resolver.name()).observeSince(start);
+                LOGGER.warn("The {} resolver failed for {}.", resolver.name(), channel, ex);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Caches a url already known for a room, such as one embedded in the user lookup.
+     * @param roomId The room id, nothing is cached if null.
+     * @param url The stream url, nothing is cached if null.
+     */
+    public void offer(String roomId, String url) {
+        if (roomId == null || roomId.isEmpty() || url == null) return;
+        Instant now = Instant.now();
+        // Rooms end, so expired entries are dropped whenever a new one comes in.
+        cache.values().removeIf(entry -> now.isAfter(entry.expiresAt()));
+        Instant expiresAt = expiry(url).minus(EXPIRY_MARGIN);
+        if (now.isBefore(expiresAt)) cache.put(roomId, new Entry(url, expiresAt));
+    }
+
+    /**
+     * Caches the best url of the stream_data json embedded in the user lookup, saving the lookup when the room goes
+     * live.
+     * @param roomId The room id, nothing is cached if null.
+     * @param streamData The stream_data json, nothing is cached if null or without a url.
+     */
+    public void offerStreamData(String roomId, String streamData) {
+        offer(roomId, decoder.decodeStreamData(streamData));
+    }
+
+    /**
+     * Drops the cached url of a room, used when the url stopped delivering before its expiry.
+     * @param roomId The room id.
+     */
+    public void invalidate(String roomId) {
+        if (roomId != null) cache.remove(roomId);
+    }
+
+    /**
+     * Reads the expiry of a url from its "expire" query parameter, in epoch seconds.
+     * @param url The stream url.
+     * @return The expiry, or the default time to live from now if the url carries none.
+     */
+    static Instant expiry(String url) {
+        try {
+            String query = URI.create(url).getRawQuery();
+            if (query != null) {
+                for (String param : query.split("&")) {
+                    if (param.startsWith("expire=")) {
+                        return Instant.ofEpochSecond(Long.parseLong(param.substring(7)));
+                    }
+                }
+            }
+        } catch (IllegalArgumentException ex) {
+            // Unparseable url or expiry, fall back to the default.
+        }
+        return Instant.now().plus(DEFAULT_TTL);
+    }
+
+    /**
+     * Builds the resolvers named in the config.
+     * @param names Names of the resolvers, in the order they are tried.
+     * @param nativeResolver The native resolver.
+     * @param ytdlpResolver The yt-dlp resolver.
+     * @return The resolvers, unknown names are logged and skipped.
+     */
+    public static List<StreamUrlResolver> fromNames(List<String> names, StreamUrlResolver nativeResolver,
+                                                    StreamUrlResolver ytdlpResolver) {
+        return names.stream()
+                .map(name -> {
+                    if (name.equalsIgnoreCase(nativeResolver.name())) return nativeResolver;
+                    if (name.equalsIgnoreCase(ytdlpResolver.name())) return ytdlpResolver;
+                    LOGGER.warn("Unknown stream url resolver {} is ignored.", name);
+                    return null;
+                })
+                .filter(r -> r != null)
+                .toList();
+    }
+
+    /**
+     * Cache entry.
+     * @param url The stream url.
+     * @param expiresAt Time after which the url is resolved again.
+     */
+    private record Entry(String url, Instant expiresAt) {
+    }
+
+}
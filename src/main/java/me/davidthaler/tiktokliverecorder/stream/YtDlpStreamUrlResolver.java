@@ -0,0 +1,105 @@
+package me.davidthaler.tiktokliverecorder.stream;
+
+import me.davidthaler.tiktokliverecorder.process.HelperThreads;
+import me.davidthaler.tiktokliverecorder.process.LineLogger;
+import me.davidthaler.tiktokliverecorder.process.ProcessControl;
+import me.davidthaler.tiktokliverecorder.process.ProcessOutputPump;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Resolves the stream url by running yt-dlp, expecting the first line of its output to be the url. Kept as the
+ * fallback for when the native lookup fails, every attempt is bounded by a timeout and retried with backoff.
+ */
+public class YtDlpStreamUrlResolver implements StreamUrlResolver {
+
+    /** Path of the yt-dlp executable. */
+    private final String ytdlpPath;
+    /** Creates the threads reading the output of yt-dlp. */
+    private final HelperThreads threads;
+    /** Number of times yt-dlp is run before giving up. */
+    private static final int ATTEMPTS = 3;
+    /** Maximum time one run of yt-dlp may take. */
+    private static final Duration ATTEMPT_TIMEOUT = Duration.ofSeconds(30);
+    /** Wait before the second attempt, doubled for every attempt after it. */
+    private static final Duration INITIAL_BACKOFF = Duration.ofSeconds(1);
+    /** Time given to yt-dlp to exit once it is stopped. */
+    private static final Duration STOP_GRACE = Duration.ofSeconds(2);
+    /** Logger instance. */
+    private static final Logger LOGGER = LoggerFactory.getLogger(YtDlpStreamUrlResolver.class);
+
+    /**
+     * Default constructor.
+     * @param ytdlpPath Path of the yt-dlp executable.
+     * @param threads Creates the threads reading the output of yt-dlp.
+     */
+    public YtDlpStreamUrlResolver(String ytdlpPath, HelperThreads threads) {
+        this.ytdlpPath = ytdlpPath;
+        this.threads = threads;
+    }
+
+    @Override
+    public String name() {
+        return "yt-dlp";
+    }
+
+    @Override
+    public String resolve(String channel, String roomId) throws IOException, InterruptedException {
+        Duration backoff = INITIAL_BACKOFF;
+        // Give it multiple tries, seems that yt-dlp sometimes randomly returns null.
+        for (int i = 0; i < ATTEMPTS; i++) {
+            if (i > 0) {
+                Thread.sleep(backoff);
+                backoff = backoff.multipliedBy(2);
+            }
+            String url = runOnce(channel);
+            if (url != null && !url.isBlank()) return url.trim();
+        }
+        return null;
+    }
+
+    /**
+     * Runs yt-dlp once, stopping it if it does not print a url within the attempt timeout.
+     * @param channel The channel to resolve.
+     * @return The first line of output, or null if there was none.
+     * @throws IOException Thrown if yt-dlp could not be started.
+     * @throws InterruptedException Thrown if interrupted while waiting for yt-dlp.
+     */
+    private String runOnce(String channel) throws IOException, InterruptedException {
+        Process p = new ProcessBuilder(ytdlpPath, "-g", "https://www.tiktok.com/@" + channel + "/live").start();
+        ProcessOutputPump.start(threads, p.getErrorStream(), "yt-dlp-" + channel, new LineLogger(LOGGER::warn));
+        CompletableFuture<String> firstLine = CompletableFuture.supplyAsync(() -> {
+            try (BufferedReader br = new BufferedReader(new InputStreamReader(p.getInputStream()))) {
+                String line = br.readLine();
+                // Drain the rest so yt-dlp never blocks on a full pipe.
+                while (br.readLine() != null) {
+                    // Only the first line is the url.
+                }
+                return line;
+            } catch (IOException ex) {
+                return null;
+            }
+        }, task -> threads.start("yt-dlp-out-" + channel, task));
+        try {
+            return firstLine.get(ATTEMPT_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException ex) {
+            LOGGER.warn("yt-dlp did not return a url for {} within {} seconds.", channel,
+                    ATTEMPT_TIMEOUT.toSeconds());
+            return null;
+        } catch (ExecutionException ex) {
+            return null;
+        } finally {
+            if (p.isAlive()) ProcessControl.stop(p, STOP_GRACE);
+        }
+    }
+
+}
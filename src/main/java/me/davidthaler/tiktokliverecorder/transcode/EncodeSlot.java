@@ -0,0 +1,39 @@
+package me.davidthaler.tiktokliverecorder.transcode;
+
+import java.util.List;
+
+/**
+ * Share of the encode budget granted to one recording.
+ * @param threads Encoder threads granted, 0 if the encode was deferred to post-processing.
+ * @param preset The x264 preset to encode with, null if deferred.
+ */
+public record EncodeSlot(int threads, String preset) {
+
+    /**
+     * Checks if the encode was deferred, the recording then copies the stream and is transcoded after the live.
+     * @return True if no threads were granted.
+     */
+    public boolean deferred() {
+        return threads == 0;
+    }
+
+    /**
+     * Gets the ffmpeg codec arguments of the recording.
+     * @return The encode arguments, or "-c copy" if deferred.
+     */
+    public List<String> recordingArgs() {
+        if (deferred()) return List.of("-c", "copy");
+        return encodeArgs(preset, threads);
+    }
+
+    /**
+     * Gets the ffmpeg arguments encoding with libx264 and aac.
+     * @param preset The x264 preset.
+     * @param threads The encoder threads.
+     * @return The codec arguments.
+     */
+    public static List<String> encodeArgs(String preset, int threads) {
+        return List.of("-c:v", "libx264", "-preset", preset, "-threads", Integer.toString(threads), "-c:a", "aac");
+    }
+
+}
@@ -0,0 +1,149 @@
+package me.davidthaler.tiktokliverecorder.transcode;
+
+/**
+ * Admission control for encodes. Every encoding recording takes encoder threads from a fixed budget, a recording
+ * getting less than its full share encodes with a faster preset to stay realtime, and once the budget is used up
+ * recordings copy the stream instead and are transcoded by post-processing after the live. The encodes of
+ * post-processing take their threads from the same budget, but wait for free threads instead of being deferred. They
+ * run for hours, so they are capped at half of the budget to always leave threads for lives starting meanwhile.
+ */
+public class TranscodeScheduler {
+
+    /** Encoder threads shared by all encodes. */
+    private final int budget;
+    /** Encoder threads a recording asks for. */
+    private final int threadsPerJob;
+    /** Preset of recordings granted their full share. */
+    private final String preset;
+    /** Encoder threads post-processing encodes may hold at most. */
+    private final int postLiveBudget;
+    /** Encoder threads granted to live and post-processing encodes. */
+    private int threadsInUse;
+    /** Number of live encodes. */
+    private int live;
+    /** Number of recordings copying with their encode deferred. */
+    private int deferred;
+    /** Number of encodes deferred since start. */
+    private long deferredTotal;
+    /** Number of encodes run by post-processing after the live. */
+    private int postLive;
+    /** Encoder threads granted to post-processing encodes. */
+    private int postLiveThreads;
+    /** Preset of recordings granted less than their full share. */
+    private static final String REDUCED_PRESET = "superfast";
+
+    /**
+     * Default constructor.
+     * @param budget Encoder threads shared by all encodes.
+     * @param threadsPerJob Encoder threads a recording asks for.
+     * @param preset Preset of recordings granted their full share.
+     */
+    public TranscodeScheduler(int budget, int threadsPerJob, String preset) {
+        this.budget = Math.max(0, budget);
+        this.threadsPerJob = Math.max(1, threadsPerJob);
+        this.preset = preset;
+        this.postLiveBudget = Math.max(1, this.budget / 2);
+    }
+
+    /**
+     * Takes a share of the budget for a recording, to be given back with {@link #release(EncodeSlot)} once it ends.
+     * @return The slot granted, deferred if the budget is used up.
+     */
+    public synchronized EncodeSlot acquire() {
+        int free = budget - threadsInUse;
+        if (free <= 0) {
+            deferred++;
+            deferredTotal++;
+            return new EncodeSlot(0, null);
+        }
+        int threads = Math.min(threadsPerJob, free);
+        threadsInUse += threads;
+        live++;
+        return new EncodeSlot(threads, threads < threadsPerJob ? REDUCED_PRESET : preset);
+    }
+
+    /**
+     * Gives back the share of a recording that has ended.
+     * @param slot The slot granted to the recording.
+     */
+    public synchronized void release(EncodeSlot slot) {
+        if (slot.deferred()) {
+            deferred--;
+        } else {
+            threadsInUse -= slot.threads();
+            live--;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Takes a share of the budget for an encode run by post-processing, waiting until threads are free both in the
+     * budget and in the half of it left to post-processing. The encode is not realtime, so it keeps the configured
+     * preset when granted less than its full share. With no budget at all the encode gets its full share, as there
+     * are no live encodes to compete with.
+     * @return The slot granted, to be given back with {@link #releasePostLive(EncodeSlot)}.
+     * @throws InterruptedException Thrown if interrupted while waiting for threads.
+     */
+    public synchronized EncodeSlot acquirePostLive() throws InterruptedException {
+        while (budget > 0 && Math.min(budget - threadsInUse, postLiveBudget - postLiveThreads) <= 0) wait();
+        int threads = budget > 0
+                ? Math.min(threadsPerJob, Math.min(budget - threadsInUse, postLiveBudget - postLiveThreads))
+                : threadsPerJob;
+        threadsInUse += threads;
+        postLiveThreads += threads;
+        postLive++;
+        return new EncodeSlot(threads, preset);
+    }
+
+    /**
+     * Gives back the share of an encode run by post-processing.
+     * @param slot The slot granted to the encode.
+     */
+    public synchronized void releasePostLive(EncodeSlot slot) {
+        threadsInUse -= slot.threads();
+        postLiveThreads -= slot.threads();
+        postLive--;
+        notifyAll();
+    }
+
+    /**
+     * Gets the number of live encodes.
+     * @return The live encode count.
+     */
+    public synchronized int liveCount() {
+        return live;
+    }
+
+    /**
+     * Gets the number of recordings copying with their encode deferred.
+     * @return The deferred recording count.
+     */
+    public synchronized int deferredCount() {
+        return deferred;
+    }
+
+    /**
+     * Gets the number of encodes deferred since start.
+     * @return The total deferred count.
+     */
+    public synchronized long deferredTotal() {
+        return deferredTotal;
+    }
+
+    /**
+     * Gets the number of encodes run by post-processing.
+     * @return The post-live encode count.
+     */
+    public synchronized int postLiveCount() {
+        return postLive;
+    }
+
+    /**
+     * Gets the encoder threads granted to live and post-processing encodes.
+     * @return The threads in use.
+     */
+    public synchronized int threadsInUse() {
+        return threadsInUse;
+    }
+
+}
@@ -0,0 +1,165 @@
+package me.davidthaler.tiktokliverecorder.watcher;
+
+import me.davidthaler.tiktokliverecorder.config.WatcherConfig;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Per-channel poll interval adapting between the configured min and max interval. The hours of the week the channel
+ * has been seen going live are learned in a decaying histogram, polls speed up towards the min interval when a live is
+ * likely and slow down towards the max interval when it is not. Failed polls back off exponentially and every delay
+ * is jittered so channels do not poll in lockstep.
+ */
+public class AdaptivePollInterval {
+
+    /** Minimum interval between polls. */
+    private Duration min;
+    /** Base interval used until anything has been learned. */
+    private Duration base;
+    /** Maximum interval between polls. */
+    private Duration max;
+    /** Decaying count of observed go-lives per hour of the week. */
+    private final double[] histogram = new double[HOURS_PER_WEEK];
+    /** Number of consecutive failed polls. */
+    private int consecutiveErrors;
+    /** Was the user live on the previous poll? */
+    private boolean wasLive;
+    private static final int HOURS_PER_WEEK = 7 * 24;
+    /** Factor applied to the histogram on every observed go-live so recent habits outweigh old ones. */
+    private static final double DECAY = 0.95;
+    /** Upper bound of the error backoff as a multiple of the max interval. */
+    private static final int MAX_BACKOFF_MULTIPLIER = 8;
+    /** Relative jitter applied to every delay. */
+    private static final double JITTER = 0.1;
+
+    /**
+     * Default constructor.
+     * @param watcherConfig The watcher config to take the intervals from.
+     */
+    public AdaptivePollInterval(WatcherConfig watcherConfig) {
+        applyIntervals(watcherConfig);
+    }
+
+    /**
+     * Applies the intervals of the given config, keeping everything learned so far.
+     * @param watcherConfig The watcher config to take the intervals from.
+     */
+    public synchronized void update(WatcherConfig watcherConfig) {
+        applyIntervals(watcherConfig);
+    }
+
+    /**
+     * Takes the intervals from a config.
+     * @param watcherConfig The watcher config to take the intervals from.
+     */
+    private void applyIntervals(WatcherConfig watcherConfig) {
+        ChronoUnit unit = watcherConfig.pollIntervalUnit();
+        base = Duration.of(watcherConfig.pollIntervalQty(), unit);
+        min = Duration.of(watcherConfig.minPollIntervalQty(), unit);
+        max = Duration.of(watcherConfig.maxPollIntervalQty(), unit);
+        if (max.compareTo(min) < 0) max = min;
+    }
+
+    /**
+     * Gets a random delay before the first poll, spreading the channels over one base interval.
+     * @return The delay before the first poll.
+     */
+    public synchronized Duration initialDelay() {
+        return Duration.ofMillis(ThreadLocalRandom.current().nextLong(Math.max(1, base.toMillis())));
+    }
+
+    /**
+     * Records the outcome of a poll and computes the delay before the next one.
+     * @param outcome The outcome of the poll.
+     * @param polledAt The time the poll started.
+     * @return The delay before the next poll.
+     */
+    public synchronized Duration nextDelay(PollOutcome outcome, Instant polledAt) {
+        Duration delay;
+        if (outcome == PollOutcome.ERROR) {
+            consecutiveErrors++;
+            long cap = max.toMillis() * MAX_BACKOFF_MULTIPLIER;
+            long backoff = base.toMillis() << Math.min(consecutiveErrors, 20);
+            delay = Duration.ofMillis(Math.min(backoff, cap));
+        } else {
+            consecutiveErrors = 0;
+            boolean live = outcome == PollOutcome.LIVE;
+            if (live && !wasLive) {
+                learn(hourOfWeek(polledAt));
+            }
+            wasLive = live;
+            // Recordings block until the live ends, a user going live again soon after is likely.
+            delay = live ? min : interpolate(likelihood(Instant.now()));
+        }
+        return jitter(delay);
+    }
+
+    /**
+     * Adds an observed go-live to the histogram.
+     * @param hour The hour of the week the user went live.
+     */
+    private void learn(int hour) {
+        for (int i = 0; i < HOURS_PER_WEEK; i++) {
+            histogram[i] *= DECAY;
+        }
+        histogram[hour] += 1;
+        // Lives rarely start on the exact same hour, smear some weight onto the neighbouring hours.
+        histogram[(hour + 1) % HOURS_PER_WEEK] += 0.5;
+        histogram[(hour + HOURS_PER_WEEK - 1) % HOURS_PER_WEEK] += 0.5;
+    }
+
+    /**
+     * Gets how likely a go-live is around the given time, relative to the most likely hour of the week.
+     * @param at The time.
+     * @return The likelihood between 0 and 1, or -1 if nothing has been learned yet.
+     */
+    private double likelihood(Instant at) {
+        double peak = 0;
+        for (double count : histogram) {
+            peak = Math.max(peak, count);
+        }
+        if (peak == 0) return -1;
+        int hour = hourOfWeek(at);
+        double current = Math.max(histogram[hour], histogram[(hour + 1) % HOURS_PER_WEEK]);
+        return current / peak;
+    }
+
+    /**
+     * Maps a likelihood onto the configured interval range.
+     * @param likelihood The likelihood between 0 and 1, or -1 if unknown.
+     * @return The interval, the base interval clamped to the range if the likelihood is unknown.
+     */
+    private Duration interpolate(double likelihood) {
+        if (likelihood < 0) {
+            return base.compareTo(min) < 0 ? min : base.compareTo(max) > 0 ? max : base;
+        }
+        long range = max.toMillis() - min.toMillis();
+        return Duration.ofMillis(max.toMillis() - Math.round(range * likelihood));
+    }
+
+    /**
+     * Applies a random jitter to the delay.
+     * @param delay The delay.
+     * @return The jittered delay.
+     */
+    private Duration jitter(Duration delay) {
+        double factor = 1 + ThreadLocalRandom.current().nextDouble(-JITTER, JITTER);
+        return Duration.ofMillis(Math.round(delay.toMillis() * factor));
+    }
+
+    /**
+     * Gets the hour of the week of the given time in the system time zone.
+     * @param at The time.
+     * @return The hour of the week, 0 being Monday midnight.
+     */
+    private static int hourOfWeek(Instant at) {
+        ZonedDateTime time = at.atZone(ZoneId.systemDefault());
+        return (time.getDayOfWeek().getValue() - 1) * 24 + time.getHour();
+    }
+
+}
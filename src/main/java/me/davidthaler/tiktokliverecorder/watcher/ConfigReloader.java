@@ -0,0 +1,236 @@
+package me.davidthaler.tiktokliverecorder.watcher;
+
+import me.davidthaler.tiktokliverecorder.config.AppConfig;
+import me.davidthaler.tiktokliverecorder.config.WatcherConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import tools.jackson.core.JacksonException;
+import tools.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Keeps the running watchers in line with the config file. The file is watched for changes and every reload is
+ * diffed against the running watchers by channel: new channels are started, removed channels stop polling once their
+ * current recording has finished, and changed channels are updated in place, so no recording is interrupted. A
+ * channel whose output directory changed is replaced by a new watcher once the old one has finished. In a cluster only
+ * the channels assigned to this node are watched, and the config is applied again whenever the nodes change.
+ * <p>
+ * Only the watchers are reloaded, the shared services keep the settings they were started with. App-wide settings
+ * such as the ffmpeg path apply to the watchers started after the reload.
+ */
+public class ConfigReloader {
+
+    /** The config file. */
+    private final Path configFile;
+    /** Object mapper instance. */
+    private final ObjectMapper objectMapper;
+    /** Services shared by all watchers. */
+    private final WatcherServices services;
+    /** Scheduler of the watcher polls. */
+    private final WatcherScheduler scheduler;
+    /** Running watchers by channel. */
+    private final Map<String, Watcher> running = new HashMap<>();
+    /** The config last applied, null before the first. */
+    private AppConfig current;
+    /** Futures completed once the removed or replaced watcher of a channel has stopped polling. */
+    private final Map<String, CompletableFuture<Void>> retiring = new HashMap<>();
+    /** Time given to the editor to finish writing the file before it is read. */
+    private static final Duration SETTLE = Duration.ofMillis(500);
+    /** Logger instance. */
+    private static final Logger LOGGER = LoggerFactory.getLogger(ConfigReloader.class);
+
+    /**
+     * Default constructor.
+     * @param configFile The config file.
+     * @param objectMapper The object mapper instance.
+     * @param services The services shared by all watchers.
+     * @param scheduler The scheduler of the watcher polls.
+     */
+    public ConfigReloader(Path configFile, ObjectMapper objectMapper, WatcherServices services,
+                          WatcherScheduler scheduler) {
+        this.configFile = configFile.toAbsolutePath();
+        this.objectMapper = objectMapper;
+        this.services = services;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Brings the running watchers in line with a config.
+     * @param appConfig The config.
+     */
+    public synchronized void apply(AppConfig appConfig) {
+        current = appConfig;
+        Map<String, WatcherConfig> wanted = new LinkedHashMap<>();
+        for (WatcherConfig watcherConfig : appConfig.watchers()) {
+            if (!services.ownership().owns(watcherConfig.channel())) continue;
+            if (wanted.putIfAbsent(watcherConfig.channel(), watcherConfig) != null) {
+                LOGGER.warn("Channel [{}] is configured more than once, only the first is used.",
+                        watcherConfig.channel());
+            }
+        }
+        for (String channel : new ArrayList<>(running.keySet())) {
+            if (!wanted.containsKey(channel)) {
+                LOGGER.info("Retiring watcher job for channel [{}] after its current recording.", channel);
+                retire(channel);
+            }
+        }
+        for (WatcherConfig watcherConfig : wanted.values()) {
+            Watcher watcher = running.get(watcherConfig.channel());
+            if (watcher == null) {
+                start(appConfig, watcherConfig);
+            } else if (!watcher.config().equals(watcherConfig)) {
+                if (watcher.config().outputDirectory().equals(watcherConfig.outputDirectory())) {
+                    LOGGER.info("Updating watcher job for channel [{}]", watcherConfig.channel());
+                    watcher.runner().thenAccept(runner -> runner.update(watcherConfig));
+                    watcher.interval().update(watcherConfig);
+                    running.put(watcherConfig.channel(), watcher.withConfig(watcherConfig));
+                } else {
+                    LOGGER.info("Output of channel [{}] changed, replacing its watcher job after its current "
+                            + "recording.", watcherConfig.channel());
+                    retire(watcherConfig.channel());
+                    start(appConfig, watcherConfig);
+                }
+            }
+        }
+    }
+
+    /**
+     * Applies the last config again, moving the watchers after the channels assigned to this node changed.
+     */
+    public synchronized void reapply() {
+        if (current != null) apply(current);
+    }
+
+    /**
+     * Starts watching the config file for changes on a daemon thread.
+     */
+    public void watch() {
+        Thread.ofPlatform().name("config-watch").daemon(true).start(this::watchLoop);
+    }
+
+    /**
+     * Starts the watcher of a channel, once any retiring watcher of the same channel has stopped polling. The watcher
+     * is only created then, as creating it recovers the unfinished recordings of its output directory, which must not
+     * include the one the retiring watcher may still be recording.
+     * @param appConfig The app config.
+     * @param watcherConfig The watcher config.
+     */
+    private void start(AppConfig appConfig, WatcherConfig watcherConfig) {
+        String channel = watcherConfig.channel();
+        LOGGER.info("Spawning watcher job for channel [{}]", channel);
+        AdaptivePollInterval interval = new AdaptivePollInterval(watcherConfig);
+        CompletableFuture<Void> previous = retiring.getOrDefault(channel, CompletableFuture.completedFuture(null));
+        CompletableFuture<WatcherRunner> runner =
+                previous.thenApply(v -> new WatcherRunner(appConfig, watcherConfig, services));
+        CompletableFuture<WatcherScheduler.Handle> handle =
+                runner.thenApply(r -> scheduler.schedule(r::poll, interval));
+        handle.exceptionally(ex -> {
+            LOGGER.error("Failed to start the watcher job for channel [{}]", channel, ex);
+            return null;
+        });
+        running.put(channel, new Watcher(watcherConfig, runner, interval, handle));
+    }
+
+    /**
+     * Stops the polls of a channel after its current recording.
+     * @param channel The channel.
+     */
+    private void retire(String channel) {
+        Watcher watcher = running.remove(channel);
+        services.metrics().forget(channel);
+        // A watcher that failed to start has nothing to cancel.
+        CompletableFuture<Void> retired = watcher.handle().handle((handle, ex) -> handle)
+                .thenCompose(handle -> handle == null ? CompletableFuture.completedFuture(null) : handle.cancel());
+        retiring.put(channel, retired);
+        retired.thenRun(() -> {
+            synchronized (this) {
+                retiring.remove(channel, retired);
+            }
+        });
+    }
+
+    /**
+     * Waits for changes of the config file and reloads it.
+     */
+    private void watchLoop() {
+        Path directory = configFile.getParent();
+        try (WatchService watchService = directory.getFileSystem().newWatchService()) {
+            directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+            while (true) {
+                WatchKey key = watchService.take();
+                boolean changed = false;
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    // Editors often replace the file, which shows up as a create rather than a modify.
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW
+                            || configFile.getFileName().equals(event.context())) {
+                        changed = true;
+                    }
+                }
+                if (!key.reset()) {
+                    LOGGER.error("Config directory {} can no longer be watched, hot reload is disabled.", directory);
+                    return;
+                }
+                if (changed) {
+                    Thread.sleep(SETTLE);
+                    // Collapse the burst of events of one save into one reload.
+                    WatchKey pending;
+                    while ((pending = watchService.poll()) != null) {
+                        pending.pollEvents();
+                        pending.reset();
+                    }
+                    reload();
+                }
+            }
+        } catch (IOException ex) {
+            LOGGER.error("Failed to watch the config file, hot reload is disabled.", ex);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Reads the config file and applies it, keeping the running watchers if it is invalid.
+     */
+    private void reload() {
+        AppConfig appConfig;
+        try {
+            appConfig = objectMapper.readValue(configFile.toFile(), AppConfig.class);
+        } catch (JacksonException ex) {
+            LOGGER.error("Reloaded config file is invalid, keeping the running watchers.", ex);
+            return;
+        }
+        if (appConfig.watchers() == null) {
+            LOGGER.error("Reloaded config file has no watchers, keeping the running watchers.");
+            return;
+        }
+        LOGGER.info("Config file changed, reloading {} watchers.", appConfig.watchers().size());
+        apply(appConfig);
+    }
+
+    /**
+     * A running watcher.
+     * @param config The config the watcher runs with.
+     * @param runner The watcher, completed once created.
+     * @param interval The adaptive interval of the watcher.
+     * @param handle The handle of the scheduled watcher, completed once its polls are scheduled.
+     */
+    private record Watcher(WatcherConfig config, CompletableFuture<WatcherRunner> runner,
+                           AdaptivePollInterval interval, CompletableFuture<WatcherScheduler.Handle> handle) {
+
+        /**
+         * Copies the watcher with another config.
+         * @param config The new config.
+         * @return The copy.
+         */
+        Watcher withConfig(WatcherConfig config) {
+            return new Watcher(config, runner, interval, handle);
+        }
+    }
+
+}
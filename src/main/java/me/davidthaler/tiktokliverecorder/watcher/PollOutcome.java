@@ -0,0 +1,13 @@
+package me.davidthaler.tiktokliverecorder.watcher;
+
+/**
+ * Outcome of a single watcher poll.
+ */
+public enum PollOutcome {
+    /** The user was live, the recording has been run. */
+    LIVE,
+    /** The user was not live. */
+    NOT_LIVE,
+    /** The live status could not be determined. */
+    ERROR
+}
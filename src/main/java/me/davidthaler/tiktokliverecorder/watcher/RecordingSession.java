@@ -0,0 +1,220 @@
+package me.davidthaler.tiktokliverecorder.watcher;
+
+import me.davidthaler.tiktokliverecorder.config.AppConfig;
+import me.davidthaler.tiktokliverecorder.config.WatcherConfig;
+import me.davidthaler.tiktokliverecorder.postprocess.ConcatSegments;
+import me.davidthaler.tiktokliverecorder.postprocess.ConvertToMP4;
+import me.davidthaler.tiktokliverecorder.postprocess.PostProcessingJob;
+import me.davidthaler.tiktokliverecorder.transcode.TranscodeScheduler;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+
+/**
+ * File layout of one live session, which may be recorded by several ffmpeg runs or downloads when the recording is
+ * reconnected. A session recorded in one piece is a single "[name].mkv", or "[name].flv" or "[name].ts" when
+ * downloaded in-process. Segmented sessions, and sessions that had to reconnect,
+ * are recorded into a "[name].parts" directory of numbered segments that are joined into "[name].mp4" once the live
+ * has ended.
+ */
+public class RecordingSession {
+
+    /** Directory the session is recorded into. */
+    private final File outputDirectory;
+    /** Name of the session, the file name prefix and start timestamp. */
+    private final String name;
+    private final AppConfig appConfig;
+    private final WatcherConfig watcherConfig;
+    /** Number of pieces started so far. */
+    private int pieces;
+    /** Is the session recorded into a parts directory? */
+    private boolean usesParts;
+    /** Was the live encode deferred, so post-processing has to encode the recording? */
+    private boolean transcodeDeferred;
+    /** Extension of the single file, the extension of the first piece. */
+    private String singleExtension = "mkv";
+
+    /**
+     * Default constructor.
+     * @param outputDirectory Directory the session is recorded into.
+     * @param name Name of the session.
+     * @param appConfig The application config instance.
+     * @param watcherConfig The watcher config instance.
+     */
+    public RecordingSession(File outputDirectory, String name, AppConfig appConfig, WatcherConfig watcherConfig) {
+        this.outputDirectory = outputDirectory;
+        this.name = name;
+        this.appConfig = appConfig;
+        this.watcherConfig = watcherConfig;
+        this.usesParts = watcherConfig.segmented();
+    }
+
+    /**
+     * Prepares the next piece of the session and gets the ffmpeg output arguments for it.
+     * @return The ffmpeg output arguments.
+     * @throws IOException Thrown if the first piece could not be moved into the parts directory.
+     */
+    public List<String> nextPieceArgs() throws IOException {
+        if (watcherConfig.segmented()) {
+            int piece = pieces++;
+            File dir = partsDirectory();
+            dir.mkdirs();
+            return List.of("-f", "segment",
+                    "-segment_time", watcherConfig.segmentDurationSeconds().toString(),
+                    "-segment_start_number", Integer.toString(nextSegmentNumber()),
+                    "-reset_timestamps", "1",
+                    "-segment_list", segmentList(piece).getAbsolutePath(),
+                    "-segment_list_type", "csv",
+                    new File(dir, "seg_%05d.mkv").getAbsolutePath());
+        }
+        boolean first = pieces == 0;
+        File file = nextPieceFile("mkv");
+        if (first) {
+            return List.of("-strftime", "1", file.getAbsolutePath());
+        }
+        return List.of(file.getAbsolutePath());
+    }
+
+    /**
+     * Prepares the next piece of a non-segmented session and gets the file it is written to. A session that is
+     * continued moves its first piece into the parts directory, so all pieces can be joined in order.
+     * @param extension Extension of the file the piece is written to.
+     * @return The file of the piece.
+     * @throws IOException Thrown if the first piece could not be moved into the parts directory.
+     */
+    public File nextPieceFile(String extension) throws IOException {
+        int piece = pieces++;
+        if (piece == 0) {
+            singleExtension = extension;
+            return singleFile();
+        }
+        File dir = partsDirectory();
+        if (!usesParts) {
+            dir.mkdirs();
+            if (singleFile().exists()) {
+                Files.move(singleFile().toPath(), segmentFile(0, singleExtension).toPath(),
+                        StandardCopyOption.ATOMIC_MOVE);
+            }
+            usesParts = true;
+        }
+        return segmentFile(nextSegmentNumber(), extension);
+    }
+
+    /**
+     * Gets the csv segment list written by a piece of a segmented session.
+     * @param piece The piece number.
+     * @return The segment list file.
+     */
+    public File segmentList(int piece) {
+        return new File(partsDirectory(), "segments_" + piece + ".csv");
+    }
+
+    /**
+     * Gets the number of pieces started so far.
+     * @return The piece count.
+     */
+    public int pieces() {
+        return pieces;
+    }
+
+    /**
+     * Gets the output of the session.
+     * @return The parts directory if used, the single mkv file otherwise.
+     */
+    public File output() {
+        return usesParts ? partsDirectory() : singleFile();
+    }
+
+    /**
+     * Gets the size on disk of the session so far, used to detect a stalled recording.
+     * @return The size in bytes of the single file or of the newest segment, the one being written.
+     */
+    public long currentSize() {
+        if (!usesParts) return singleFile().length();
+        String[] segments = partsDirectory().list((d, n) -> n.startsWith("seg_") && ConvertToMP4.isRecording(n));
+        if (segments == null || segments.length == 0) return 0;
+        // Segment numbers are zero-padded, so the newest segment sorts last.
+        String newest = segments[0];
+        for (String segment : segments) {
+            if (segment.compareTo(newest) > 0) newest = segment;
+        }
+        return new File(partsDirectory(), newest).length();
+    }
+
+    /**
+     * Marks the live encode of the session as deferred, the session is then encoded by its post-processing job.
+     */
+    public void deferTranscode() {
+        transcodeDeferred = true;
+    }
+
+    /**
+     * Checks if the live encode of the session was deferred.
+     * @return True if post-processing has to encode the recording.
+     */
+    public boolean transcodeDeferred() {
+        return transcodeDeferred;
+    }
+
+    /**
+     * Gets the post-processing job finishing the session.
+     * @param transcodes Scheduler the encoder threads are taken from if the live encode was deferred.
+     * @return The job joining the parts, or converting the single file.
+     */
+    public PostProcessingJob finishJob(TranscodeScheduler transcodes) {
+        TranscodeScheduler encoder = transcodeDeferred ? transcodes : null;
+        if (usesParts) return new ConcatSegments(partsDirectory(), appConfig, watcherConfig, encoder);
+        return new ConvertToMP4(singleFile(), appConfig, watcherConfig, encoder);
+    }
+
+    /**
+     * Gets the base path of the session, identifying it in the recording journal.
+     * @return The output directory and session name, without extension.
+     */
+    public File base() {
+        return new File(outputDirectory, name);
+    }
+
+    /**
+     * Gets the name of the session.
+     * @return The session name.
+     */
+    public String name() {
+        return name;
+    }
+
+    private File singleFile() {
+        return new File(outputDirectory, name + "." + singleExtension);
+    }
+
+    private File partsDirectory() {
+        return new File(outputDirectory, name + ConcatSegments.SESSION_SUFFIX);
+    }
+
+    private File segmentFile(int number, String extension) {
+        return new File(partsDirectory(), String.format("seg_%05d.%s", number, extension));
+    }
+
+    /**
+     * Gets the number following the highest segment in the parts directory.
+     * @return The next segment number.
+     */
+    private int nextSegmentNumber() {
+        String[] names = partsDirectory().list((d, n) -> n.startsWith("seg_"));
+        int next = 0;
+        if (names != null) {
+            for (String n : names) {
+                try {
+                    next = Math.max(next, Integer.parseInt(n.substring(4, 9)) + 1);
+                } catch (NumberFormatException | IndexOutOfBoundsException ex) {
+                    // Not a numbered segment.
+                }
+            }
+        }
+        return next;
+    }
+
+}
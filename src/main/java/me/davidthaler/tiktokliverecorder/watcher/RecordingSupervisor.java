@@ -0,0 +1,331 @@
+package me.davidthaler.tiktokliverecorder.watcher;
+
+import me.davidthaler.tiktokliverecorder.config.AppConfig;
+import me.davidthaler.tiktokliverecorder.config.WatcherConfig;
+import me.davidthaler.tiktokliverecorder.postprocess.ConvertToMP4;
+import me.davidthaler.tiktokliverecorder.postprocess.PostProcessingJob;
+import me.davidthaler.tiktokliverecorder.postprocess.SegmentList;
+import me.davidthaler.tiktokliverecorder.process.*;
+import me.davidthaler.tiktokliverecorder.stream.StreamDownloader;
+import me.davidthaler.tiktokliverecorder.transcode.EncodeSlot;
+import org.apache.logging.log4j.ThreadContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+import java.util.function.IntFunction;
+
+/**
+ * Supervises the recording of one live session. The output growth and ffmpeg progress are watched while recording,
+ * and when no bytes arrive for the stall timeout ffmpeg is stopped. Whenever ffmpeg stops while the user is still
+ * live the stream url is resolved again and the recording continues into the next piece of the same session, so the
+ * pieces are joined back together in post-processing.
+ */
+public class RecordingSupervisor {
+
+    private final AppConfig appConfig;
+    private final WatcherConfig watcherConfig;
+    private final WatcherServices services;
+    /** Logger of the watcher. */
+    private final Logger logger;
+    /** Resolves the stream url for the given piece number, returns null if none could be found. */
+    private final IntFunction<String> urlResolver;
+    /** Checks if the user is still live. */
+    private final BooleanSupplier stillLive;
+    /** Interval the recording is checked for growth at. */
+    private static final Duration CHECK_INTERVAL = Duration.ofSeconds(1);
+    /** Time given to ffmpeg at each step of stopping it. */
+    private static final Duration STOP_GRACE = Duration.ofSeconds(5);
+    /** Consecutive pieces recording nothing after which the session is given up. */
+    private static final int MAX_EMPTY_PIECES = 5;
+
+    /**
+     * Default constructor.
+     * @param appConfig The application config instance.
+     * @param watcherConfig The watcher config instance.
+     * @param services The shared services.
+     * @param logger Logger of the watcher.
+     * @param urlResolver Resolves the stream url for the given piece number, returns null if none could be found.
+     * @param stillLive Checks if the user is still live.
+     */
+    public RecordingSupervisor(AppConfig appConfig, WatcherConfig watcherConfig, WatcherServices services,
+                               Logger logger, IntFunction<String> urlResolver, BooleanSupplier stillLive) {
+        this.appConfig = appConfig;
+        this.watcherConfig = watcherConfig;
+        this.services = services;
+        this.logger = logger;
+        this.urlResolver = urlResolver;
+        this.stillLive = stillLive;
+    }
+
+    /**
+     * Records the session until the live ends, blocking the thread while recording, then queues its post-processing.
+     * When encoding while downloading, every piece of the session takes a share of the encode budget while it records,
+     * giving it back while waiting to reconnect. Once the budget is used up the session copies the stream for the rest
+     * of the live and has its encode deferred. Nothing is recorded once the app is shutting down.
+     * @param session The session to record.
+     * @throws InterruptedException Thrown if interrupted while recording.
+     */
+    public void record(RecordingSession session) throws InterruptedException {
+        if (!services.shutdown().beginSession()) return;
+        // Keeps recovery off the files of the session until its post-processing is queued.
+        services.recordings().sessionStarted(session.base());
+        try {
+            recordSession(session);
+        } finally {
+            services.recordings().sessionEnded(session.base());
+            services.shutdown().endSession();
+        }
+    }
+
+    /**
+     * Records the session until the live ends or the app shuts down, then queues its post-processing.
+     * @param session The session to record.
+     * @throws InterruptedException Thrown if interrupted while recording.
+     */
+    private void recordSession(RecordingSession session) throws InterruptedException {
+        String channel = watcherConfig.channel();
+        List<Path> segmentJobs = new ArrayList<>();
+        int emptyPieces = 0;
+        EncodeSlot slot = acquireSlot(session);
+        services.journal().recordingStarted(session.base(), channel, session.transcodeDeferred());
+        try {
+            while (true) {
+                String url = urlResolver.apply(session.pieces());
+                if (url == null) {
+                    logger.error("No stream url could be resolved for {}.", channel);
+                    break;
+                }
+                RecordingStats stats = recordPiece(session, url, slot, segmentJobs);
+                if (stats == null) break;
+                boolean empty = stats.bytesWritten() == 0 && stats.outTimeMicros() == 0;
+                emptyPieces = empty ? emptyPieces + 1 : 0;
+                if (emptyPieces >= MAX_EMPTY_PIECES) {
+                    logger.error("Giving up on {} after {} attempts recorded nothing.", channel, emptyPieces);
+                    break;
+                }
+                if (services.shutdown().isShuttingDown()) {
+                    logger.info("Recording of {} stopped for shutdown.", channel);
+                    break;
+                }
+                if (!stillLive.getAsBoolean()) {
+                    logger.info("Live of {} has ended.", channel);
+                    break;
+                }
+                if (!services.ownership().holds(channel)) {
+                    logger.error("Not reconnecting {}, the lease of the channel was lost.", channel);
+                    break;
+                }
+                if (!services.storage().admit(session.output().getParentFile())) {
+                    logger.error("Not reconnecting {}, the disk is short of free space.", channel);
+                    break;
+                }
+                logger.warn("Recording of {} stopped while still live, reconnecting.", channel);
+                // The encoder threads are free for other recordings while waiting. A deferred slot holds no threads
+                // and is kept, the session copies until the live ends.
+                if (slot != null && !slot.deferred()) {
+                    services.transcodes().release(slot);
+                    slot = null;
+                }
+                Thread.sleep(Duration.ofSeconds(2L * emptyPieces));
+                if (slot == null) {
+                    slot = acquireSlot(session);
+                    // Entered again so the journal knows the recording has to be encoded after the live.
+                    if (slot != null && slot.deferred()) {
+                        services.journal().recordingStarted(session.base(), channel, true);
+                    }
+                }
+            }
+        } finally {
+            if (slot != null) services.transcodes().release(slot);
+            // The concat remuxes the segments left over, so it must not run alongside their own remuxes.
+            services.postProcessing().await(segmentJobs);
+            if (session.pieces() > 0) {
+                services.journal().recordingEnded(session.base());
+                services.postProcessing().submit(session.finishJob(services.transcodes()));
+            } else {
+                services.journal().dropped(session.base());
+            }
+        }
+    }
+
+    /**
+     * Takes a share of the encode budget for the next piece when encoding while downloading, deferring the encode of
+     * the session if the budget is used up.
+     * @param session The session.
+     * @return The slot of the piece, null if not encoding while downloading.
+     */
+    private EncodeSlot acquireSlot(RecordingSession session) {
+        if (!appConfig.encodeWhileDownloading()) return null;
+        EncodeSlot slot = services.transcodes().acquire();
+        if (slot.deferred()) {
+            logger.warn("Encode budget is used up, copying {} and encoding it after the live.",
+                    watcherConfig.channel());
+            session.deferTranscode();
+        }
+        return slot;
+    }
+
+    /**
+     * Records one piece of the session until the recording ends or stalls. Copy mode recordings without segments are
+     * downloaded in-process when the native downloader is enabled, everything else is recorded by ffmpeg.
+     * @param session The session.
+     * @param url The stream url.
+     * @param slot The encode slot of the session, null if not encoding while downloading.
+     * @param segmentJobs Keys of the segment remuxes queued for the session, those of this piece are added.
+     * @return The stats of the piece, or null if the recording could not be started.
+     * @throws InterruptedException Thrown if interrupted while recording.
+     */
+    private RecordingStats recordPiece(RecordingSession session, String url, EncodeSlot slot,
+                                       List<Path> segmentJobs) throws InterruptedException {
+        boolean copying = slot == null || slot.deferred();
+        if (appConfig.nativeDownloader() && copying && !watcherConfig.segmented()) {
+            return downloadPiece(session, url);
+        }
+        String channel = watcherConfig.channel();
+        int piece = session.pieces();
+        Process p;
+        List<String> params = new ArrayList<>();
+        try {
+            // Progress goes to stdout as key=value lines, stderr only carries log messages.
+            params.addAll(List.of(appConfig.ffmpegPath(), "-progress", "pipe:1", "-nostats", "-i", url));
+            params.addAll(copying ? List.of("-c", "copy") : slot.recordingArgs());
+            params.addAll(session.nextPieceArgs());
+            logger.info("Starting process: {}", String.join(" ", params));
+            p = new ProcessBuilder(params).start();
+        } catch (IOException ex) {
+            logger.error("Error occurred while setting up recording of live stream.", ex);
+            return null;
+        }
+        File output = session.output();
+        RecordingStats stats = new RecordingStats(channel, output.toPath());
+        LineSink errorSink = LineSink.DISCARD;
+        if (watcherConfig.logFfmpegOutput()) {
+            ThreadContext.put("ffmpegFileName", output.getAbsolutePath());
+            errorSink = new LineLogger(LoggerFactory.getLogger("ffmpeg")::error);
+        }
+        ProcessOutputPump.start(services.scheduler().threads(), p, "ffmpeg-" + channel, new ProgressParser(stats),
+                errorSink);
+        ThreadContext.remove("ffmpegFileName");
+        if (!watcherConfig.segmented()) return supervise(RecordingHandle.of(p), stats, session, () -> { });
+        SegmentList segments = new SegmentList(output.toPath(), session.segmentList(piece).toPath());
+        Runnable queueClosedSegments = () -> queueSegments(segments.closedSince(), session, segmentJobs);
+        try {
+            return supervise(RecordingHandle.of(p), stats, session, queueClosedSegments);
+        } finally {
+            // Picks up the last segment, closed when ffmpeg exited.
+            queueClosedSegments.run();
+        }
+    }
+
+    /**
+     * Journals segments closed by ffmpeg and queues their remux to mp4 with post-processing.
+     * @param closed The closed segments.
+     * @param session The session.
+     * @param segmentJobs Keys of the segment remuxes queued for the session, the new ones are added.
+     */
+    private void queueSegments(List<Path> closed, RecordingSession session, List<Path> segmentJobs) {
+        for (Path segment : closed) {
+            services.journal().segmentClosed(session.base(), segment);
+            PostProcessingJob job = new ConvertToMP4(segment.toFile(), appConfig, watcherConfig);
+            services.postProcessing().submitSegment(job);
+            segmentJobs.add(job.key());
+        }
+    }
+
+    /**
+     * Downloads one piece of the session in-process until the stream ends or stalls.
+     * @param session The session.
+     * @param url The stream url.
+     * @return The stats of the piece, or null if the download could not be started.
+     * @throws InterruptedException Thrown if interrupted while recording.
+     */
+    private RecordingStats downloadPiece(RecordingSession session, String url) throws InterruptedException {
+        RecordingStats stats;
+        RecordingHandle handle;
+        try {
+            File output = session.nextPieceFile(StreamDownloader.extension(url));
+            stats = new RecordingStats(watcherConfig.channel(), output.toPath());
+            logger.info("Starting download of {} to {}", url, output);
+            handle = services.downloader().start(url, output.toPath(), stats);
+        } catch (IOException | IllegalArgumentException ex) {
+            logger.error("Error occurred while setting up recording of live stream.", ex);
+            return null;
+        }
+        return supervise(handle, stats, session, () -> { });
+    }
+
+    /**
+     * Registers a started recording and watches it until it ends. The shutdown coordinator stops it if the app shuts
+     * down, or if the shutdown already started it is stopped straight away.
+     * @param handle The handle of the recording.
+     * @param stats The stats of the piece.
+     * @param session The session.
+     * @param onCheck Called at every check of the recording.
+     * @return The stats of the piece.
+     * @throws InterruptedException Thrown if interrupted while recording.
+     */
+    private RecordingStats supervise(RecordingHandle handle, RecordingStats stats, RecordingSession session,
+                                     Runnable onCheck) throws InterruptedException {
+        if (!services.shutdown().attach(handle)) {
+            handle.stop(STOP_GRACE);
+            return stats;
+        }
+        services.recordings().register(stats);
+        try {
+            watch(handle, stats, session, onCheck);
+        } finally {
+            services.recordings().unregister(stats);
+            services.shutdown().detach(handle);
+        }
+        return stats;
+    }
+
+    /**
+     * Waits for the recording to end, stopping it if neither its progress nor the output size grow for the stall
+     * timeout, or if the lease of the channel is lost to another node.
+     * @param handle The handle of the recording.
+     * @param stats The stats of the piece.
+     * @param session The session.
+     * @param onCheck Called at every check of the recording.
+     * @throws InterruptedException Thrown if interrupted while waiting.
+     */
+    private void watch(RecordingHandle handle, RecordingStats stats, RecordingSession session, Runnable onCheck)
+            throws InterruptedException {
+        long stallTimeout = Duration.ofSeconds(watcherConfig.stallTimeoutSeconds()).toMillis();
+        long lastBytes = -1;
+        long lastOutTime = -1;
+        long lastSize = -1;
+        long lastGrowth = System.currentTimeMillis();
+        while (!handle.waitFor(CHECK_INTERVAL)) {
+            onCheck.run();
+            long bytes = stats.bytesWritten();
+            long outTime = stats.outTimeMicros();
+            long size = session.currentSize();
+            long now = System.currentTimeMillis();
+            if (bytes != lastBytes || outTime != lastOutTime || size != lastSize) {
+                lastBytes = bytes;
+                lastOutTime = outTime;
+                lastSize = size;
+                lastGrowth = now;
+            } else if (now - lastGrowth > stallTimeout) {
+                logger.warn("No bytes received for {} for {} seconds, restarting the recording.",
+                        watcherConfig.channel(), watcherConfig.stallTimeoutSeconds());
+                handle.stop(STOP_GRACE);
+                return;
+            }
+            if (!services.ownership().holds(watcherConfig.channel())) {
+                logger.error("Lease of {} was lost, stopping the recording.", watcherConfig.channel());
+                handle.stop(STOP_GRACE);
+                return;
+            }
+        }
+    }
+
+}
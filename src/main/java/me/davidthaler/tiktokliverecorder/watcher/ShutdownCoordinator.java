@@ -0,0 +1,209 @@
+package me.davidthaler.tiktokliverecorder.watcher;
+
+import me.davidthaler.tiktokliverecorder.journal.RecordingJournal;
+import me.davidthaler.tiktokliverecorder.postprocess.PostProcessingService;
+import me.davidthaler.tiktokliverecorder.process.RecordingHandle;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Single shutdown hook of the app, draining everything in parallel under one deadline. Polling is stopped first, then
+ * every active recording is asked to finish its output at once and all of them are waited for together. A recording
+ * still running at half the deadline is stopped again and escalated to SIGTERM and then SIGKILL by the deadline. The
+ * running conversions get the same deadline before they are interrupted, and whatever is left unconverted stays
+ * pending in the recording journal for the next start.
+ */
+public class ShutdownCoordinator {
+
+    /** Scheduler of the watcher polls. */
+    private final WatcherScheduler scheduler;
+    /** The post-processing service. */
+    private final PostProcessingService postProcessing;
+    /** Journal of the recordings still needing work. */
+    private final RecordingJournal journal;
+    /** Time the whole shutdown may take. */
+    private final Duration deadline;
+    /** Handles of the active recordings. */
+    private final Set<RecordingHandle> handles = ConcurrentHashMap.newKeySet();
+    /** Steps run once the recordings have ended, such as leaving the cluster. */
+    private final List<Runnable> finalSteps = new ArrayList<>();
+    /** Number of sessions being recorded. */
+    private int sessions;
+    /** Has the shutdown started? */
+    private volatile boolean shuttingDown;
+    /** Time given to the supervisors to record the end of their sessions once the recordings stopped. */
+    private static final Duration SESSION_END_GRACE = Duration.ofSeconds(1);
+    /** Logger instance. */
+    private static final Logger LOGGER = LoggerFactory.getLogger(ShutdownCoordinator.class);
+
+    /**
+     * Default constructor.
+     * @param scheduler The scheduler of the watcher polls.
+     * @param postProcessing The post-processing service.
+     * @param journal The journal of the recordings still needing work.
+     * @param deadline Time the whole shutdown may take.
+     */
+    public ShutdownCoordinator(WatcherScheduler scheduler, PostProcessingService postProcessing,
+                               RecordingJournal journal, Duration deadline) {
+        this.scheduler = scheduler;
+        this.postProcessing = postProcessing;
+        this.journal = journal;
+        this.deadline = deadline;
+    }
+
+    /**
+     * Registers the shutdown hook.
+     */
+    public void install() {
+        Runtime.getRuntime().addShutdownHook(new Thread(this::shutdown, "shutdown"));
+    }
+
+    /**
+     * Adds a step run at the end of the shutdown, once the recordings have ended.
+     * @param step The step.
+     */
+    public synchronized void addFinalStep(Runnable step) {
+        finalSteps.add(step);
+    }
+
+    /**
+     * Checks if the app is shutting down, in which case no recording is started or reconnected.
+     * @return True if shutting down.
+     */
+    public boolean isShuttingDown() {
+        return shuttingDown;
+    }
+
+    /**
+     * Marks the start of a recorded session, which the shutdown waits for to end.
+     * @return False if shutting down and the session must not be recorded.
+     */
+    public synchronized boolean beginSession() {
+        if (shuttingDown) return false;
+        sessions++;
+        return true;
+    }
+
+    /**
+     * Marks the end of a session begun, after its end was written to the journal.
+     */
+    public synchronized void endSession() {
+        sessions--;
+        notifyAll();
+    }
+
+    /**
+     * Registers a started recording, so it is stopped on shutdown.
+     * @param handle The handle of the recording.
+     * @return False if already shutting down, the caller must then stop the recording itself.
+     */
+    public synchronized boolean attach(RecordingHandle handle) {
+        if (shuttingDown) return false;
+        handles.add(handle);
+        return true;
+    }
+
+    /**
+     * Unregisters a recording that has ended.
+     * @param handle The handle of the recording.
+     */
+    public void detach(RecordingHandle handle) {
+        handles.remove(handle);
+    }
+
+    /**
+     * Runs the shutdown.
+     */
+    private void shutdown() {
+        long deadlineNanos = System.nanoTime() + deadline.toNanos();
+        List<RecordingHandle> stopping;
+        List<Runnable> steps;
+        synchronized (this) {
+            shuttingDown = true;
+            stopping = new ArrayList<>(handles);
+            steps = new ArrayList<>(finalSteps);
+        }
+        scheduler.shutdown();
+        LOGGER.info("Shutting down, stopping {} recordings.", stopping.size());
+        for (RecordingHandle handle : stopping) {
+            try {
+                handle.requestStop();
+            } catch (IOException ex) {
+                LOGGER.warn("Failed to ask a recording to stop, escalating later.", ex);
+            }
+        }
+        List<Thread> waiters = new ArrayList<>();
+        for (RecordingHandle handle : stopping) {
+            waiters.add(scheduler.startHelper("shutdown-wait", () -> awaitOrEscalate(handle, deadlineNanos)));
+        }
+        // Conversions run on their own workers, so they are drained while the recordings are stopping.
+        Thread conversions = scheduler.startHelper("shutdown-conversions",
+                () -> postProcessing.shutdown(remaining(deadlineNanos)));
+        try {
+            for (Thread waiter : waiters) waiter.join();
+            awaitSessions(deadlineNanos + SESSION_END_GRACE.toNanos());
+            conversions.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        for (Runnable step : steps) {
+            try {
+                step.run();
+            } catch (RuntimeException ex) {
+                LOGGER.error("Shutdown step failed.", ex);
+            }
+        }
+        LOGGER.info("Shutdown finished, {} recordings are left pending in the journal for the next start.",
+                journal.pendingCount());
+    }
+
+    /**
+     * Waits for a recording to end, escalating if it is still running at half the deadline.
+     * @param handle The handle of the recording.
+     * @param deadlineNanos The deadline, in {@link System#nanoTime()}.
+     */
+    private void awaitOrEscalate(RecordingHandle handle, long deadlineNanos) {
+        try {
+            Duration left = remaining(deadlineNanos);
+            if (handle.waitFor(left.dividedBy(2))) return;
+            // Asks again, then SIGTERM and SIGKILL, each a quarter of the deadline apart.
+            handle.stop(remaining(deadlineNanos).dividedBy(2));
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Waits for the supervisors to record the end of their sessions.
+     * @param deadlineNanos The deadline, in {@link System#nanoTime()}.
+     * @throws InterruptedException Thrown if interrupted while waiting.
+     */
+    private synchronized void awaitSessions(long deadlineNanos) throws InterruptedException {
+        while (sessions > 0) {
+            long left = remaining(deadlineNanos).toMillis();
+            if (left <= 0) {
+                LOGGER.warn("{} sessions did not end in time, the journal resumes them on the next start.",
+                        sessions);
+                return;
+            }
+            wait(left);
+        }
+    }
+
+    /**
+     * Gets the time left until a deadline.
+     * @param deadlineNanos The deadline, in {@link System#nanoTime()}.
+     * @return The time left, zero if passed.
+     */
+    private static Duration remaining(long deadlineNanos) {
+        return Duration.ofNanos(Math.max(0, deadlineNanos - System.nanoTime()));
+    }
+
+}
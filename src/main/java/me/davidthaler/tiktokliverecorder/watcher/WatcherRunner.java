@@ -2,25 +2,31 @@ package me.davidthaler.tiktokliverecorder.watcher;
 
 import me.davidthaler.tiktokliverecorder.config.AppConfig;
 import me.davidthaler.tiktokliverecorder.config.WatcherConfig;
+import me.davidthaler.tiktokliverecorder.http.ThrottledHttpClient;
+import me.davidthaler.tiktokliverecorder.metrics.MetricsRegistry;
+import me.davidthaler.tiktokliverecorder.status.LiveStatusChecker;
+import me.davidthaler.tiktokliverecorder.status.MalformedResponseException;
+import me.davidthaler.tiktokliverecorder.status.RoomIdCache;
+import me.davidthaler.tiktokliverecorder.status.RoomStatus;
+import me.davidthaler.tiktokliverecorder.status.StatusResponseDecoder;
+import me.davidthaler.tiktokliverecorder.stream.StreamUrlService;
 import org.apache.logging.log4j.ThreadContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import tools.jackson.databind.ObjectMapper;
 
-import java.io.*;
+import java.io.File;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URLEncoder;
-import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
-import java.net.http.HttpResponse;
 import java.nio.charset.Charset;
 import java.time.Duration;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * Runnable implementation for watching for live status and recording when live.
@@ -29,61 +35,73 @@ public class WatcherRunner implements Runnable {
 
     /** Application config for context. */
     private final AppConfig appConfig;
-    /** Watcher config for this watcher instance. */
-    private final WatcherConfig watcherConfig;
-    /** Http client instance. */
-    private final HttpClient httpClient;
-    /** Object mapper instance. */
-    private final ObjectMapper objectMapper;
+    /** Watcher config for this watcher instance, replaced in place on a config reload. */
+    private volatile WatcherConfig watcherConfig;
+    /** Throttled http client instance. */
+    private final ThrottledHttpClient httpClient;
+    /** Decoder of the status responses. */
+    private final StatusResponseDecoder decoder;
+    /** Shared service batching the live status checks. */
+    private final LiveStatusChecker statusChecker;
+    /** Shared cache of the resolved room ids. */
+    private final RoomIdCache roomIdCache;
+    /** Shared cached resolution of the stream urls. */
+    private final StreamUrlService streamUrls;
     /** Pre-built request for getting the url to then query live status. */
     private final HttpRequest signedUrlGetter;
     /** Output directory for this recorder instance. */
     private final File OUTPUT_DIRECTORY;
-    /** Instance of the Convert to MP4 runner to be executed after every recording. */
-    private final ConvertToMP4 CONVERTER_JOB_RUNNER;
+    /** Services shared by all watchers. */
+    private final WatcherServices services;
+    /** Polls since the room id was last resolved, it is resolved again once this reaches the refresh polls. */
+    private int pollsSinceResolve;
     /** Logger instance for the specific watcher instance. */
     private Logger logger;
-    /** Api url to fetch the signed url for the live status. */
-    private static final String SIGNED_URL_GETTER_URL =
-        "https://tikrec.com/tiktok/room/api/sign?unique_id=";
     /** Date formatter for putting timestamps on file names. */
     private static final DateTimeFormatter DATE_FORMATTER =
         DateTimeFormatter.ofPattern("yyyy-MM-dd_HH-mm-ss");
     private static final Duration TIMEOUT_DURATION = Duration.ofSeconds(10);
+    /** Maximum time a whole status check may take, covering all hops and any rate limiting. */
+    private static final Duration STATUS_TIMEOUT = Duration.ofSeconds(45);
 
     /**
      * Default constructor.
      * @param appConfig The app config instance.
      * @param watcherConfig The watcher config instance.
-     * @param httpClient The http client instance.
-     * @param objectMapper The object mapper instance.
+     * @param services The services shared by all watchers.
      */
-    public WatcherRunner(AppConfig appConfig, WatcherConfig watcherConfig, HttpClient httpClient,
-                         ObjectMapper objectMapper) {
+    public WatcherRunner(AppConfig appConfig, WatcherConfig watcherConfig, WatcherServices services) {
         this.appConfig = appConfig;
         this.watcherConfig = watcherConfig;
-        this.httpClient = httpClient;
-        this.objectMapper = objectMapper;
+        this.httpClient = services.httpClient();
+        this.decoder = services.decoder();
+        this.statusChecker = services.statusChecker();
+        this.roomIdCache = services.roomIdCache();
+        this.streamUrls = services.streamUrls();
+        this.services = services;
         try {
             signedUrlGetter = HttpRequest.newBuilder(
-                    new URI(SIGNED_URL_GETTER_URL +
+                    new URI(appConfig.signerUrl() +
                             URLEncoder.encode(watcherConfig.channel(), Charset.defaultCharset())))
                     .timeout(TIMEOUT_DURATION).build();
         } catch (URISyntaxException e) {
             throw new RuntimeException(e);
         }
-        String outPath = watcherConfig.outputPath();
-        if (outPath == null || outPath.isEmpty()) {
-            outPath = "out/" + watcherConfig.channel();
-        }
-        if (outPath.charAt(outPath.length() - 1) != '/') {
-            outPath += "/";
-        }
-        OUTPUT_DIRECTORY = new File(outPath);
+        OUTPUT_DIRECTORY = watcherConfig.outputDirectory();
         OUTPUT_DIRECTORY.mkdirs();
-        CONVERTER_JOB_RUNNER = new ConvertToMP4(OUTPUT_DIRECTORY, appConfig, watcherConfig);
-        // Cleanup anything left over.
-        new Thread(CONVERTER_JOB_RUNNER).start();
+        services.storage().register(watcherConfig);
+        // Resume anything left over.
+        services.postProcessing().recover(OUTPUT_DIRECTORY, appConfig, watcherConfig);
+    }
+
+    /**
+     * Applies a reloaded config of the same channel and output directory. The next poll and recording use it, a
+     * recording in progress keeps the config it was started with.
+     * @param watcherConfig The reloaded watcher config.
+     */
+    public void update(WatcherConfig watcherConfig) {
+        this.watcherConfig = watcherConfig;
+        services.storage().register(watcherConfig);
     }
 
     /**
@@ -91,21 +109,33 @@ public class WatcherRunner implements Runnable {
      */
     @Override
     public void run() {
+        poll();
+    }
+
+    /**
+     * Checks if the user is live and if it is, begins a blocking recording.
+     * @return The outcome of the poll.
+     */
+    public PollOutcome poll() {
             try {
                 String channel = watcherConfig.channel();
+                // Polls may land on a different (virtual) thread every time, so the context is set on each run.
+                Thread.currentThread().setName("w-" + channel);
+                ThreadContext.put("channel", channel);
                 if (logger == null) {
-                    Thread.currentThread().setName("w-" + channel);
-                    ThreadContext.put("channel", channel);
                     logger = LoggerFactory.getLogger("watcher");
                 }
-                if (userIsLive()) {
+                PollOutcome outcome = checkLive();
+                services.metrics().poll(channel, outcome.name());
+                if (outcome == PollOutcome.LIVE) {
                     logger.info("User {} is live.", channel);
                     startRecording();
-                } else {
-                    logger.info("User {} is NOT live, checking again in {} {}.",
-                            channel, watcherConfig.pollIntervalQty(), watcherConfig.pollIntervalUnit());
+                } else if (outcome == PollOutcome.NOT_LIVE) {
+                    logger.info("User {} is NOT live.", channel);
                 }
+                return outcome;
             } catch (Throwable ex) {
+                services.metrics().pollError("unhandled");
                 if (logger != null) {
                     logger.error("Unhandled exception was caught.", ex);
                 } else {
@@ -113,193 +143,138 @@ public class WatcherRunner implements Runnable {
                     ex.printStackTrace();
                 }
             }
+            return PollOutcome.ERROR;
     }
 
     /**
-     * Checks if the user for this watcher is live.
-     * @return True if the user is live, false otherwise.
-     * @throws IOException Thrown on error during http call.
-     * @throws InterruptedException Thrown on error during http call.
-     * @throws URISyntaxException Thrown if unable to construct the URI instance.
+     * Checks if the user for this watcher is live. The room id lookup and the status check run as one non-blocking
+     * pipeline, the watcher thread only waits for its final result. The resolved room id is cached whether the user
+     * is live or not, so most polls of a channel only check its cached room. A user can go live in a new room, so the
+     * room id is resolved again once its cache entry expires or every few polls, whichever comes first.
+     * @return LIVE if the user is live, NOT_LIVE if not and ERROR if the status could not be determined.
      */
-    private boolean userIsLive() {
-        HttpResponse<String> response = null;
+    private PollOutcome checkLive() {
+        String channel = watcherConfig.channel();
+        String cachedRoomId = roomIdCache.get(channel);
+        boolean resolve = cachedRoomId == null || ++pollsSinceResolve >= appConfig.roomIdRefreshPolls();
+        CompletableFuture<LiveCheck> check = resolve
+                ? resolveRoomId().thenCompose(this::checkRoom)
+                : checkRoom(cachedRoomId);
         try {
-            response = httpClient.send(signedUrlGetter, HttpResponse.BodyHandlers.ofString());
-            Map<String, Object> signedResponse = objectMapper.readValue(response.body(), Map.class);
-            String signedUrl = signedResponse.get("signed_url").toString();
-            response = httpClient.send(
-                    HttpRequest.newBuilder(new URI(signedUrl)).timeout(TIMEOUT_DURATION).build(),
-                    HttpResponse.BodyHandlers.ofString());
-            Map<String, Object> responseBody = objectMapper.readValue(response.body(), Map.class);
-            if (((String) responseBody.getOrDefault("message", "empty"))
-                    .equalsIgnoreCase("user_not_found")) {
+            LiveCheck result = check.get(STATUS_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+            if (result.roomId() == null) {
                 logger.error("User {} was reported as not found. " +
                         "If this is the first time watching this user then this message may be correct. " +
                         "If seen randomly, this could be a sign of a time out and this message can be ignored.",
-                        watcherConfig.channel());
-                return false;
+                        channel);
+                roomIdCache.invalidate(channel);
+                services.metrics().pollError("user_not_found");
+                return PollOutcome.ERROR;
+            }
+            if (resolve) {
+                roomIdCache.put(channel, result.roomId());
+                pollsSinceResolve = 0;
             }
-            String roomId = ((Map) ((Map) responseBody.getOrDefault("data", Map.of()))
-                    .getOrDefault("user", Map.of())).getOrDefault("roomId", "NULL").toString();
-            if (roomId.equals("NULL")) roomId = null;
-            response = httpClient.send(HttpRequest.newBuilder(
-                    new URI("https://webcast.tiktok.com/webcast/room/check_alive/?aid=1988&region=CH&room_ids="
-                            + roomId + "&user_is_login=true")).timeout(TIMEOUT_DURATION).build(),
-                    HttpResponse.BodyHandlers.ofString());
-            responseBody = objectMapper.readValue(response.body(), Map.class);
-            return Boolean.parseBoolean(((List<Map>) responseBody.get("data")).getFirst().get("alive").toString());
-        } catch (IOException | URISyntaxException | InterruptedException ex) {
+            return result.status() == RoomStatus.ALIVE ? PollOutcome.LIVE : PollOutcome.NOT_LIVE;
+        } catch (ExecutionException ex) {
+            // A room missing from the check_alive response is unknown or no longer valid, so it is looked up again.
+            if (ex.getCause() instanceof MalformedResponseException) roomIdCache.invalidate(channel);
+            services.metrics().pollError(ex.getCause().getClass().getSimpleName());
+            logger.error("Error occurred while querying for live status.", ex.getCause());
+        } catch (InterruptedException | TimeoutException ex) {
+            check.cancel(true);
+            services.metrics().pollError(ex instanceof TimeoutException ? "timeout" : "interrupted");
             logger.error("Error occurred while querying for live status.", ex);
-        } catch (ClassCastException | NullPointerException ex) {
-            // Should never happen
-            if (response == null) throw ex;
-            logger.error("Error occurred reading response from status check, failure processing body: "
-                    + response.body(), ex);
         }
-        return false;
+        return PollOutcome.ERROR;
     }
 
     /**
-     * Starts recording the live and blocks the thread while recording.
+     * Checks the live status of a room through the shared batched status check.
+     * @param roomId The room id, empty if the user has no room or null if the user was not found.
+     * @return Future completed with the result, not alive without any call if there is no room to check.
      */
-    private void startRecording() {
-        try {
-            String url = getRecordingUrl();
-            String ffmpeg = appConfig.ffmpegPath();
-            if (ffmpeg == null || ffmpeg.isEmpty()) {
-                ffmpeg = "ffmpeg";
-            }
-            String filenamePrefix = watcherConfig.outputFilenamePrefix();
-            if (filenamePrefix == null || filenamePrefix.isEmpty()) {
-                filenamePrefix = watcherConfig.channel();
-            }
-            LocalDateTime dateTime = LocalDateTime.now();
-            filenamePrefix += "_" + dateTime.format(DATE_FORMATTER) + ".mkv";
-            File outFile = new File(OUTPUT_DIRECTORY, filenamePrefix);
-            List<String> params = new ArrayList<>();
-            params.addAll(List.of(ffmpeg, "-i", url));
-            List<String> copyParams;
-            if (appConfig.encodeWhileDownloading()) {
-                copyParams = List.of("-c:v", "libx264", "-c:a", "aac");
-            } else {
-                copyParams = List.of("-c", "copy");
-            }
-            params.addAll(copyParams);
-            String fileName = outFile.getAbsolutePath();
-            params.addAll(List.of("-strftime", "1", fileName));
-            ProcessBuilder pb = new ProcessBuilder(params);
-            final StringBuilder sb = new StringBuilder();
-            pb.command().forEach(s -> sb.append(s).append(" "));
-            logger.info("Starting process: {}", sb);
-            final Process p = pb.start();
-            if (watcherConfig.logFfmpegOutput()) {
-                ThreadContext.put("ffmpegFileName", fileName);
-                final Logger ffmpegLog = LoggerFactory.getLogger("ffmpeg");
-                new Thread(new ProcessLogger(p.getInputStream(), fileName, ffmpegLog, false)).start();
-                new Thread(new ProcessLogger(p.getErrorStream(), fileName, ffmpegLog, true)).start();
-            }
-            Thread hook = new Thread(() -> {
-                try {
-                    String channel = watcherConfig.channel();
-                    ThreadContext.put("channel", channel);
-                    logger.info("Gracefully shutting down recording for {}.", channel);
-                    p.getOutputStream().write("q\n".getBytes());
-                    p.getOutputStream().flush();
-                } catch (IOException ex) {
-                    logger.error("Error occurred while gracefully shutting down ffmpeg.", ex);
-                }
-            });
-            Runtime.getRuntime().addShutdownHook(hook);
-            p.waitFor();
-            Runtime.getRuntime().removeShutdownHook(hook);
-            new Thread(CONVERTER_JOB_RUNNER).start();
-        } catch (InterruptedException | IOException ex) {
-            logger.error("Error occurred while setting up/recording live stream.", ex);
+    private CompletableFuture<LiveCheck> checkRoom(String roomId) {
+        if (roomId == null || roomId.isEmpty()) {
+            return CompletableFuture.completedFuture(new LiveCheck(roomId, RoomStatus.NOT_ALIVE));
         }
+        return statusChecker.check(roomId).thenApply(status -> new LiveCheck(roomId, status));
     }
 
     /**
-     * Gets the url for recording the stream. Uses yt-dlp to get the url, expects the first line of output to be the
-     * url.
-     * @return The url for recording the stream.
-     * @throws IOException Thrown if an error occurs while executing yt-dlp.
+     * Resolves the current room id of the user through the signer and the signed user lookup.
+     * @return Future completed with the room id, an empty string if the user currently has no room or null if the
+     * user was not found.
      */
-    private String getRecordingUrl() throws IOException {
-        String url = null;
-        String ytdlp = appConfig.ytdlpPath();
-        if (ytdlp == null || ytdlp.isEmpty()) {
-            ytdlp = "yt-dlp";
+    private CompletableFuture<String> resolveRoomId() {
+        MetricsRegistry metrics = services.metrics();
+        return metrics.timeHop("sign", () -> httpClient.sendAndDecode(signedUrlGetter, decoder::decodeSignedUrl))
+                .thenCompose(signedUrl -> metrics.timeHop("user_lookup", () -> httpClient.sendAndDecode(
+                        HttpRequest.newBuilder(URI.create(signedUrl)).timeout(TIMEOUT_DURATION).build(),
+                        decoder::decodeUserRoom)))
+                .thenApply(userRoom -> {
+                    if (userRoom.userNotFound()) return null;
+                    // A live user's lookup already carries the pull urls, so going live needs no further lookup.
+                    streamUrls.offerStreamData(userRoom.roomId(), userRoom.streamData());
+                    return userRoom.roomId() == null ? "" : userRoom.roomId();
+                });
+    }
+
+    /**
+     * Starts recording the live and blocks the thread while recording, reconnecting for as long as the user stays
+     * live. Nothing is recorded while the disk is short of free space or while another node of the cluster records
+     * the channel, the next poll tries again.
+     */
+    private void startRecording() {
+        if (!services.storage().admit(OUTPUT_DIRECTORY)) {
+            logger.error("Not recording {}, the disk of {} is short of free space.", watcherConfig.channel(),
+                    OUTPUT_DIRECTORY);
+            return;
         }
-        // Give it multiple tries, seems that yt-dlp sometimes randomly returns null.
-        for (int i = 0; i < 5; i++ ) {
-            Process p = new ProcessBuilder(ytdlp, "-g", "https://www.tiktok.com/@"
-                    + watcherConfig.channel() + "/live").start();
-            try (BufferedReader br = new BufferedReader(new InputStreamReader(p.getInputStream()))) {
-                url = br.readLine();
-                if (url != null) {
-                    break;
-                }
-            }
+        if (!services.ownership().acquire(watcherConfig.channel())) {
+            logger.info("Not recording {}, another node is recording it.", watcherConfig.channel());
+            return;
+        }
+        String filenamePrefix = watcherConfig.outputFilenamePrefix();
+        if (filenamePrefix == null || filenamePrefix.isEmpty()) {
+            filenamePrefix = watcherConfig.channel();
+        }
+        LocalDateTime dateTime = LocalDateTime.now();
+        filenamePrefix += "_" + dateTime.format(DATE_FORMATTER);
+        RecordingSession session = new RecordingSession(OUTPUT_DIRECTORY, filenamePrefix, appConfig, watcherConfig);
+        RecordingSupervisor supervisor = new RecordingSupervisor(appConfig, watcherConfig, services, logger,
+                piece -> resolveRecordingUrl(piece > 0), () -> checkLive() == PollOutcome.LIVE);
+        try {
+            supervisor.record(session);
+        } catch (InterruptedException ex) {
+            logger.error("Error occurred while recording live stream.", ex);
+        } finally {
+            services.ownership().release(watcherConfig.channel());
         }
-        return url;
     }
 
     /**
-     * Runnable class for logging a processes input stream.
+     * Resolves the stream url through the shared stream url service.
+     * @param reconnect Is this a reconnect? The cached url of the room is dropped first, as it stopped delivering.
+     * @return The url for recording the stream, or null if none could be resolved.
      */
-    private class ProcessLogger implements Runnable {
-
-        /** The input stream to log. */
-        private final InputStream inputStream;
-        /** The file name for the thread context. */
-        private final String fileName;
-        /** The logger instance to write to. */
-        private final Logger logger;
-        /** Is this reporting an error stream or not? */
-        private final boolean error;
-
-        /**
-         * Default constructor.
-         * @param inputStream The input stream to read.
-         * @param fileName The file name for context.
-         * @param logger The logger instance to write to.
-         * @param error Is this an error stream being reported?
-         */
-        public ProcessLogger(InputStream inputStream, String fileName, Logger logger, boolean error) {
-            this.inputStream = inputStream;
-            this.fileName = fileName;
-            this.logger = logger;
-            this.error = error;
+    private String resolveRecordingUrl(boolean reconnect) {
+        String roomId = roomIdCache.get(watcherConfig.channel());
+        if (reconnect) streamUrls.invalidate(roomId);
+        try {
+            return streamUrls.resolve(watcherConfig.channel(), roomId);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return null;
         }
+    }
 
-        /**
-         * Listens to the input stream and writes the output to the log.
-         */
-        @Override
-        public void run() {
-            ThreadContext.put("ffmpegFileName", fileName);
-            try (BufferedReader br = new BufferedReader(new InputStreamReader(inputStream))) {
-                String line;
-                while ((line = br.readLine()) != null) {
-                    if (line.trim().isEmpty()) continue;
-                    // Skip progress lines like: frame=... fps=... size=... time=...
-                    if (line.startsWith("frame=") || line.startsWith("size=") || line.startsWith("time=") || line.startsWith("bitrate=")) {
-                        continue;
-                    }
-                    // Skip \r-only updates
-                    if (!line.contains("\r")) {
-                        if (error) {
-                            logger.error(line);
-                        } else {
-                            logger.info(line);
-                        }
-                    }
-                }
-            } catch (IOException ex) {
-                logger.error("Error while writing log stream.", ex);
-            }
-        }
+    /**
+     * Result of a live status check.
+     * @param roomId The room id checked, empty if the user has no room or null if the user was not found.
+     * @param status The status of the room.
+     */
+    private record LiveCheck(String roomId, RoomStatus status) {
     }
 
 }
@@ -0,0 +1,147 @@
+package me.davidthaler.tiktokliverecorder.watcher;
+
+import me.davidthaler.tiktokliverecorder.process.HelperThreads;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Schedules the watcher polls. A single timer thread fires the polls and hands each one to the worker executor, which
+ * creates a virtual thread per poll by default. A recording blocks only its own worker, so threads and stack memory
+ * scale with the number of live channels instead of the number of configured channels. With virtual threads turned
+ * off the workers are a pool of platform threads growing with the polls and recordings running at once, so watchers
+ * added by a config reload get threads too.
+ */
+public class WatcherScheduler {
+
+    /** Timer firing the polls, never runs any blocking work itself. */
+    private final ScheduledExecutorService timer;
+    /** Executor running the polls and the recordings they start. */
+    private final ExecutorService workers;
+    /** Creates the worker and helper threads. */
+    private final HelperThreads threads;
+
+    /**
+     * Default constructor.
+     * @param threads Creates the worker and helper threads, virtual or platform threads as configured.
+     */
+    public WatcherScheduler(HelperThreads threads) {
+        this.timer = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("poll-timer").factory());
+        this.threads = threads;
+        this.workers = threads.executor("w-");
+    }
+
+    /**
+     * Schedules the watcher to poll repeatedly, starting at a random offset. The next poll is timed from the end of
+     * the previous one, so a watcher never polls while its own recording is still running.
+     * @param poll The poll of the watcher, usually {@link WatcherRunner#poll()}.
+     * @param interval The adaptive interval of the watcher.
+     * @return The handle cancelling the polls.
+     */
+    public Handle schedule(Supplier<PollOutcome> poll, AdaptivePollInterval interval) {
+        Handle handle = new Handle();
+        scheduleNext(poll, interval, interval.initialDelay(), handle);
+        return handle;
+    }
+
+    /**
+     * Arms the timer for the next poll of the watcher.
+     * @param poll The poll of the watcher.
+     * @param interval The adaptive interval of the watcher.
+     * @param delay The delay before this poll.
+     * @param handle The handle of the watcher.
+     */
+    private void scheduleNext(Supplier<PollOutcome> poll, AdaptivePollInterval interval, Duration delay,
+                              Handle handle) {
+        timer.schedule(() -> workers.execute(() -> {
+            if (timer.isShutdown() || !handle.startPoll()) return;
+            Instant polledAt = Instant.now();
+            PollOutcome outcome = PollOutcome.ERROR;
+            try {
+                outcome = poll.get();
+            } finally {
+                if (handle.endPoll() && !timer.isShutdown()) {
+                    scheduleNext(poll, interval, interval.nextDelay(outcome, polledAt), handle);
+                }
+            }
+        }), delay.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops firing polls. Running polls and the recordings they started are left to finish.
+     */
+    public void shutdown() {
+        timer.shutdownNow();
+    }
+
+    /**
+     * Starts a thread for short-lived or blocking helper work such as process pumps or conversions, see
+     * {@link HelperThreads}.
+     * @param name The name of the thread.
+     * @param task The task to run.
+     * @return The started thread.
+     */
+    public Thread startHelper(String name, Runnable task) {
+        return threads.start(name, task);
+    }
+
+    /**
+     * Gets the creator of the worker and helper threads.
+     * @return The helper threads.
+     */
+    public HelperThreads threads() {
+        return threads;
+    }
+
+    /**
+     * Handle of a scheduled watcher. Cancelling it never interrupts a running poll, so a recording in progress is
+     * finished first and only the polls after it are dropped.
+     */
+    public static class Handle {
+
+        /** Has the watcher been cancelled? */
+        private boolean cancelled;
+        /** Is a poll running? */
+        private boolean polling;
+        /** Completed once the watcher is cancelled and no poll is running any more. */
+        private final CompletableFuture<Void> retired = new CompletableFuture<>();
+
+        /**
+         * Cancels the polls of the watcher after the running one, if any.
+         * @return Future completed once the watcher has stopped polling.
+         */
+        public synchronized CompletableFuture<Void> cancel() {
+            cancelled = true;
+            if (!polling) retired.complete(null);
+            return retired;
+        }
+
+        /**
+         * Marks a poll as started.
+         * @return False if the watcher was cancelled and the poll must not run.
+         */
+        private synchronized boolean startPoll() {
+            if (cancelled) return false;
+            polling = true;
+            return true;
+        }
+
+        /**
+         * Marks a poll as ended.
+         * @return False if the watcher was cancelled meanwhile and must not be polled again.
+         */
+        private synchronized boolean endPoll() {
+            polling = false;
+            if (cancelled) retired.complete(null);
+            return !cancelled;
+        }
+
+    }
+
+}
@@ -0,0 +1,51 @@
+package me.davidthaler.tiktokliverecorder.watcher;
+
+import me.davidthaler.tiktokliverecorder.cluster.ChannelOwnership;
+import me.davidthaler.tiktokliverecorder.http.ThrottledHttpClient;
+import me.davidthaler.tiktokliverecorder.journal.RecordingJournal;
+import me.davidthaler.tiktokliverecorder.metrics.MetricsRegistry;
+import me.davidthaler.tiktokliverecorder.postprocess.PostProcessingService;
+import me.davidthaler.tiktokliverecorder.process.RecordingRegistry;
+import me.davidthaler.tiktokliverecorder.status.LiveStatusChecker;
+import me.davidthaler.tiktokliverecorder.status.RoomIdCache;
+import me.davidthaler.tiktokliverecorder.status.StatusResponseDecoder;
+import me.davidthaler.tiktokliverecorder.storage.StorageManager;
+import me.davidthaler.tiktokliverecorder.stream.StreamDownloader;
+import me.davidthaler.tiktokliverecorder.stream.StreamUrlService;
+import me.davidthaler.tiktokliverecorder.transcode.TranscodeScheduler;
+
+/**
+ * Record holding the services shared by all watchers.
+ * @param httpClient The throttled http client.
+ * @param decoder The status response decoder.
+ * @param statusChecker The batching live status checker.
+ * @param roomIdCache The room id cache.
+ * @param streamUrls The cached stream url resolution.
+ * @param downloader The in-process stream downloader.
+ * @param transcodes The admission control of encodes.
+ * @param storage The storage manager.
+ * @param journal The journal of the recordings still needing work.
+ * @param postProcessing The post-processing service.
+ * @param recordings The registry of active recordings.
+ * @param metrics The metrics registry.
+ * @param ownership The ownership of the channels within the cluster.
+ * @param scheduler The scheduler of the watcher polls, also starting the helper threads.
+ * @param shutdown The coordinator stopping the recordings on shutdown.
+ */
+public record WatcherServices(
+        ThrottledHttpClient httpClient,
+        StatusResponseDecoder decoder,
+        LiveStatusChecker statusChecker,
+        RoomIdCache roomIdCache,
+        StreamUrlService streamUrls,
+        StreamDownloader downloader,
+        TranscodeScheduler transcodes,
+        StorageManager storage,
+        RecordingJournal journal,
+        PostProcessingService postProcessing,
+        RecordingRegistry recordings,
+        MetricsRegistry metrics,
+        ChannelOwnership ownership,
+        WatcherScheduler scheduler,
+        ShutdownCoordinator shutdown) {
+}
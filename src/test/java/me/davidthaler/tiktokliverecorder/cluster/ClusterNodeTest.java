@@ -0,0 +1,112 @@
+package me.davidthaler.tiktokliverecorder.cluster;
+
+import me.davidthaler.tiktokliverecorder.config.ClusterConfig;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests of the channel leases and their takeover.
+ */
+class ClusterNodeTest {
+
+    /** Shared directory of the cluster. */
+    @TempDir
+    Path dir;
+    /** Nodes started by a test, left after it. */
+    private final List<ClusterNode> nodes = new ArrayList<>();
+
+    @AfterEach
+    void leave() {
+        nodes.forEach(ClusterNode::leave);
+    }
+
+    @Test
+    void validLeaseIsNotAcquiredByAnotherNode() throws Exception {
+        ClusterNode a = node("a", 30);
+        ClusterNode b = node("b", 30);
+        assertTrue(a.acquire("x"));
+        assertTrue(a.holds("x"));
+        assertFalse(b.acquire("x"));
+        assertTrue(lease().startsWith("a\t"));
+    }
+
+    @Test
+    void takesOverAnExpiredLease() throws Exception {
+        ClusterNode b = node("b", 30);
+        Files.writeString(dir.resolve("leases").resolve("x.lease"), "gone\t1");
+        assertTrue(b.acquire("x"));
+        assertTrue(b.holds("x"));
+        assertTrue(lease().startsWith("b\t"));
+        assertEquals(List.of("x.lease"), leaseFiles());
+    }
+
+    @Test
+    void leavesTheLeaseToTheNodeHoldingTheClaim() throws Exception {
+        ClusterNode b = node("b", 30);
+        Files.writeString(dir.resolve("leases").resolve("x.lease"), "gone\t1");
+        Files.writeString(dir.resolve("leases").resolve("x.lease.gone.1.claim"), "c\t" + System.currentTimeMillis());
+        assertFalse(b.acquire("x"));
+        assertFalse(b.holds("x"));
+        assertEquals("gone\t1", lease());
+    }
+
+    @Test
+    void clearsAStaleClaim() throws Exception {
+        ClusterNode b = node("b", 30);
+        Files.writeString(dir.resolve("leases").resolve("x.lease"), "gone\t1");
+        Path claim = Files.writeString(dir.resolve("leases").resolve("x.lease.gone.1.claim"), "c\t1");
+        Files.setLastModifiedTime(claim, FileTime.fromMillis(System.currentTimeMillis() - 60_000));
+        assertFalse(b.acquire("x"));
+        assertFalse(Files.exists(claim));
+        assertTrue(b.acquire("x"));
+        assertTrue(lease().startsWith("b\t"));
+    }
+
+    @Test
+    void releaseKeepsTheLeaseOfAnotherNode() throws Exception {
+        ClusterNode a = node("a", 30);
+        assertTrue(a.acquire("x"));
+        Files.writeString(dir.resolve("leases").resolve("x.lease"), "b\t" + (System.currentTimeMillis() + 30_000));
+        a.release("x");
+        assertTrue(lease().startsWith("b\t"));
+        assertFalse(a.holds("x"));
+    }
+
+    @Test
+    void notifiesMembershipChangesOffTheTicker() throws Exception {
+        ClusterNode a = node("a", 1);
+        CompletableFuture<String> thread = new CompletableFuture<>();
+        a.onMembershipChange(() -> thread.complete(Thread.currentThread().getName()));
+        node("b", 1);
+        assertEquals("cluster-membership", thread.get(5, TimeUnit.SECONDS));
+    }
+
+    private ClusterNode node(String id, long leaseSeconds) throws Exception {
+        ClusterNode node = new ClusterNode(new ClusterConfig(id, dir.toString(), leaseSeconds));
+        nodes.add(node);
+        return node;
+    }
+
+    private String lease() throws Exception {
+        return Files.readString(dir.resolve("leases").resolve("x.lease"));
+    }
+
+    private List<String> leaseFiles() throws Exception {
+        try (Stream<Path> files = Files.list(dir.resolve("leases"))) {
+            return files.map(f -> f.getFileName().toString()).sorted().toList();
+        }
+    }
+
+}
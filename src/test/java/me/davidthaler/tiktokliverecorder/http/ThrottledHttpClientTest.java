@@ -0,0 +1,121 @@
+package me.davidthaler.tiktokliverecorder.http;
+
+import com.sun.net.httpserver.HttpServer;
+import me.davidthaler.tiktokliverecorder.process.HelperThreads;
+import me.davidthaler.tiktokliverecorder.status.MalformedResponseException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests of the throttled http client against a local server.
+ */
+class ThrottledHttpClientTest {
+
+    /** Local server answering every request with "ok". */
+    private HttpServer server;
+    /** Requests received by the server. */
+    private final AtomicInteger received = new AtomicInteger();
+
+    @BeforeEach
+    void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", exchange -> {
+            received.incrementAndGet();
+            byte[] body = "ok".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        server.start();
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    void holdsTheInFlightSlotUntilTheBodyIsDecoded() throws Exception {
+        ThrottledHttpClient client = client(1, 5);
+        CountDownLatch decoding = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<String> first = client.sendAndDecode(request(), body -> {
+            decoding.countDown();
+            await(release);
+            return "first";
+        });
+        assertTrue(decoding.await(5, TimeUnit.SECONDS));
+        CompletableFuture<String> second = client.sendAndDecode(request(), body -> "second");
+        Thread.sleep(200);
+        assertEquals(1, received.get());
+        assertFalse(second.isDone());
+        release.countDown();
+        assertEquals("first", first.get(5, TimeUnit.SECONDS));
+        assertEquals("second", second.get(5, TimeUnit.SECONDS));
+        assertEquals(2, received.get());
+    }
+
+    @Test
+    void countsUndecodableBodiesTowardsTheBreaker() throws Exception {
+        ThrottledHttpClient client = client(4, 2);
+        for (int i = 0; i < 2; i++) {
+            CompletableFuture<String> failed = client.sendAndDecode(request(), body -> {
+                throw new MalformedResponseException("bad");
+            });
+            ExecutionException ex = assertThrows(ExecutionException.class, () -> failed.get(5, TimeUnit.SECONDS));
+            assertInstanceOf(MalformedResponseException.class, ex.getCause());
+        }
+        CompletableFuture<String> refused = client.sendAndDecode(request(), body -> "ok");
+        ExecutionException ex = assertThrows(ExecutionException.class, () -> refused.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(CircuitOpenException.class, ex.getCause());
+        assertEquals(2, received.get());
+    }
+
+    @Test
+    void sendsWithoutWaitingWhenNoRateIsSet() throws Exception {
+        ThrottledHttpClient client = new ThrottledHttpClient(HttpClient.newHttpClient(), 0, 4, 5,
+                Duration.ofMinutes(1), new HelperThreads(true));
+        List<CompletableFuture<String>> sent = new ArrayList<>();
+        for (int i = 0; i < 20; i++) sent.add(client.sendAndDecode(request(), body -> "ok"));
+        for (CompletableFuture<String> response : sent) assertEquals("ok", response.get(5, TimeUnit.SECONDS));
+        assertEquals(20, received.get());
+    }
+
+    private ThrottledHttpClient client(int maxInFlight, int breakerFailures) {
+        return new ThrottledHttpClient(HttpClient.newHttpClient(), 1000, maxInFlight, breakerFailures,
+                Duration.ofMinutes(1), new HelperThreads(true));
+    }
+
+    private HttpRequest request() {
+        return HttpRequest.newBuilder(URI.create("http://" + server.getAddress().getHostString() + ":"
+                + server.getAddress().getPort() + "/")).timeout(Duration.ofSeconds(5)).build();
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
@@ -0,0 +1,59 @@
+package me.davidthaler.tiktokliverecorder.http;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests of the token bucket rate limiter.
+ */
+class TokenBucketTest {
+
+    @Test
+    void grantsTheBurstStraightAway() {
+        TokenBucket bucket = new TokenBucket(1, 3);
+        for (int i = 0; i < 3; i++) {
+            assertTrue(bucket.acquire(Duration.ZERO).isDone());
+        }
+    }
+
+    @Test
+    void delaysReservedTokens() throws Exception {
+        TokenBucket bucket = new TokenBucket(20, 1);
+        assertTrue(bucket.acquire(Duration.ofSeconds(1)).isDone());
+        long start = System.nanoTime();
+        CompletableFuture<Void> reserved = bucket.acquire(Duration.ofSeconds(1));
+        assertFalse(reserved.isDone());
+        reserved.get();
+        assertTrue(System.nanoTime() - start >= Duration.ofMillis(40).toNanos());
+    }
+
+    @Test
+    void refusesReservationsBeyondTheMaximumWait() {
+        TokenBucket bucket = new TokenBucket(10, 1);
+        bucket.acquire(Duration.ofMillis(250));
+        assertFalse(bucket.acquire(Duration.ofMillis(250)).isCompletedExceptionally());
+        assertFalse(bucket.acquire(Duration.ofMillis(250)).isCompletedExceptionally());
+        CompletableFuture<Void> refused = bucket.acquire(Duration.ofMillis(250));
+        ExecutionException ex = assertThrows(ExecutionException.class, refused::get);
+        assertInstanceOf(RateLimitedException.class, ex.getCause());
+    }
+
+    @Test
+    void refusedCallsDoNotGrowTheBacklog() throws Exception {
+        TokenBucket bucket = new TokenBucket(10, 1);
+        bucket.acquire(Duration.ZERO);
+        for (int i = 0; i < 1000; i++) {
+            bucket.acquire(Duration.ZERO);
+        }
+        Thread.sleep(150);
+        CompletableFuture<Void> next = bucket.acquire(Duration.ZERO);
+        assertTrue(next.isDone());
+        assertFalse(next.isCompletedExceptionally());
+    }
+
+}
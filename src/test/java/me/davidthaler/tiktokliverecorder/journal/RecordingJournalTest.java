@@ -0,0 +1,91 @@
+package me.davidthaler.tiktokliverecorder.journal;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests of the journal replay and compaction.
+ */
+class RecordingJournalTest {
+
+    /** Directory of the journal and of the recordings. */
+    @TempDir
+    Path dir;
+
+    @Test
+    void replaysThePendingRecordings() throws Exception {
+        Path file = dir.resolve("journal.log");
+        RecordingJournal journal = new RecordingJournal(file);
+        assertTrue(journal.isNew());
+        File a = dir.resolve("a_1").toFile();
+        File b = dir.resolve("b_1").toFile();
+        File c = dir.resolve("c_1").toFile();
+        journal.recordingStarted(a, "a", true);
+        journal.recordingStarted(b, "b", false);
+        journal.recordingEnded(b);
+        journal.remuxStarted(Path.of(b.getPath() + ".mp4"));
+        journal.recordingStarted(c, "c", false);
+        journal.recordingEnded(c);
+        journal.remuxDone(Path.of(c.getPath() + ".mp4"));
+
+        RecordingJournal replayed = new RecordingJournal(file);
+        assertFalse(replayed.isNew());
+        assertEquals(List.of(new RecordingJournal.Pending(a.getAbsoluteFile(), "a", true,
+                        RecordingJournal.State.RECORDING),
+                new RecordingJournal.Pending(b.getAbsoluteFile(), "b", false, RecordingJournal.State.REMUXING)),
+                replayed.pending(dir.toFile()));
+        assertFalse(replayed.isPending(c));
+    }
+
+    @Test
+    void skipsTornAndUnknownLines() throws Exception {
+        Path file = dir.resolve("journal.log");
+        String base = dir.resolve("a_1").toAbsolutePath().toString();
+        Files.writeString(file, "1\tSTARTED\t" + base + "\ta\tfalse\n1\tRENAMED\t" + base + "\n1\tEND");
+        RecordingJournal journal = new RecordingJournal(file);
+        assertEquals(1, journal.pendingCount());
+        assertEquals(RecordingJournal.State.RECORDING, journal.pending(dir.toFile()).getFirst().state());
+    }
+
+    @Test
+    void compactsToThePendingRecordingsOnOpen() throws Exception {
+        Path file = dir.resolve("journal.log");
+        RecordingJournal journal = new RecordingJournal(file);
+        for (int i = 0; i < 50; i++) {
+            File base = dir.resolve("r_" + i).toFile();
+            journal.recordingStarted(base, "r", false);
+            journal.dropped(base);
+        }
+        journal.recordingStarted(dir.resolve("kept").toFile(), "k", false);
+        journal.recordingEnded(dir.resolve("kept").toFile());
+        assertEquals(102, Files.readAllLines(file).size());
+
+        RecordingJournal reopened = new RecordingJournal(file);
+        assertEquals(2, Files.readAllLines(file).size());
+        assertEquals(RecordingJournal.State.ENDED, reopened.pending(dir.toFile()).getFirst().state());
+    }
+
+    @Test
+    void compactsWhileRunningOnceMostEntriesAreFinished() throws Exception {
+        Path file = dir.resolve("journal.log");
+        RecordingJournal journal = new RecordingJournal(file);
+        journal.recordingStarted(dir.resolve("kept").toFile(), "k", true);
+        for (int i = 0; i < 600; i++) {
+            File base = dir.resolve("r_" + i).toFile();
+            journal.recordingStarted(base, "r", false);
+            journal.dropped(base);
+        }
+        assertTrue(Files.readAllLines(file).size() < 1201);
+        RecordingJournal reopened = new RecordingJournal(file);
+        assertEquals(1, reopened.pendingCount());
+        assertTrue(reopened.pending(dir.toFile()).getFirst().transcode());
+    }
+
+}
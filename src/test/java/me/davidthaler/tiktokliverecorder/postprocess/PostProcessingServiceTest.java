@@ -0,0 +1,206 @@
+package me.davidthaler.tiktokliverecorder.postprocess;
+
+import me.davidthaler.tiktokliverecorder.config.AppConfig;
+import me.davidthaler.tiktokliverecorder.config.WatcherConfig;
+import me.davidthaler.tiktokliverecorder.journal.RecordingJournal;
+import me.davidthaler.tiktokliverecorder.metrics.MetricsRegistry;
+import me.davidthaler.tiktokliverecorder.process.HelperThreads;
+import me.davidthaler.tiktokliverecorder.process.RecordingRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import tools.jackson.databind.ObjectMapper;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests of the post-processing recovery.
+ */
+class PostProcessingServiceTest {
+
+    /** Object mapper instance, building the configs. */
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    /** Output directory of the watcher. */
+    @TempDir
+    Path dir;
+
+    @Test
+    void findsUnfinishedRecordingsAndSkipsJoinedSessions() throws Exception {
+        Files.createFile(dir.resolve("a.mkv"));
+        Files.createFile(dir.resolve("b-converted.mkv"));
+        Files.createFile(dir.resolve("b.mp4"));
+        Files.createDirectory(dir.resolve("c.parts"));
+        Files.createDirectory(dir.resolve("d.parts"));
+        Files.createFile(dir.resolve("d.parts").resolve("seg_00000-converted.mkv"));
+        Files.createFile(dir.resolve("d.parts").resolve("concat.done"));
+        Files.createFile(dir.resolve("e.mp4.part"));
+        List<PostProcessingJob> jobs = PostProcessingService.findUnfinished(dir.toFile(), appConfig(),
+                watcherConfig(true));
+        Set<Path> keys = jobs.stream().map(PostProcessingJob::key).collect(Collectors.toSet());
+        assertEquals(Set.of(dir.resolve("a.mkv").toAbsolutePath(), dir.resolve("c.parts").toAbsolutePath()), keys);
+        assertFalse(Files.exists(dir.resolve("e.mp4.part")));
+    }
+
+    @Test
+    void joinedSessionIsNotJoinedAgain() throws Exception {
+        Path parts = Files.createDirectory(dir.resolve("d.parts"));
+        Files.createFile(parts.resolve("concat.done"));
+        assertTrue(ConcatSegments.isDone(parts.toFile()));
+        new ConcatSegments(parts.toFile(), appConfig(), watcherConfig(true)).run();
+        assertTrue(Files.exists(parts.resolve("concat.done")));
+        assertFalse(Files.exists(dir.resolve("d.mp4")));
+    }
+
+    @Test
+    void leavesSessionsBeingRecordedAlone() throws Exception {
+        Path out = Files.createDirectory(dir.resolve("out"));
+        RecordingJournal journal = new RecordingJournal(dir.resolve("journal.log"));
+        RecordingRegistry recordings = new RecordingRegistry();
+        PostProcessingService service = stoppedService(journal, recordings);
+        File base = out.resolve("a_1").toFile();
+        Files.createFile(out.resolve("a_1.mkv"));
+        Files.createFile(out.resolve("a_1.mp4.part"));
+        recordings.sessionStarted(base);
+        journal.recordingStarted(base, "a", false);
+        service.recover(out.toFile(), appConfig(), watcherConfig(false));
+        assertEquals(0, service.queueDepth());
+        assertEquals(RecordingJournal.State.RECORDING, journal.pending(out.toFile()).getFirst().state());
+        assertTrue(Files.exists(out.resolve("a_1.mp4.part")));
+        recordings.sessionEnded(base);
+        service.recover(out.toFile(), appConfig(), watcherConfig(false));
+        assertEquals(1, service.queueDepth());
+        assertEquals(RecordingJournal.State.ENDED, journal.pending(out.toFile()).getFirst().state());
+    }
+
+    @Test
+    void scansForRecordingsMissingFromTheJournalWhenConfigured() throws Exception {
+        Path out = Files.createDirectory(dir.resolve("out"));
+        new RecordingJournal(dir.resolve("journal.log"));
+        RecordingJournal journal = new RecordingJournal(dir.resolve("journal.log"));
+        assertFalse(journal.isNew());
+        PostProcessingService service = stoppedService(journal, new RecordingRegistry());
+        Files.createFile(out.resolve("a_2024-01-01_00-00-00.flv"));
+        AppConfig scanning = OBJECT_MAPPER.readValue("{\"recoveryScan\":true,\"watchers\":[]}", AppConfig.class);
+        service.recover(out.toFile(), scanning, watcherConfig(false));
+        assertEquals(1, service.queueDepth());
+        assertTrue(journal.isPending(out.resolve("a_2024-01-01_00-00-00").toFile()));
+        // Scanned once per run, the queued job is not found again.
+        service.recover(out.toFile(), scanning, watcherConfig(false));
+        assertEquals(1, service.queueDepth());
+    }
+
+    @Test
+    void onlyReadsTheJournalOnceItExists() throws Exception {
+        Path out = Files.createDirectory(dir.resolve("out"));
+        new RecordingJournal(dir.resolve("journal.log"));
+        RecordingJournal journal = new RecordingJournal(dir.resolve("journal.log"));
+        PostProcessingService service = stoppedService(journal, new RecordingRegistry());
+        Files.createFile(out.resolve("a_2024-01-01_00-00-00.flv"));
+        service.recover(out.toFile(), appConfig(), watcherConfig(false));
+        assertEquals(0, service.queueDepth());
+        assertFalse(journal.isPending(out.resolve("a_2024-01-01_00-00-00").toFile()));
+    }
+
+    @Test
+    void journalsRecordingsOfASharedDirectoryUnderTheirOwnChannel() throws Exception {
+        Path out = Files.createDirectory(dir.resolve("out"));
+        RecordingJournal journal = new RecordingJournal(dir.resolve("journal.log"));
+        assertTrue(journal.isNew());
+        PostProcessingService service = stoppedService(journal, new RecordingRegistry());
+        Files.createFile(out.resolve("a_2024-01-01_00-00-00.flv"));
+        Files.createFile(out.resolve("a_b_2024-01-01_00-00-00.flv"));
+        WatcherConfig shared = OBJECT_MAPPER.readValue("{\"channel\":\"a_b\",\"pollIntervalQty\":30,"
+                + "\"pollIntervalUnit\":\"Seconds\"}", WatcherConfig.class);
+        service.recover(out.toFile(), appConfig(), watcherConfig(false));
+        assertEquals(1, service.queueDepth());
+        service.recover(out.toFile(), appConfig(), shared);
+        assertEquals(2, service.queueDepth());
+        Set<String> owners = journal.pending(out.toFile()).stream()
+                .map(p -> p.base().getName() + "=" + p.channel()).collect(Collectors.toSet());
+        assertEquals(Set.of("a_2024-01-01_00-00-00=a", "a_b_2024-01-01_00-00-00=a_b"), owners);
+    }
+
+    @Test
+    void remuxesSegmentsAsStepsOfTheirRecording() throws Exception {
+        RecordingJournal journal = new RecordingJournal(dir.resolve("journal.log"));
+        RecordingRegistry recordings = new RecordingRegistry();
+        List<Path> finished = new CopyOnWriteArrayList<>();
+        PostProcessingService service = new PostProcessingService(1, journal, recordings,
+                new MetricsRegistry(recordings), null, finished::add, new HelperThreads(true));
+        File base = dir.resolve("a_1").toFile();
+        journal.recordingStarted(base, "a", false);
+        CountDownLatch remuxing = new CountDownLatch(1);
+        PostProcessingJob segment = new PostProcessingJob() {
+            @Override
+            public Path key() {
+                return dir.resolve("a_1.parts").resolve("seg_00000.mkv");
+            }
+
+            @Override
+            public long priority() {
+                return 0;
+            }
+
+            @Override
+            public Path output() {
+                return dir.resolve("a_1.mp4");
+            }
+
+            @Override
+            public void run() throws InterruptedException {
+                remuxing.await();
+            }
+        };
+        assertTrue(service.submitSegment(segment));
+        CompletableFuture<Void> awaited = CompletableFuture.runAsync(() -> {
+            try {
+                service.await(List.of(segment.key()));
+            } catch (InterruptedException ex) {
+                throw new IllegalStateException(ex);
+            }
+        });
+        assertThrows(TimeoutException.class, () -> awaited.get(200, TimeUnit.MILLISECONDS));
+        remuxing.countDown();
+        awaited.get(5, TimeUnit.SECONDS);
+        assertEquals(1, service.completedCount());
+        assertTrue(finished.isEmpty());
+        assertEquals(RecordingJournal.State.RECORDING, journal.pending(dir.toFile()).getFirst().state());
+        service.shutdown(Duration.ofSeconds(1));
+    }
+
+    /**
+     * Creates a service whose workers are already stopped, so recovered jobs stay queued.
+     * @param journal The recording journal.
+     * @param recordings The registry of the sessions being recorded.
+     * @return The service.
+     */
+    private static PostProcessingService stoppedService(RecordingJournal journal, RecordingRegistry recordings) {
+        PostProcessingService service = new PostProcessingService(1, journal, recordings,
+                new MetricsRegistry(recordings), null, mp4 -> { }, new HelperThreads(true));
+        service.shutdown(Duration.ofSeconds(1));
+        return service;
+    }
+
+    static AppConfig appConfig() {
+        return OBJECT_MAPPER.readValue("{\"watchers\":[]}", AppConfig.class);
+    }
+
+    static WatcherConfig watcherConfig(boolean keepFiles) {
+        return OBJECT_MAPPER.readValue("{\"channel\":\"a\",\"pollIntervalQty\":30,\"pollIntervalUnit\":\"Seconds\","
+                + "\"keepMKVFiles\":" + keepFiles + "}", WatcherConfig.class);
+    }
+
+}
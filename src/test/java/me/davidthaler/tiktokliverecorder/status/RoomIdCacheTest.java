@@ -0,0 +1,74 @@
+package me.davidthaler.tiktokliverecorder.status;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import tools.jackson.databind.ObjectMapper;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests of the room id cache and its persistence.
+ */
+class RoomIdCacheTest {
+
+    /** Directory of the persisted cache. */
+    @TempDir
+    Path dir;
+
+    @Test
+    void putDoesNotWriteUntilFlushed() {
+        Path file = dir.resolve("rooms.json");
+        RoomIdCache cache = new RoomIdCache(10, Duration.ofMinutes(10), file, new ObjectMapper());
+        cache.put("a", "1");
+        assertFalse(Files.exists(file));
+        cache.flush();
+        assertTrue(Files.exists(file));
+    }
+
+    @Test
+    void reloadsPersistedEntries() {
+        Path file = dir.resolve("rooms.json");
+        RoomIdCache cache = new RoomIdCache(10, Duration.ofMinutes(10), file, new ObjectMapper());
+        cache.put("a", "1");
+        cache.put("b", "2");
+        cache.invalidate("b");
+        cache.flush();
+        RoomIdCache reloaded = new RoomIdCache(10, Duration.ofMinutes(10), file, new ObjectMapper());
+        assertEquals("1", reloaded.get("a"));
+        assertNull(reloaded.get("b"));
+    }
+
+    @Test
+    void dropsExpiredEntriesOnLoad() throws Exception {
+        Path file = dir.resolve("rooms.json");
+        Files.writeString(file, "{\"a\":{\"roomId\":\"1\",\"expiresAt\":1},\"b\":{\"roomId\":\"2\",\"expiresAt\":"
+                + (System.currentTimeMillis() + 60_000) + "}}");
+        RoomIdCache cache = new RoomIdCache(10, Duration.ofMinutes(10), file, new ObjectMapper());
+        assertNull(cache.get("a"));
+        assertEquals("2", cache.get("b"));
+    }
+
+    @Test
+    void ignoresUnreadableFile() throws Exception {
+        Path file = dir.resolve("rooms.json");
+        Files.writeString(file, "[1, 2");
+        RoomIdCache cache = new RoomIdCache(10, Duration.ofMinutes(10), file, new ObjectMapper());
+        assertNull(cache.get("a"));
+    }
+
+    @Test
+    void evictsLeastRecentlyUsed() {
+        RoomIdCache cache = new RoomIdCache(2, Duration.ofMinutes(10), null, new ObjectMapper());
+        cache.put("a", "1");
+        cache.put("b", "2");
+        cache.get("a");
+        cache.put("c", "3");
+        assertEquals("1", cache.get("a"));
+        assertNull(cache.get("b"));
+    }
+
+}
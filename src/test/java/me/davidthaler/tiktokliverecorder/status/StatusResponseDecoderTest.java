@@ -0,0 +1,79 @@
+package me.davidthaler.tiktokliverecorder.status;
+
+import org.junit.jupiter.api.Test;
+import tools.jackson.databind.ObjectMapper;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests of the streaming status response decoder.
+ */
+class StatusResponseDecoderTest {
+
+    /** Decoder under test. */
+    private final StatusResponseDecoder decoder = new StatusResponseDecoder(new ObjectMapper());
+
+    @Test
+    void decodesEveryRoomOfTheBatch() {
+        Map<String, RoomStatus> statuses = decoder.decodeCheckAlive(json("""
+                {"data":[{"alive":true,"room_id":1,"room_id_str":"1"},{"alive":false,"room_id":2}],
+                 "status_code":0}"""), List.of("1", "2"));
+        assertEquals(Map.of("1", RoomStatus.ALIVE, "2", RoomStatus.NOT_ALIVE), statuses);
+    }
+
+    @Test
+    void skipsMalformedEntriesWithoutFailingTheBatch() {
+        Map<String, RoomStatus> statuses = decoder.decodeCheckAlive(json("""
+                {"data":["oops",{"alive":{"x":1},"room_id_str":"1"},{"room_id_str":"2"},
+                 {"alive":true,"room_id_str":"3"}]}"""), List.of("1", "2", "3"));
+        assertEquals(Map.of("3", RoomStatus.ALIVE), statuses);
+    }
+
+    @Test
+    void doesNotMatchEntriesByPositionInALargerBatch() {
+        Map<String, RoomStatus> statuses = decoder.decodeCheckAlive(json("""
+                {"data":[{"alive":true}]}"""), List.of("1", "2"));
+        assertTrue(statuses.isEmpty());
+    }
+
+    @Test
+    void matchesAnEntryWithoutRoomIdToASingleRoom() {
+        Map<String, RoomStatus> statuses = decoder.decodeCheckAlive(json("""
+                {"data":[{"alive":true}]}"""), List.of("7"));
+        assertEquals(Map.of("7", RoomStatus.ALIVE), statuses);
+    }
+
+    @Test
+    void ignoresRoomsThatWereNotRequested() {
+        Map<String, RoomStatus> statuses = decoder.decodeCheckAlive(json("""
+                {"data":[{"alive":true,"room_id_str":"9"}]}"""), List.of("1"));
+        assertTrue(statuses.isEmpty());
+    }
+
+    @Test
+    void failsWithoutDataArray() {
+        assertThrows(MalformedResponseException.class,
+                () -> decoder.decodeCheckAlive(json("{\"status_code\":4}"), List.of("1")));
+    }
+
+    @Test
+    void decodesUserRoom() {
+        UserRoom room = decoder.decodeUserRoom(json("""
+                {"data":{"user":{"roomId":"42","uniqueId":"a"},
+                 "liveRoom":{"streamData":{"pull_data":{"stream_data":"{}"}}}},"message":""}"""));
+        assertEquals("42", room.roomId());
+        assertEquals("{}", room.streamData());
+        assertFalse(room.userNotFound());
+    }
+
+    private static InputStream json(String json) {
+        return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+}
@@ -0,0 +1,109 @@
+package me.davidthaler.tiktokliverecorder.storage;
+
+import me.davidthaler.tiktokliverecorder.config.AppConfig;
+import me.davidthaler.tiktokliverecorder.config.WatcherConfig;
+import me.davidthaler.tiktokliverecorder.process.RecordingRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import tools.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests of the quota tracking and archiving of finished recordings.
+ */
+class StorageManagerTest {
+
+    /** Object mapper instance, building the configs. */
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    /** Root of the output and archive directories. */
+    @TempDir
+    Path dir;
+
+    @Test
+    void keepsTheQuotaOfEachChannelOfASharedDirectory() throws Exception {
+        StorageManager storage = new StorageManager(appConfig(null), new RecordingRegistry());
+        Path out = dir.resolve("out");
+        storage.register(watcherConfig("a", out, 1L));
+        storage.register(watcherConfig("b", out, null));
+        Path b = recording(out.resolve("b_2024-01-01_00-00-00.mp4"), 1);
+        Path a1 = recording(out.resolve("a_2024-01-02_00-00-00.mp4"), 2);
+        Path a2 = recording(out.resolve("a_2024-01-03_00-00-00.mp4"), 3);
+        storage.finished(b);
+        storage.finished(a1);
+        assertTrue(Files.exists(a1));
+        storage.finished(a2);
+        assertFalse(Files.exists(a1));
+        assertTrue(Files.exists(a2));
+        assertTrue(Files.exists(b));
+    }
+
+    @Test
+    void archivesOutputDirectoriesOfTheSameNameApart() throws Exception {
+        Path archive = dir.resolve("archive");
+        StorageManager storage = new StorageManager(appConfig(archive), new RecordingRegistry());
+        Path x = dir.resolve("x").resolve("foo");
+        Path y = dir.resolve("y").resolve("foo");
+        storage.register(watcherConfig("a", x, null));
+        storage.register(watcherConfig("b", y, null));
+        String name = "rec_2024-01-01_00-00-00.mp4";
+        storage.finished(recording(x.resolve(name), 1));
+        storage.finished(recording(y.resolve(name), 1));
+        assertTrue(Files.exists(archive.resolve(x.getRoot().relativize(x.toAbsolutePath())).resolve(name)));
+        assertTrue(Files.exists(archive.resolve(y.getRoot().relativize(y.toAbsolutePath())).resolve(name)));
+        assertFalse(Files.exists(x.resolve(name)));
+    }
+
+    @Test
+    void admitsWithoutAWatermarkByDefault() {
+        AppConfig appConfig = OBJECT_MAPPER.readValue("{\"watchers\":[]}", AppConfig.class);
+        StorageManager storage = new StorageManager(appConfig, new RecordingRegistry());
+        assertTrue(storage.admit(dir.toFile()));
+        assertEquals(0, storage.refusedCount());
+    }
+
+    @Test
+    void countsAdmissionsRefusedBelowTheWatermark() {
+        AppConfig appConfig = OBJECT_MAPPER.readValue("{\"watchers\":[],\"minFreeSpaceMb\":1000000000}",
+                AppConfig.class);
+        StorageManager storage = new StorageManager(appConfig, new RecordingRegistry());
+        assertFalse(storage.admit(dir.toFile()));
+        assertFalse(storage.admit(dir.toFile()));
+        assertEquals(2, storage.refusedCount());
+    }
+
+    /**
+     * Creates a finished recording of 600 KB.
+     * @param file The file.
+     * @param day Day of January 2024 the file was last modified on, ordering the recordings.
+     * @return The file.
+     */
+    private static Path recording(Path file, int day) throws IOException {
+        Files.createDirectories(file.getParent());
+        Files.write(file, new byte[600 * 1024]);
+        Files.setLastModifiedTime(file, FileTime.fromMillis(1_704_067_200_000L + day * 86_400_000L));
+        return file;
+    }
+
+    private static AppConfig appConfig(Path archive) {
+        String archivePath = archive == null ? "" : ",\"archivePath\":" + quote(archive);
+        return OBJECT_MAPPER.readValue("{\"watchers\":[],\"minFreeSpaceMb\":0" + archivePath + "}", AppConfig.class);
+    }
+
+    private static WatcherConfig watcherConfig(String channel, Path out, Long maxStorageMb) {
+        return OBJECT_MAPPER.readValue("{\"channel\":\"" + channel + "\",\"pollIntervalQty\":30,"
+                + "\"pollIntervalUnit\":\"Seconds\",\"outputPath\":" + quote(out) + ",\"maxStorageMb\":"
+                + maxStorageMb + "}", WatcherConfig.class);
+    }
+
+    private static String quote(Path path) {
+        return OBJECT_MAPPER.writeValueAsString(path.toString());
+    }
+
+}
@@ -0,0 +1,108 @@
+package me.davidthaler.tiktokliverecorder.stream;
+
+import me.davidthaler.tiktokliverecorder.process.RecordingStats;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Flow;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests of the body subscriber writing responses to a file channel.
+ */
+class FileChannelSubscriberTest {
+
+    /** Directory of the written file. */
+    @TempDir
+    Path dir;
+    /** The file written to. */
+    private Path file;
+    /** Channel of the file. */
+    private FileChannel channel;
+    /** Subscriber under test. */
+    private FileChannelSubscriber subscriber;
+    /** Items requested by the subscriber so far. */
+    private long requested;
+    /** Has the subscriber cancelled its subscription? */
+    private boolean cancelled;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        file = dir.resolve("out.flv");
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        subscriber = new FileChannelSubscriber(channel, new RecordingStats("a", file));
+        subscriber.onSubscribe(new Flow.Subscription() {
+            @Override
+            public void request(long n) {
+                requested += n;
+            }
+
+            @Override
+            public void cancel() {
+                cancelled = true;
+            }
+        });
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        channel.close();
+    }
+
+    @Test
+    void writesEveryBufferOfAnItem() throws Exception {
+        subscriber.onNext(List.of(bytes("ab"), bytes("cd")));
+        subscriber.onNext(List.of(bytes("e")));
+        subscriber.onComplete();
+        assertEquals(5, (long) subscriber.getBody().toCompletableFuture().get());
+        assertEquals("abcde", Files.readString(file));
+        assertEquals(3, requested);
+    }
+
+    @Test
+    void completesExceptionallyOnError() throws Exception {
+        subscriber.onNext(List.of(bytes("ab")));
+        IOException error = new IOException("reset");
+        subscriber.onError(error);
+        CompletableFuture<Long> body = subscriber.getBody().toCompletableFuture();
+        ExecutionException ex = assertThrows(ExecutionException.class, body::get);
+        assertSame(error, ex.getCause());
+        assertEquals("ab", Files.readString(file));
+    }
+
+    @Test
+    void failsAndCancelsWhenTheWriteFails() throws Exception {
+        channel.close();
+        subscriber.onNext(List.of(bytes("ab")));
+        assertTrue(cancelled);
+        assertTrue(subscriber.getBody().toCompletableFuture().isCompletedExceptionally());
+    }
+
+    @Test
+    void cancelKeepsWhatWasWritten() throws Exception {
+        subscriber.onNext(List.of(bytes("abc")));
+        subscriber.cancel();
+        assertTrue(cancelled);
+        assertEquals(3, (long) subscriber.getBody().toCompletableFuture().get());
+        subscriber.onNext(List.of(bytes("d")));
+        assertEquals("abc", Files.readString(file));
+    }
+
+    private static ByteBuffer bytes(String text) {
+        return ByteBuffer.wrap(text.getBytes(StandardCharsets.US_ASCII));
+    }
+
+}
@@ -0,0 +1,81 @@
+package me.davidthaler.tiktokliverecorder.stream;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests of the hls playlist parsing and segment tracking.
+ */
+class HlsDownloadTest {
+
+    @Test
+    void followsTheBestVariantOfAMasterPlaylist() {
+        HlsDownload.Playlist playlist = HlsDownload.Playlist.parse("""
+                #EXTM3U
+                #EXT-X-STREAM-INF:BANDWIDTH=800000,RESOLUTION=640x360
+                low.m3u8
+                #EXT-X-STREAM-INF:BANDWIDTH=2500000,RESOLUTION=1280x720
+                high.m3u8
+                #EXT-X-STREAM-INF:BANDWIDTH=1200000
+                mid.m3u8
+                """);
+        assertEquals("high.m3u8", playlist.variant());
+        assertTrue(playlist.segments().isEmpty());
+    }
+
+    @Test
+    void parsesAMediaPlaylist() {
+        HlsDownload.Playlist playlist = HlsDownload.Playlist.parse("""
+                #EXTM3U\r
+                #EXT-X-TARGETDURATION:4\r
+                #EXT-X-MEDIA-SEQUENCE:120\r
+                #EXTINF:4.0,\r
+                s120.ts\r
+                #EXTINF:4.0,\r
+                s121.ts\r
+                #EXT-X-ENDLIST\r
+                """);
+        assertNull(playlist.variant());
+        assertEquals(Duration.ofSeconds(4), playlist.targetDuration());
+        assertEquals(120, playlist.mediaSequence());
+        assertEquals(List.of("s120.ts", "s121.ts"), playlist.segments());
+        assertEquals(-1, playlist.discontinuity());
+        assertTrue(playlist.ended());
+    }
+
+    @Test
+    void continuesAfterTheLastDownloadedSegment() {
+        HlsDownload.Playlist playlist = media(11, "#EXTINF:2,", "s11.ts", "#EXTINF:2,", "s12.ts", "#EXTINF:2,",
+                "s13.ts");
+        assertEquals(0, playlist.firstNew(-1, null));
+        assertEquals(2, playlist.firstNew(12, "s12.ts"));
+        assertEquals(3, playlist.firstNew(13, "s13.ts"));
+        assertEquals(0, playlist.firstNew(9, "s9.ts"));
+    }
+
+    @Test
+    void downloadsEverySegmentAfterASequenceReset() {
+        HlsDownload.Playlist playlist = media(0, "#EXTINF:2,", "r0.ts", "#EXTINF:2,", "r1.ts");
+        assertEquals(0, playlist.firstNew(250, "s250.ts"));
+    }
+
+    @Test
+    void restartsAtTheDiscontinuityWhenTheNumberingMatchesAnotherSegment() {
+        HlsDownload.Playlist playlist = media(4, "#EXTINF:2,", "s4.ts", "#EXT-X-DISCONTINUITY", "#EXTINF:2,",
+                "r0.ts", "#EXTINF:2,", "r1.ts");
+        assertEquals(1, playlist.discontinuity());
+        assertEquals(1, playlist.firstNew(4, "s4.ts"));
+        assertEquals(1, playlist.firstNew(5, "s5.ts"));
+        assertEquals(3, playlist.firstNew(5, "r1.ts"));
+    }
+
+    private static HlsDownload.Playlist media(long sequence, String... lines) {
+        return HlsDownload.Playlist.parse("#EXTM3U\n#EXT-X-TARGETDURATION:2\n#EXT-X-MEDIA-SEQUENCE:" + sequence + "\n"
+                + String.join("\n", lines));
+    }
+
+}
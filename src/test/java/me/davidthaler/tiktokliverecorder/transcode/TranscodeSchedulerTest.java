@@ -0,0 +1,82 @@
+package me.davidthaler.tiktokliverecorder.transcode;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests of the admission control of live and post-processing encodes.
+ */
+class TranscodeSchedulerTest {
+
+    @Test
+    void defersLiveEncodesOnceTheBudgetIsUsedUp() {
+        TranscodeScheduler scheduler = new TranscodeScheduler(3, 2, "veryfast");
+        EncodeSlot first = scheduler.acquire();
+        EncodeSlot second = scheduler.acquire();
+        assertEquals(new EncodeSlot(2, "veryfast"), first);
+        assertEquals(new EncodeSlot(1, "superfast"), second);
+        assertTrue(scheduler.acquire().deferred());
+        assertEquals(1, scheduler.deferredCount());
+    }
+
+    @Test
+    void postLiveEncodesTakeAtMostHalfTheBudget() throws Exception {
+        TranscodeScheduler scheduler = new TranscodeScheduler(2, 2, "veryfast");
+        EncodeSlot post = scheduler.acquirePostLive();
+        assertEquals(new EncodeSlot(1, "veryfast"), post);
+        EncodeSlot live = scheduler.acquire();
+        assertEquals(new EncodeSlot(1, "superfast"), live);
+        assertEquals(2, scheduler.threadsInUse());
+        scheduler.release(live);
+        scheduler.releasePostLive(post);
+        assertEquals(0, scheduler.threadsInUse());
+        assertEquals(0, scheduler.postLiveCount());
+    }
+
+    @Test
+    void admitsLiveEncodesWhilePostLiveEncodesAreQueued() throws Exception {
+        TranscodeScheduler scheduler = new TranscodeScheduler(4, 2, "veryfast");
+        EncodeSlot running = scheduler.acquirePostLive();
+        CompletableFuture<EncodeSlot> queued = CompletableFuture.supplyAsync(() -> {
+            try {
+                return scheduler.acquirePostLive();
+            } catch (InterruptedException ex) {
+                throw new IllegalStateException(ex);
+            }
+        });
+        assertThrows(TimeoutException.class, () -> queued.get(200, TimeUnit.MILLISECONDS));
+        assertEquals(new EncodeSlot(2, "veryfast"), scheduler.acquire());
+        assertEquals(1, scheduler.liveCount());
+        scheduler.releasePostLive(running);
+        assertEquals(new EncodeSlot(2, "veryfast"), queued.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void postLiveEncodesWaitForFreeThreads() throws Exception {
+        TranscodeScheduler scheduler = new TranscodeScheduler(2, 2, "veryfast");
+        EncodeSlot live = scheduler.acquire();
+        CompletableFuture<EncodeSlot> post = CompletableFuture.supplyAsync(() -> {
+            try {
+                return scheduler.acquirePostLive();
+            } catch (InterruptedException ex) {
+                throw new IllegalStateException(ex);
+            }
+        });
+        assertThrows(TimeoutException.class, () -> post.get(200, TimeUnit.MILLISECONDS));
+        scheduler.release(live);
+        assertEquals(new EncodeSlot(1, "veryfast"), post.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void postLiveEncodesRunWithoutABudget() throws Exception {
+        TranscodeScheduler scheduler = new TranscodeScheduler(0, 2, "veryfast");
+        assertEquals(new EncodeSlot(2, "veryfast"), scheduler.acquirePostLive());
+        assertTrue(scheduler.acquire().deferred());
+    }
+
+}
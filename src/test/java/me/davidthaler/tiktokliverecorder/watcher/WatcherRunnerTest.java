@@ -0,0 +1,140 @@
+package me.davidthaler.tiktokliverecorder.watcher;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import me.davidthaler.tiktokliverecorder.cluster.ChannelOwnership;
+import me.davidthaler.tiktokliverecorder.config.AppConfig;
+import me.davidthaler.tiktokliverecorder.config.WatcherConfig;
+import me.davidthaler.tiktokliverecorder.http.ThrottledHttpClient;
+import me.davidthaler.tiktokliverecorder.journal.RecordingJournal;
+import me.davidthaler.tiktokliverecorder.metrics.MetricsRegistry;
+import me.davidthaler.tiktokliverecorder.postprocess.PostProcessingService;
+import me.davidthaler.tiktokliverecorder.process.HelperThreads;
+import me.davidthaler.tiktokliverecorder.process.RecordingRegistry;
+import me.davidthaler.tiktokliverecorder.status.LiveStatusChecker;
+import me.davidthaler.tiktokliverecorder.status.RoomIdCache;
+import me.davidthaler.tiktokliverecorder.status.StatusResponseDecoder;
+import me.davidthaler.tiktokliverecorder.storage.StorageManager;
+import me.davidthaler.tiktokliverecorder.stream.PullUrlDecoder;
+import me.davidthaler.tiktokliverecorder.stream.StreamDownloader;
+import me.davidthaler.tiktokliverecorder.stream.StreamUrlService;
+import me.davidthaler.tiktokliverecorder.transcode.TranscodeScheduler;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import tools.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests of the requests a watcher sends while polling, against local stand-ins of the signer, the user lookup and
+ * check_alive.
+ */
+class WatcherRunnerTest {
+
+    /** Object mapper instance, building the configs. */
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    /** Working directory holding the journal and the output. */
+    @TempDir
+    Path dir;
+    /** Local server of the stand-in endpoints. */
+    private HttpServer server;
+    /** Requests received by the signer. */
+    private final AtomicInteger signs = new AtomicInteger();
+    /** Requests received by the user lookup. */
+    private final AtomicInteger lookups = new AtomicInteger();
+    /** Requests received by check_alive. */
+    private final AtomicInteger checks = new AtomicInteger();
+
+    @BeforeEach
+    void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/sign", exchange -> {
+            signs.incrementAndGet();
+            respond(exchange, "{\"signed_url\":\"" + baseUrl() + "/user\"}");
+        });
+        server.createContext("/user", exchange -> {
+            lookups.incrementAndGet();
+            respond(exchange, "{\"message\":\"\",\"data\":{\"user\":{\"roomId\":\"42\"}}}");
+        });
+        server.createContext("/webcast/room/check_alive/", exchange -> {
+            checks.incrementAndGet();
+            respond(exchange, "{\"data\":[{\"alive\":false,\"room_id_str\":\"42\"}]}");
+        });
+        server.start();
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    void reusesTheRoomIdOfAChannelThatIsNotLive() throws Exception {
+        WatcherRunner runner = runner(3);
+        for (int i = 0; i < 6; i++) assertEquals(PollOutcome.NOT_LIVE, runner.poll());
+        // Resolved on the first poll and again on the fourth, every other poll only checks the cached room.
+        assertEquals(2, signs.get());
+        assertEquals(2, lookups.get());
+        assertEquals(6, checks.get());
+    }
+
+    private WatcherRunner runner(int refreshPolls) throws IOException {
+        AppConfig appConfig = OBJECT_MAPPER.readValue(OBJECT_MAPPER.writeValueAsString(Map.of(
+                "signerUrl", baseUrl() + "/sign?unique_id=",
+                "webcastUrl", baseUrl(),
+                "roomIdRefreshPolls", refreshPolls,
+                "journalPath", dir.resolve("journal.log").toString(),
+                "watchers", List.of())), AppConfig.class);
+        WatcherConfig watcherConfig = OBJECT_MAPPER.readValue(OBJECT_MAPPER.writeValueAsString(Map.of(
+                "channel", "a",
+                "pollIntervalQty", 30,
+                "pollIntervalUnit", "Seconds",
+                "outputPath", dir.resolve("out").toString())), WatcherConfig.class);
+        HelperThreads threads = new HelperThreads(true);
+        StatusResponseDecoder decoder = new StatusResponseDecoder(OBJECT_MAPPER);
+        ThrottledHttpClient httpClient = new ThrottledHttpClient(HttpClient.newHttpClient(), 1000, 8, 5,
+                Duration.ofMinutes(1), threads);
+        RecordingRegistry recordings = new RecordingRegistry();
+        MetricsRegistry metrics = new MetricsRegistry(recordings);
+        RecordingJournal journal = new RecordingJournal(Path.of(appConfig.journalPath()));
+        TranscodeScheduler transcodes = new TranscodeScheduler(0, 1, appConfig.encodePreset());
+        PostProcessingService postProcessing = new PostProcessingService(1, journal, recordings, metrics, transcodes,
+                mp4 -> { }, threads);
+        WatcherScheduler scheduler = new WatcherScheduler(threads);
+        WatcherServices services = new WatcherServices(httpClient, decoder,
+                new LiveStatusChecker(httpClient, decoder, metrics, 50, appConfig.webcastUrl()),
+                new RoomIdCache(10, Duration.ofMinutes(10), null, OBJECT_MAPPER),
+                new StreamUrlService(List.of(), new PullUrlDecoder(OBJECT_MAPPER), metrics),
+                new StreamDownloader(HttpClient.newHttpClient(), threads), transcodes,
+                new StorageManager(appConfig, recordings), journal, postProcessing, recordings, metrics,
+                ChannelOwnership.SOLO, scheduler,
+                new ShutdownCoordinator(scheduler, postProcessing, journal, Duration.ofSeconds(1)));
+        return new WatcherRunner(appConfig, watcherConfig, services);
+    }
+
+    private String baseUrl() {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort();
+    }
+
+    private static void respond(HttpExchange exchange, String json) throws IOException {
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(200, body.length);
+        exchange.getResponseBody().write(body);
+        exchange.close();
+    }
+
+}